@@ -0,0 +1,99 @@
+package com.koubek.benchmarks;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.koubek.detection.FaceDetector;
+import com.koubek.detection.FaceDetectorType;
+import com.koubek.tracking.FaceTracker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DetectionBenchmark measures the camera's face detection path on a fixed frame: grayscale conversion, cascade detection and tracking.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0", "1", "5"})
+    public int faces;
+
+    @Param({"haar", "lbp"})
+    public String detectorType;
+
+    @Param({"1", "0.5"})
+    public double detectionScale;
+
+    /**
+     * Path to a face image pasted into the frame, empty to use generated faces
+     */
+    @Param({""})
+    public String faceImage;
+
+    private Mat frame;
+    private Mat grayFrame;
+    private FaceDetector detector;
+    private FaceTracker tracker;
+
+    @Setup
+    public void setup() {
+        Fixtures.loadOpenCV();
+        frame = Fixtures.createFrame(resolution, faces, faceImage);
+        grayFrame = new Mat();
+        Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+        detector = FaceDetectorType.fromName(detectorType).create(detectionScale);
+        tracker = new FaceTracker(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        tracker.update(grayFrame, detector.detect(grayFrame));
+    }
+
+    @Benchmark
+    public Mat grayscale() {
+        Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+        return grayFrame;
+    }
+
+    @Benchmark
+    public Rect[] detect() {
+        return detector.detect(grayFrame);
+    }
+
+    @Benchmark
+    public Rect[] grayscaleAndDetect() {
+        Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+        return detector.detect(grayFrame);
+    }
+
+    @Benchmark
+    public Rect[] track() {
+        tracker.track(grayFrame);
+        return tracker.getFaces();
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracker.release();
+        detector.release();
+        grayFrame.release();
+        frame.release();
+    }
+}
@@ -0,0 +1,107 @@
+package com.koubek.benchmarks;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.koubek.detection.FaceDetector;
+import com.koubek.detection.FaceDetectorType;
+import com.koubek.detection.Rects;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DetectorBenchmark compares the latency and the found faces of the face detectors and detection scales on the same frames.
+ * Detections of the Haar detector at full resolution serve as the reference, a reference face counts as found if a detected face overlaps it by at least half.
+ * The recall is printed once per setup, the measured operation detects the faces of a single frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectorBenchmark {
+    private static final double MIN_OVERLAP = 0.5;
+
+    @Param({"haar", "lbp"})
+    public String detectorType;
+
+    /**
+     * Scale frames are resized to before detection, lower scales trade recall for latency
+     */
+    @Param({"1", "0.5", "0.3333", "0.25"})
+    public double detectionScale;
+
+    /**
+     * Path to an image or a directory of images containing faces, empty to use frames with generated faces
+     */
+    @Param({""})
+    public String imagePath;
+
+    /**
+     * Resolution of the frames with generated faces
+     */
+    @Param({"1280x720"})
+    public String resolution;
+
+    private ArrayList<Mat> grayFrames;
+    private FaceDetector detector;
+    private int nextFrame = 0;
+
+    @Setup
+    public void setup() {
+        Fixtures.loadOpenCV();
+        grayFrames = Fixtures.loadGrayFrames(imagePath, resolution, 5);
+        detector = FaceDetectorType.fromName(detectorType).create(detectionScale);
+        printRecall();
+    }
+
+    @Benchmark
+    public Rect[] detect() {
+        Mat grayFrame = grayFrames.get(nextFrame);
+        nextFrame = (nextFrame + 1) % grayFrames.size();
+        return detector.detect(grayFrame);
+    }
+
+    /**
+     * Prints the share of the faces found by the reference detector which the benchmarked detector finds as well
+     */
+    private void printRecall() {
+        FaceDetector referenceDetector = FaceDetectorType.HAAR.create(1);
+        int referenceFaces = 0;
+        int matchedFaces = 0;
+        int detectedFaces = 0;
+        for (Mat grayFrame : grayFrames) {
+            Rect[] reference = referenceDetector.detect(grayFrame);
+            Rect[] faces = detector.detect(grayFrame);
+            referenceFaces += reference.length;
+            matchedFaces += Rects.countMatches(reference, faces, MIN_OVERLAP);
+            detectedFaces += faces.length;
+        }
+        referenceDetector.release();
+        double recall = referenceFaces > 0 ? matchedFaces / (double) referenceFaces : 1;
+        System.out.println(String.format("%s at detection scale %s on %d frames: recall %.3f of %d reference faces, %d faces detected",
+                detectorType, detectionScale, grayFrames.size(), recall, referenceFaces, detectedFaces));
+    }
+
+    @TearDown
+    public void tearDown() {
+        detector.release();
+        for (Mat grayFrame : grayFrames) {
+            grayFrame.release();
+        }
+    }
+}
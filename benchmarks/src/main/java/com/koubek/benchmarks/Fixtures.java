@@ -0,0 +1,201 @@
+package com.koubek.benchmarks;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.face.LBPHFaceRecognizer;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Person;
+import com.koubek.Recognizer;
+import com.koubek.source.ImageDirectoryFrameSource;
+import com.koubek.source.SyntheticFrameSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Fixtures contains static methods creating the fixed frames, faces and galleries the benchmarks run on.
+ * All fixtures are generated from fixed seeds, so every run measures the same data.
+ * Benchmarks have to be run from the project root, where the cascades and the native OpenCV library are located.
+ */
+public abstract class Fixtures {
+    public static final int FACE_SIZE = 100;
+
+    private static boolean openCVLoaded = false;
+
+    /**
+     * Loads the native OpenCV library if it has not been loaded yet
+     */
+    public static synchronized void loadOpenCV() {
+        if (openCVLoaded) return;
+        System.load(new File("opencv/libopencv_java4110.so").getAbsolutePath());
+        openCVLoaded = true;
+    }
+
+    /**
+     * Parses a resolution in the format WIDTHxHEIGHT
+     * @param resolution resolution
+     * @return array containing the width and the height
+     */
+    public static int[] parseResolution(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * Creates a color frame containing the given number of faces
+     * @param resolution frame resolution in the format WIDTHxHEIGHT
+     * @param faceCount number of faces in the frame
+     * @param faceImage path to the image pasted into the frame as a face, empty to generate faces
+     * @return frame
+     */
+    public static Mat createFrame(String resolution, int faceCount, String faceImage) {
+        int[] size = parseResolution(resolution);
+        Mat sprite = faceImage.isEmpty() ? createFace(0, 0) : Imgcodecs.imread(faceImage);
+        if (sprite.empty()) throw new RuntimeException("Unable to read face image: " + faceImage);
+        SyntheticFrameSource source = new SyntheticFrameSource(size[0], size[1], 1, faceCount > 0 ? sprite : null, Math.max(1, faceCount));
+        Mat frame = new Mat();
+        source.read(frame);
+        source.release();
+        sprite.release();
+        if (faceCount == 0) {
+            // The source draws an ellipse when it has no sprite, a frame without faces should be empty
+            Mat empty = new Mat(frame.size(), frame.type());
+            Core.randu(empty, 0, 64);
+            frame.release();
+            return empty;
+        }
+        return frame;
+    }
+
+    /**
+     * Loads the given images and converts them to grayscale
+     * @param imagePath path to an image or a directory of images, empty to create frames of the given resolution with one to the given number of generated faces
+     * @param resolution resolution of the created frames in the format WIDTHxHEIGHT
+     * @param faceCount number of faces in the last created frame
+     * @return grayscale frames
+     */
+    public static ArrayList<Mat> loadGrayFrames(String imagePath, String resolution, int faceCount) {
+        ArrayList<Mat> grayFrames = new ArrayList<>();
+        Mat frame = new Mat();
+        if (imagePath.isEmpty()) {
+            for (int faces = 1; faces <= faceCount; faces++) {
+                frame.release();
+                frame = createFrame(resolution, faces, "");
+                grayFrames.add(toGray(frame));
+            }
+        } else {
+            ImageDirectoryFrameSource source = new ImageDirectoryFrameSource(imagePath, false, false);
+            while (source.read(frame)) {
+                grayFrames.add(toGray(frame));
+            }
+            source.release();
+        }
+        frame.release();
+        if (grayFrames.isEmpty()) throw new RuntimeException("No images found: " + imagePath);
+        return grayFrames;
+    }
+
+    /**
+     * Returns a grayscale copy of the given color frame
+     * @param frame color frame
+     * @return grayscale frame
+     */
+    private static Mat toGray(Mat frame) {
+        Mat grayFrame = new Mat();
+        Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+        return grayFrame;
+    }
+
+    /**
+     * Creates a grayscale image resembling a face, which is the same for every person and sample index
+     * @param person person index
+     * @param sample sample index
+     * @return face image
+     */
+    public static Mat createFace(int person, int sample) {
+        Core.setRNGSeed(person * 7919 + 1);
+        Mat face = new Mat(FACE_SIZE, FACE_SIZE, CvType.CV_8UC1);
+        Core.randu(face, 80, 180);
+        Imgproc.GaussianBlur(face, face, new org.opencv.core.Size(9, 9), 0);
+        Imgproc.ellipse(face, new Point(30, 40), new org.opencv.core.Size(10, 5), 0, 0, 360, new Scalar(30), -1);
+        Imgproc.ellipse(face, new Point(70, 40), new org.opencv.core.Size(10, 5), 0, 0, 360, new Scalar(30), -1);
+        Imgproc.ellipse(face, new Point(50, 75), new org.opencv.core.Size(18, 6), 0, 0, 360, new Scalar(60), -1);
+        Core.setRNGSeed(person * 7919 + sample * 104729 + 2);
+        Mat noise = new Mat(FACE_SIZE, FACE_SIZE, CvType.CV_8UC1);
+        Core.randu(noise, 0, 20);
+        Core.add(face, noise, face);
+        noise.release();
+        return face;
+    }
+
+    /**
+     * Creates the sample images of a single person
+     * @param person person index
+     * @param samples number of samples
+     * @return face images
+     */
+    public static LinkedList<Mat> createSamples(int person, int samples) {
+        LinkedList<Mat> images = new LinkedList<>();
+        for (int sample = 0; sample < samples; sample++) {
+            images.add(createFace(person, sample));
+        }
+        return images;
+    }
+
+    /**
+     * Trains a gallery of the given size in a single pass and saves it as a recognizer directory
+     * @param people number of people
+     * @param samples number of samples of every person
+     * @return path of the recognizer directory
+     * @throws IOException in case the gallery could not be saved
+     */
+    public static String createGalleryDirectory(int people, int samples) throws IOException {
+        ArrayList<Mat> images = new ArrayList<>(people * samples);
+        int[] labels = new int[people * samples];
+        ArrayList<Person> persons = new ArrayList<>(people);
+        for (int person = 0; person < people; person++) {
+            for (int sample = 0; sample < samples; sample++) {
+                labels[images.size()] = person;
+                images.add(createFace(person, sample));
+            }
+            persons.add(new Person("Person " + person, person % 2 == 0));
+        }
+        LBPHFaceRecognizer lbph = LBPHFaceRecognizer.create();
+        lbph.train(images, new MatOfInt(labels));
+        for (Mat image : images) {
+            image.release();
+        }
+        File directory = Files.createTempDirectory("gallery").toFile();
+        directory.deleteOnExit();
+        lbph.save(directory.getPath() + "/lbph.xml");
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream(directory.getPath() + "/people.ser"))) {
+            objectOutputStream.writeObject(persons);
+        }
+        new File(directory, "lbph.xml").deleteOnExit();
+        new File(directory, "people.ser").deleteOnExit();
+        return directory.getPath();
+    }
+
+    /**
+     * Creates a recognizer trained with a gallery of the given size
+     * @param people number of people
+     * @param samples number of samples of every person
+     * @return recognizer
+     * @throws IOException in case the gallery could not be created
+     * @throws ClassNotFoundException in case the class was not found
+     */
+    public static Recognizer createRecognizer(int people, int samples) throws IOException, ClassNotFoundException {
+        return Recognizer.loadRecognizer(createGalleryDirectory(people, samples));
+    }
+}
@@ -0,0 +1,144 @@
+package com.koubek.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.koubek.Person;
+import com.koubek.recognition.HistogramEncoding;
+import com.koubek.recognition.HistogramModel;
+import com.koubek.recognition.HistogramSet;
+import com.koubek.recognition.LbphExtractor;
+import com.koubek.recognition.Match;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IndexBenchmark measures how the index of approximate searches trades recall for latency compared with an exact search of the whole gallery.
+ * The galleries hold a synthetic histogram of every identity, queries are further synthetic histograms of random identities.
+ * The exact search serves as the reference, the recall of the closest person and of the closest {@link #K} people is printed when the gallery has been indexed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx2g"})
+public class IndexBenchmark {
+    private static final int K = 10;
+    // A 4x4 grid keeps a gallery of 50000 identities below 1 GB, the default 8x8 grid would need four times as much
+    private static final LbphExtractor EXTRACTOR = new LbphExtractor(1, 8, 4, 4);
+    private static final int BINS = 256;
+    private static final int QUERY_COUNT = 200;
+    private static final double IDENTITY_SPREAD = 0.6;
+    private static final double SAMPLE_SPREAD = 0.3;
+
+    @Param({"1000", "10000", "50000"})
+    public int identities;
+
+    /**
+     * Number of candidates the approximate search keeps, 0 for an exact search of the whole gallery
+     */
+    @Param({"0", "16", "32", "64", "128", "256"})
+    public int searchBreadth;
+
+    private HistogramModel model;
+    private float[][] queries;
+    private int nextQuery = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(identities);
+        int length = EXTRACTOR.getHistogramLength();
+        float[] population = createHistogram(null, 1, random);
+        float[][] identityHistograms = new float[identities][];
+        ByteBuffer data = ByteBuffer.allocate(Math.multiplyExact(identities, length * HistogramEncoding.FLOAT32.getBytesPerValue())).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = data.asFloatBuffer();
+        int[] labels = new int[identities];
+        ArrayList<Person> people = new ArrayList<>(identities);
+        for (int i = 0; i < identities; i++) {
+            identityHistograms[i] = createHistogram(population, IDENTITY_SPREAD, random);
+            floats.put(createHistogram(identityHistograms[i], SAMPLE_SPREAD, random));
+            labels[i] = i;
+            people.add(new Person("Identity " + i, false));
+        }
+        queries = new float[QUERY_COUNT][];
+        for (int q = 0; q < QUERY_COUNT; q++) {
+            queries[q] = createHistogram(identityHistograms[random.nextInt(identities)], SAMPLE_SPREAD, random);
+        }
+        model = HistogramModel.of(EXTRACTOR, List.of(new HistogramSet(data, labels, length, HistogramEncoding.FLOAT32)), people);
+        if (searchBreadth > 0) {
+            model = model.withIndex();
+            printRecall();
+        }
+    }
+
+    @Benchmark
+    public Match[] search() {
+        float[] query = queries[nextQuery];
+        nextQuery = (nextQuery + 1) % queries.length;
+        return model.findClosest(new float[][] {query}, K, searchBreadth)[0];
+    }
+
+    /**
+     * Prints the share of the people found by the exact search which the approximate search finds as well
+     */
+    private void printRecall() {
+        Match[][] exact = model.findClosest(queries, K, 0);
+        Match[][] approximate = model.findClosest(queries, K, searchBreadth);
+        int firstFound = 0;
+        int found = 0;
+        int total = 0;
+        for (int q = 0; q < exact.length; q++) {
+            if (approximate[q].length > 0 && approximate[q][0].getLabel() == exact[q][0].getLabel()) firstFound++;
+            for (Match match : exact[q]) {
+                for (Match candidate : approximate[q]) {
+                    if (candidate.getLabel() == match.getLabel()) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            total += exact[q].length;
+        }
+        System.out.println(String.format("Recall of %d identities at search breadth %d: %.3f recall@1, %.3f recall@%d",
+                identities, searchBreadth, firstFound / (double) exact.length, found / (double) total, K));
+    }
+
+    /**
+     * Creates a histogram randomly deviating from the given one, normalized like the histograms of the extractor
+     * @param base histogram to deviate from, null for a uniform histogram
+     * @param spread standard deviation of the logarithm of the ratio between a value and its base value
+     * @param random random number generator
+     * @return histogram
+     */
+    private static float[] createHistogram(float[] base, double spread, Random random) {
+        float[] histogram = new float[EXTRACTOR.getHistogramLength()];
+        for (int cell = 0; cell < histogram.length; cell += BINS) {
+            double sum = 0;
+            for (int bin = cell; bin < cell + BINS; bin++) {
+                double value = (base == null ? 1 : base[bin]) * Math.exp(spread * random.nextGaussian());
+                histogram[bin] = (float) value;
+                sum += value;
+            }
+            for (int bin = cell; bin < cell + BINS; bin++) {
+                histogram[bin] = (float) (histogram[bin] / sum);
+            }
+        }
+        return histogram;
+    }
+}
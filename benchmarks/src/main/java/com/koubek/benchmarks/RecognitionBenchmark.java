@@ -0,0 +1,77 @@
+package com.koubek.benchmarks;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.koubek.Detection;
+import com.koubek.Recognizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecognitionBenchmark measures recognizing faces with galleries of different sizes, both a single face and all faces of a frame at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RecognitionBenchmark {
+    @Param({"10", "100", "1000"})
+    public int people;
+
+    @Param({"5", "20"})
+    public int samples;
+
+    @Param({"1", "5"})
+    public int faces;
+
+    private Recognizer recognizer;
+    private Mat probe;
+    private ArrayList<Mat> probes;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        Fixtures.loadOpenCV();
+        recognizer = Fixtures.createRecognizer(people, samples);
+        // Probes are unseen samples of enrolled people
+        probe = Fixtures.createFace(0, samples);
+        probes = new ArrayList<>();
+        for (int i = 0; i < faces; i++) {
+            probes.add(Fixtures.createFace(i % people, samples + i));
+        }
+    }
+
+    @Benchmark
+    public Detection recognizeFace() {
+        return recognizer.recognizeFace(probe);
+    }
+
+    @Benchmark
+    public Detection[] recognizeFrame() {
+        return recognizer.recognizeFaces(probes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        recognizer.close();
+        probe.release();
+        for (Mat face : probes) {
+            face.release();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.koubek.benchmarks;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.koubek.Camera;
+import com.koubek.source.SyntheticFrameSource;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RenderingBenchmark measures rendering the preview image of a processed frame with its overlays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderingBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0", "1", "5"})
+    public int faces;
+
+    private Camera camera;
+
+    @Setup
+    public void setup() {
+        Fixtures.loadOpenCV();
+        int[] size = Fixtures.parseResolution(resolution);
+        Mat face = Fixtures.createFace(0, 0);
+        camera = new Camera(new SyntheticFrameSource(size[0], size[1], 1, faces > 0 ? face : null, Math.max(1, faces)), Camera.MAX_RATE);
+        face.release();
+        camera.createRecognizer();
+        // Processes the single frame of the source, which then stays the camera's current frame
+        camera.replay(1);
+    }
+
+    @Benchmark
+    public BufferedImage getBufferedImage() {
+        return camera.getBufferedImage();
+    }
+
+    @TearDown
+    public void tearDown() {
+        camera.shutdown();
+    }
+}
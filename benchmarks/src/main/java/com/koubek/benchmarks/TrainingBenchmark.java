@@ -0,0 +1,75 @@
+package com.koubek.benchmarks;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.koubek.Person;
+import com.koubek.Recognizer;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TrainingBenchmark measures adding a single person to galleries of different sizes.
+ * Every invocation starts from a freshly loaded gallery, loading is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TrainingBenchmark {
+    @Param({"10", "100", "1000"})
+    public int people;
+
+    @Param({"5", "20"})
+    public int samples;
+
+    private String galleryPath;
+    private LinkedList<Mat> newSamples;
+    private Recognizer recognizer;
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.loadOpenCV();
+        galleryPath = Fixtures.createGalleryDirectory(people, samples);
+        newSamples = Fixtures.createSamples(people, samples);
+    }
+
+    @Setup(Level.Invocation)
+    public void loadGallery() throws IOException, ClassNotFoundException {
+        recognizer = Recognizer.loadRecognizer(galleryPath);
+    }
+
+    @Benchmark
+    public Recognizer addPerson() {
+        recognizer.addPerson(newSamples, new Person("New person", false));
+        return recognizer;
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeGallery() {
+        recognizer.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Mat sample : newSamples) {
+            sample.release();
+        }
+    }
+}
@@ -1,27 +1,69 @@
 package com.koubek;
 
+import com.koubek.batch.BatchRecognizer;
+import com.koubek.detection.FaceDetectorType;
+import com.koubek.evaluation.RecognitionEvaluation;
 import com.koubek.gpio.GPIOManager;
+import com.koubek.recognition.Condenser;
+import com.koubek.recognition.HistogramEncoding;
+import com.koubek.recognition.HistogramModel;
+import com.koubek.recognition.ModelConverter;
+import com.koubek.source.FrameSource;
+import com.koubek.stats.CameraStats;
+import com.koubek.stats.StatsServer;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 
 /**
  * Application class contains static methods used for starting, managing and exiting the app.
  */
 public class Application {
     private static boolean debug;
-    private static Camera camera;
+    private static final CameraManager cameraManager = new CameraManager(Runtime.getRuntime().availableProcessors());
 
     private static int frameChangeCount = 5;
     private static int disableDelay = 5;
     private static int maxConfidence = 100;
+    private static int captureRate = 5;
+    private static int idleCaptureRate = 1;
+    private static int idleDelay = 10;
+    private static int latencyBudget = 500;
+    private static double motionThreshold = 0.002;
+    private static int motionCheckInterval = 10;
+    private static int queueCapacity = 2;
+    private static boolean dropOldestFrames = true;
+    private static FaceDetectorType faceDetectorType = FaceDetectorType.HAAR;
+    private static double detectionScale = 1;
+    private static int detectionInterval = 5;
+    private static int recognitionCacheLifetime = 2000;
+    private static int statsPort = 9464;
+    private static int indexThreshold = 20000;
+    private static int indexSearchBreadth = 64;
+    private static int maxPrototypes = 20;
+    private static double duplicateDistance = 5;
 
     /**
      * Starts the program and initializes all necessary objects, then proceeds to start the console thread
      * @param args Program arguments
      */
     public static void start(String[] args) {
+        if (args.length > 0 && args[0].equals("evaluate")) {
+            loadOpenCV();
+            RecognitionEvaluation.run(Arrays.copyOfRange(args, 1, args.length), System.out);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("convert")) {
+            runConversion(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("batch")) {
+            loadOpenCV();
+            BatchRecognizer.run(Arrays.copyOfRange(args, 1, args.length), System.out);
+            return;
+        }
         System.setProperty(org.slf4j.simple.SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "ERROR");
         for (String arg : args) {
             switch (arg) {
@@ -30,21 +72,84 @@ public class Application {
                     System.setProperty(org.slf4j.simple.SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "DEBUG");
                     Log.printMessage("Debug mode enabled!", MessageType.INFO);
                 }
+                case "lbp", "haar" -> {
+                    faceDetectorType = FaceDetectorType.fromName(arg);
+                    Log.printMessage("Face detector: " + faceDetectorType.getName(), MessageType.INFO);
+                }
             }
         }
         GPIOManager.init();
 
-        File lib = new File("opencv/libopencv_java4110.so");
-        System.load(lib.getAbsolutePath());
+        loadOpenCV();
+        startStatsServer();
         
         runConsole();
     }
 
+    /**
+     * Converts a recognizer directory saved as lbph.xml and people.ser to the binary model format without the console and GPIO, then exits.
+     * Usage: convert &lt;recognizer directory&gt; &lt;output directory&gt; [quantize]
+     * @param args Program arguments
+     */
+    private static void runConversion(String[] args) {
+        loadOpenCV();
+        if (args.length < 3) {
+            System.out.println("Usage: convert <recognizer directory> <output directory> [quantize]");
+            return;
+        }
+        HistogramEncoding encoding = args.length > 3 && args[3].equals("quantize") ? HistogramEncoding.UINT8 : HistogramEncoding.FLOAT32;
+        try {
+            long startTime = System.currentTimeMillis();
+            HistogramModel model = ModelConverter.convert(args[1], args[2], encoding);
+            System.out.println("Converted " + model.getPersonCount() + " people and " + model.getSampleCount() + " histograms in "
+                    + ((System.currentTimeMillis() - startTime) / (double) 1000) + "s");
+            if (encoding == HistogramEncoding.UINT8) {
+                double[] error = ModelConverter.getQuantizationError(model);
+                System.out.println(String.format("Quantization changes distances by %.3f%% on average and by at most %.3f%%", error[0] * 100, error[1] * 100));
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("Unable to convert recognizer: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the native OpenCV library
+     */
+    private static void loadOpenCV() {
+        File lib = new File("opencv/libopencv_java4110.so");
+        System.load(lib.getAbsolutePath());
+    }
+
+    /**
+     * Starts the local statistics endpoint on the configured port, replacing a previously started endpoint
+     */
+    private static void startStatsServer() {
+        try {
+            StatsServer.start(statsPort, Application::getPrometheusStats);
+        } catch (IOException e) {
+            Log.printMessage("Unable to start statistics endpoint on port " + statsPort + ": " + e.getMessage(), MessageType.ERROR);
+        }
+    }
+
+    /**
+     * Returns the statistics of all cameras in the Prometheus text format
+     * @return statistics, only the metric descriptions if no camera has been initialized
+     */
+    public static String getPrometheusStats() {
+        StringBuilder builder = new StringBuilder();
+        CameraStats.appendPrometheusHeader(builder);
+        for (Camera camera : cameraManager.getCameras()) {
+            camera.getStats().appendPrometheus(builder);
+        }
+        return builder.toString();
+    }
+
     /**
      * Shuts down all systems and exits the program
      */
     public static void shutdown() {
-        if (camera != null) camera.shutdown();
+        StatsServer.stop();
+        cameraManager.shutdown();
         GPIOManager.shutdown();
         System.exit(0);
     }
@@ -58,41 +163,92 @@ public class Application {
     }
 
     /**
-     * Initializes the camera used for detecting and recognizing faces
+     * Initializes the camera used for detecting and recognizing faces, replacing the selected camera
      * @param index the index of the desired camera
      */
     public static void initCamera(int index) {
-        if (camera != null) camera.shutdown();
-        camera = new Camera(index);
+        Camera selectedCamera = cameraManager.getSelectedCamera();
+        if (selectedCamera != null) cameraManager.removeCamera(selectedCamera.getId());
+        cameraManager.selectCamera(cameraManager.addCamera(index).getId());
+    }
+
+    /**
+     * Adds another camera used for detecting and recognizing faces, which shares the recognizer with all other cameras
+     * @param index the index of the desired camera
+     * @return camera
+     */
+    public static Camera addCamera(int index) {
+        return cameraManager.addCamera(index);
     }
 
     /**
-     * Creates, initializes and assigns a new recognizer object
+     * Returns the manager of all cameras used by the program
+     * @return camera manager
+     */
+    public static CameraManager getCameraManager() {
+        return cameraManager;
+    }
+
+    /**
+     * Replays the frames of the given source through a separate camera as fast as possible and reports the achieved frame rate.
+     * The replay camera uses the cameras' recognizer if there is one and never drives the GPIO output.
+     * @param source frame source to be replayed
+     * @param frameLimit maximum number of frames to process, 0 or less for no limit
+     * @return the average number of processed frames per second
+     */
+    public static double replay(FrameSource source, int frameLimit) {
+        Camera replayCamera = new Camera(source, Camera.MAX_RATE);
+        Recognizer replayRecognizer = null;
+        try {
+            if (cameraManager.getRecognizer() != null) {
+                replayCamera.setRecognizer(cameraManager.getRecognizer());
+            } else {
+                replayRecognizer = new Recognizer();
+                replayCamera.setRecognizer(replayRecognizer);
+            }
+            return replayCamera.replay(frameLimit);
+        } finally {
+            replayCamera.shutdown();
+            if (replayRecognizer != null) replayRecognizer.close();
+        }
+    }
+
+    /**
+     * Creates, initializes and assigns a new recognizer object to all cameras
      */
     public static void createRecognizer() {
-        if (camera == null)
-            throw new RuntimeException("Unable to create recognizer: Camera has not been initialized!");
-        camera.createRecognizer();
+        cameraManager.setRecognizer(new Recognizer());
     }
 
     /**
-     * Returns the currently assigned camera used by the program
-     * @return camera
+     * Returns the selected camera, which the console commands refer to
+     * @return camera, null if no camera has been initialized
      */
     public static Camera getCamera() {
-        return camera;
+        return cameraManager.getSelectedCamera();
+    }
+
+    /**
+     * Returns the recognizer shared by all cameras
+     * @return recognizer
+     */
+    public static Recognizer getRecognizer() {
+        Recognizer recognizer = cameraManager.getRecognizer();
+        if (recognizer == null)
+            throw new RuntimeException("Recognizer has not been initialized!");
+        return recognizer;
     }
 
     /**
-     * Loads a recognizer object from storage
+     * Loads a recognizer object from storage and assigns it to all cameras
      * @param path the relative path of the recognizer directory
      * @throws IOException in case the recognizer was either not found or could not be loaded
      * @throws ClassNotFoundException in case the class was not found
      */
     public static void loadRecognizer(String path) throws IOException, ClassNotFoundException {
-        if (camera == null)
-            throw new RuntimeException("Unable to load recognizer: Camera has not been initialized!");
-        camera.loadRecognizer(path);
+        // A training still queued on the current recognizer could otherwise append to the journal the loaded recognizer opens
+        if (cameraManager.getRecognizer() != null) cameraManager.getRecognizer().finishTrainings();
+        cameraManager.setRecognizer(Recognizer.loadRecognizer(path));
     }
 
     /**
@@ -101,11 +257,9 @@ public class Application {
      * @throws IOException in case the recognizer could not be saved
      */
     public static void saveRecognizer(String path) throws IOException {
-        if (camera == null)
-            throw new RuntimeException("Unable to save recognizer: Camera has not been initialized!");
-        if (camera.getRecognizer() == null)
+        if (cameraManager.getRecognizer() == null)
             throw new RuntimeException("Unable to save recognizer: Recognizer has not been initalized!");
-        camera.getRecognizer().saveRecognizer(path);
+        cameraManager.getRecognizer().saveRecognizer(path);
     }
 
     /**
@@ -163,4 +317,304 @@ public class Application {
     public static void setMaxConfidence(int maxConfidence) {
         Application.maxConfidence = maxConfidence;
     }
+
+    /**
+     * Returns how many frames per second newly initialized cameras capture
+     * @return capture rate
+     */
+    public static int getCaptureRate() {
+        return captureRate;
+    }
+
+    /**
+     * Sets how many frames per second newly initialized cameras capture
+     * @param captureRate capture rate
+     */
+    public static void setCaptureRate(int captureRate) {
+        if (captureRate < 1) throw new IllegalArgumentException("Capture rate must be at least 1!");
+        Application.captureRate = captureRate;
+    }
+
+    /**
+     * Returns how many frames per second newly initialized cameras capture while no faces are being seen
+     * @return idle capture rate
+     */
+    public static int getIdleCaptureRate() {
+        return idleCaptureRate;
+    }
+
+    /**
+     * Sets how many frames per second newly initialized cameras capture while no faces are being seen
+     * @param idleCaptureRate idle capture rate, at most the capture rate
+     */
+    public static void setIdleCaptureRate(int idleCaptureRate) {
+        if (idleCaptureRate < 1) throw new IllegalArgumentException("Idle capture rate must be at least 1!");
+        Application.idleCaptureRate = idleCaptureRate;
+    }
+
+    /**
+     * Returns how many seconds no face has to be seen for newly initialized cameras to switch to the idle capture rate
+     * @return idle delay in seconds, 0 if cameras never switch to the idle capture rate
+     */
+    public static int getIdleDelay() {
+        return idleDelay;
+    }
+
+    /**
+     * Sets how many seconds no face has to be seen for newly initialized cameras to switch to the idle capture rate
+     * @param idleDelay idle delay in seconds, 0 to never switch to the idle capture rate
+     */
+    public static void setIdleDelay(int idleDelay) {
+        if (idleDelay < 0) throw new IllegalArgumentException("Idle delay must not be negative!");
+        Application.idleDelay = idleDelay;
+    }
+
+    /**
+     * Returns how many milliseconds a frame may take from its capture until its GPIO output has been updated before newly initialized cameras lower their capture rate
+     * @return latency budget in milliseconds, 0 if the capture rate is never lowered because of slow frames
+     */
+    public static int getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    /**
+     * Sets how many milliseconds a frame may take from its capture until its GPIO output has been updated before newly initialized cameras lower their capture rate
+     * @param latencyBudget latency budget in milliseconds, 0 to never lower the capture rate because of slow frames
+     */
+    public static void setLatencyBudget(int latencyBudget) {
+        if (latencyBudget < 0) throw new IllegalArgumentException("Latency budget must not be negative!");
+        Application.latencyBudget = latencyBudget;
+    }
+
+    /**
+     * Returns the share of a frame's pixels which has to change for newly initialized cameras to look for new faces in it
+     * @return motion threshold between 0 and 1, 0 if faces are looked for regardless of motion
+     */
+    public static double getMotionThreshold() {
+        return motionThreshold;
+    }
+
+    /**
+     * Sets the share of a frame's pixels which has to change for newly initialized cameras to look for new faces in it
+     * @param motionThreshold motion threshold between 0 and 1, 0 to look for faces regardless of motion
+     */
+    public static void setMotionThreshold(double motionThreshold) {
+        if (motionThreshold < 0 || motionThreshold > 1) throw new IllegalArgumentException("Motion threshold must be between 0 and 1!");
+        Application.motionThreshold = motionThreshold;
+    }
+
+    /**
+     * Returns after how many seconds without motion newly initialized cameras look for new faces in the whole frame anyway
+     * @return motion check interval in seconds
+     */
+    public static int getMotionCheckInterval() {
+        return motionCheckInterval;
+    }
+
+    /**
+     * Sets after how many seconds without motion newly initialized cameras look for new faces in the whole frame anyway
+     * @param motionCheckInterval motion check interval in seconds, at least 1
+     */
+    public static void setMotionCheckInterval(int motionCheckInterval) {
+        if (motionCheckInterval < 1) throw new IllegalArgumentException("Motion check interval must be at least 1!");
+        Application.motionCheckInterval = motionCheckInterval;
+    }
+
+    /**
+     * Returns how many frames can wait between two stages of a camera's pipeline
+     * @return queue capacity
+     */
+    public static int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets how many frames can wait between two stages of a camera's pipeline
+     * @param queueCapacity queue capacity
+     */
+    public static void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be at least 1!");
+        Application.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Returns whether a full pipeline queue drops its oldest frame instead of making the previous stage wait
+     * @return drop oldest frames
+     */
+    public static boolean isDropOldestFrames() {
+        return dropOldestFrames;
+    }
+
+    /**
+     * Sets whether a full pipeline queue drops its oldest frame instead of making the previous stage wait
+     * @param dropOldestFrames drop oldest frames
+     */
+    public static void setDropOldestFrames(boolean dropOldestFrames) {
+        Application.dropOldestFrames = dropOldestFrames;
+    }
+
+    /**
+     * Returns the face detector newly initialized cameras detect faces with
+     * @return face detector type
+     */
+    public static FaceDetectorType getFaceDetectorType() {
+        return faceDetectorType;
+    }
+
+    /**
+     * Sets the face detector newly initialized cameras detect faces with.
+     * The LBP cascade is typically several times faster than the Haar cascade, but finds fewer faces in poor lighting.
+     * @param faceDetectorType face detector type
+     */
+    public static void setFaceDetectorType(FaceDetectorType faceDetectorType) {
+        if (faceDetectorType == null) throw new IllegalArgumentException("Face detector must not be null!");
+        Application.faceDetectorType = faceDetectorType;
+    }
+
+    /**
+     * Returns the factor frames are scaled by before faces are detected in them
+     * @return detection scale
+     */
+    public static double getDetectionScale() {
+        return detectionScale;
+    }
+
+    /**
+     * Sets the factor frames are scaled by before faces are detected in them.
+     * Smaller values make detection faster, but small faces may no longer be found.
+     * @param detectionScale detection scale, greater than 0 and at most 1
+     */
+    public static void setDetectionScale(double detectionScale) {
+        if (detectionScale <= 0 || detectionScale > 1) throw new IllegalArgumentException("Detection scale must be greater than 0 and at most 1!");
+        Application.detectionScale = detectionScale;
+    }
+
+    /**
+     * Returns on which frames the face detector runs, faces are tracked in the frames in between
+     * @return detection interval, 1 if faces are detected in every frame
+     */
+    public static int getDetectionInterval() {
+        return detectionInterval;
+    }
+
+    /**
+     * Sets on which frames the face detector runs, faces are tracked in the frames in between
+     * @param detectionInterval detection interval, 1 to detect faces in every frame
+     */
+    public static void setDetectionInterval(int detectionInterval) {
+        if (detectionInterval < 1) throw new IllegalArgumentException("Detection interval must be at least 1!");
+        Application.detectionInterval = detectionInterval;
+    }
+
+    /**
+     * Returns for how many milliseconds the recognition result of a tracked face may be reused while the face does not change
+     * @return recognition cache lifetime in milliseconds, 0 if every face is recognized in every frame
+     */
+    public static int getRecognitionCacheLifetime() {
+        return recognitionCacheLifetime;
+    }
+
+    /**
+     * Sets for how many milliseconds the recognition result of a tracked face may be reused while the face does not change
+     * @param recognitionCacheLifetime recognition cache lifetime in milliseconds, 0 to recognize every face in every frame
+     */
+    public static void setRecognitionCacheLifetime(int recognitionCacheLifetime) {
+        if (recognitionCacheLifetime < 0) throw new IllegalArgumentException("Recognition cache lifetime must not be negative!");
+        Application.recognitionCacheLifetime = recognitionCacheLifetime;
+    }
+
+    /**
+     * Returns the local port the statistics endpoint listens on
+     * @return statistics port, 0 if the endpoint is disabled
+     */
+    public static int getStatsPort() {
+        return statsPort;
+    }
+
+    /**
+     * Sets the local port the statistics endpoint listens on and restarts the endpoint
+     * @param statsPort statistics port, 0 to disable the endpoint
+     */
+    public static void setStatsPort(int statsPort) {
+        if (statsPort < 0 || statsPort > 65535) throw new IllegalArgumentException("Statistics port must be between 0 and 65535!");
+        Application.statsPort = statsPort;
+        startStatsServer();
+    }
+
+    /**
+     * Returns the number of histograms from which on a recognizer's gallery is indexed for approximate searches
+     * @return index threshold, 0 if galleries are never indexed
+     */
+    public static int getIndexThreshold() {
+        return indexThreshold;
+    }
+
+    /**
+     * Sets the number of histograms from which on a recognizer's gallery is indexed for approximate searches and indexes the current recognizer if it has reached it
+     * @param indexThreshold index threshold, 0 to never index galleries
+     */
+    public static void setIndexThreshold(int indexThreshold) {
+        if (indexThreshold < 0) throw new IllegalArgumentException("Index threshold must not be negative!");
+        Application.indexThreshold = indexThreshold;
+        if (cameraManager.getRecognizer() != null) cameraManager.getRecognizer().updateIndexInBackground();
+    }
+
+    /**
+     * Returns the number of closest histograms tracked by an approximate search, the higher the better the recall and the slower the search
+     * @return index search breadth, 0 if indexed galleries are searched exactly
+     */
+    public static int getIndexSearchBreadth() {
+        return indexSearchBreadth;
+    }
+
+    /**
+     * Sets the number of closest histograms tracked by an approximate search
+     * @param indexSearchBreadth index search breadth, 0 to search indexed galleries exactly
+     */
+    public static void setIndexSearchBreadth(int indexSearchBreadth) {
+        if (indexSearchBreadth < 0) throw new IllegalArgumentException("Index search breadth must not be negative!");
+        Application.indexSearchBreadth = indexSearchBreadth;
+    }
+
+    /**
+     * Returns the maximum number of face images kept per person when a person is added or a recognizer is condensed
+     * @return max prototype count, 0 if every image that is not a duplicate is kept
+     */
+    public static int getMaxPrototypes() {
+        return maxPrototypes;
+    }
+
+    /**
+     * Sets the maximum number of face images kept per person when a person is added or a recognizer is condensed
+     * @param maxPrototypes max prototype count, 0 to keep every image that is not a duplicate
+     */
+    public static void setMaxPrototypes(int maxPrototypes) {
+        if (maxPrototypes < 0) throw new IllegalArgumentException("Max prototype count must not be negative!");
+        Application.maxPrototypes = maxPrototypes;
+    }
+
+    /**
+     * Returns the distance below which two face images of a person are considered duplicates, of which only the first one is kept
+     * @return duplicate distance, 0 if duplicates are kept
+     */
+    public static double getDuplicateDistance() {
+        return duplicateDistance;
+    }
+
+    /**
+     * Sets the distance below which two face images of a person are considered duplicates, of which only the first one is kept
+     * @param duplicateDistance duplicate distance, 0 to keep duplicates
+     */
+    public static void setDuplicateDistance(double duplicateDistance) {
+        if (duplicateDistance < 0) throw new IllegalArgumentException("Duplicate distance must not be negative!");
+        Application.duplicateDistance = duplicateDistance;
+    }
+
+    /**
+     * Returns the condenser choosing the face images kept per person according to the current settings
+     * @return condenser
+     */
+    public static Condenser getCondenser() {
+        return new Condenser(maxPrototypes, duplicateDistance);
+    }
 }
@@ -1,58 +1,108 @@
 package com.koubek;
 
 import org.opencv.core.*;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.objdetect.Objdetect;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.Videoio;
 
+import com.koubek.detection.FaceDetector;
+import com.koubek.detection.MotionDetector;
+import com.koubek.detection.Rects;
+import com.koubek.enrollment.Enrollment;
 import com.koubek.gpio.GPIOManager;
+import com.koubek.pipeline.AnalysisRegistry;
+import com.koubek.pipeline.CaptureScheduler;
+import com.koubek.pipeline.DropPolicy;
+import com.koubek.pipeline.Frame;
+import com.koubek.pipeline.FrameAnalysis;
+import com.koubek.pipeline.FrameProcessor;
+import com.koubek.pipeline.Pipeline;
+import com.koubek.pipeline.WorkerPool;
+import com.koubek.source.CameraFrameSource;
+import com.koubek.source.FrameSource;
+import com.koubek.source.ImageDirectoryFrameSource;
+import com.koubek.stats.CameraStats;
+import com.koubek.stats.Stage;
+import com.koubek.tracking.FaceTracker;
+import com.koubek.tracking.RecognitionCache;
+import com.koubek.window.FaceRecognitionWindow;
+import com.koubek.window.PreviewRenderer;
 import com.koubek.window.WindowManager;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.function.Consumer;
 
 /**
  * Camera objects serve as software representations of hardware cameras, which have assigned recognizer objects.
+ * Frames are processed by a pipeline, where capture, face detection, optional analyses, recognition, GPIO actuation and preview each run on their own thread.
+ * Optional analyses like smile detection are only computed for frames while a consumer subscribes to them, or when a consumer asks for the result of a single frame.
+ * Cameras managed by a {@link CameraManager} only detect and recognize faces while holding a worker of the manager's shared worker pool.
  */
 public class Camera implements ActionListener {
-    private VideoCapture videoCapture;
-    private Timer captureTimer;
+    /**
+     * Capture rate which makes the camera read frames as fast as possible using {@link #replay(int)} instead of a live pipeline
+     */
+    public static final int MAX_RATE = 0;
+
+    // Only a Haar cascade of smiles is bundled
+    private static final String SMILE_CASCADE_PATH = "opencv/haarcascades/haarcascade_smile.xml";
+    private static final double SMILE_SCALE_FACTOR = 1.4;
+    private static final int SMILE_MIN_NEIGHBORS = 6;
+
+    private FrameSource source;
+    private FrameSource imageSource;
+    private volatile Pipeline pipeline;
+    private WorkerPool.Client workerClient;
+    private CameraStats stats;
     private Timer disableTimer;
-    private Mat frame;
-    private Rect[] faces, smiles;
-    private LinkedList<Mat> trackedFaceImages;
-    private Detection[] recognizedFaces;
-
-    private CascadeClassifier faceCascade;
+    private Frame latestFrame;
+    private Enrollment enrollment;
+
+    private FaceDetector faceDetector;
+    private FaceTracker faceTracker;
+    private MotionDetector motionDetector;
+    private RecognitionCache recognitionCache;
+    private Recognizer cachedRecognizer;
     private CascadeClassifier smileCascade;
-
-    private Recognizer recognizer;
-
-    private Mat loadedImage;
-
-    private int absoluteFaceSize;
-
+    private FrameAnalysis<Rect[][]> smileAnalysis;
+
+    private volatile Recognizer recognizer;
+
+    // Buffers reused by the pipeline stages, every stage runs on a single thread and only touches its own buffers
+    private final Mat smileRegion = new Mat();
+    private final MatOfRect smileRects = new MatOfRect();
+    private final ArrayList<Mat> faceRegions = new ArrayList<>();
+    private final ArrayList<Mat> faceSamples = new ArrayList<>();
+    private final ArrayList<Mat> uncachedFaces = new ArrayList<>();
+    private final ArrayList<Integer> uncachedIndices = new ArrayList<>();
+    private final PreviewRenderer previewRenderer = new PreviewRenderer();
+    private final AnalysisRegistry analyses = new AnalysisRegistry();
+
+    private final int id;
+    private boolean actuating;
+    private volatile boolean previewing = true;
+    private boolean previewSubscribed = false;
+    private volatile Consumer<Frame> frameListener;
     private boolean currentState = false;
     private int currentTolerance = 0;
     private float currentDisableDelay = 0;
+    private long motionCheckInterval;
+    private long lastFullDetection;
 
-    private final Object timerLock = new Object();
+    private final Object sourceLock = new Object();
+    private final Object frameLock = new Object();
+    private final Object trackingLock = new Object();
 
     /**
      * Creates a new camera with the camera index 0
      */
     public Camera() {
-        init(5, 0);
+        this(0);
     }
 
     /**
@@ -60,7 +110,61 @@ public class Camera implements ActionListener {
      * @param index camera index
      */
     public Camera(int index) {
-        init(5, index);
+        this(new CameraFrameSource(index), Application.getCaptureRate());
+    }
+
+    /**
+     * Creates a new camera reading frames from the given source with the given capture rate.
+     * Cameras with the capture rate {@link #MAX_RATE} do not drive the GPIO output and are meant to be used with {@link #replay(int)}.
+     * @param source frame source
+     * @param captureRate frames per second, or {@link #MAX_RATE}
+     */
+    public Camera(FrameSource source, int captureRate) {
+        this(source, captureRate, 0, null);
+    }
+
+    /**
+     * Creates a new camera reading frames from the given source with the given capture rate, whose CPU-heavy stages share the workers of the given pool
+     * @param source frame source
+     * @param captureRate frames per second, or {@link #MAX_RATE}
+     * @param id camera ID, which the camera's GPIO devices are bound to
+     * @param workerPool shared worker pool, null for the stages to run whenever they have a frame
+     */
+    public Camera(FrameSource source, int captureRate, int id, WorkerPool workerPool) {
+        this.id = id;
+        init(captureRate, source, workerPool);
+    }
+
+    /**
+     * Returns the camera ID, which the camera's GPIO devices are bound to
+     * @return camera ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the name of the camera's frame source
+     * @return name
+     */
+    public String getName() {
+        return source.getName();
+    }
+
+    /**
+     * Returns how long the camera's stages have held workers of its worker pool
+     * @return worker time in nanoseconds, 0 if the camera has no worker pool
+     */
+    public long getWorkerTime() {
+        return workerClient != null ? workerClient.getWorkTime() : 0;
+    }
+
+    /**
+     * Sets whether the camera shows its frames in the face recognition window
+     * @param previewing previewing
+     */
+    public void setPreviewing(boolean previewing) {
+        this.previewing = previewing;
     }
 
     /**
@@ -80,6 +184,14 @@ public class Camera implements ActionListener {
         recognizer = Recognizer.loadRecognizer(path);
     }
 
+    /**
+     * Assigns an existing recognizer object to the camera
+     * @param recognizer recognizer
+     */
+    public void setRecognizer(Recognizer recognizer) {
+        this.recognizer = recognizer;
+    }
+
     /**
      * Returns the recognizer used by the camera
      * @return recognizer
@@ -89,54 +201,133 @@ public class Camera implements ActionListener {
     }
 
     /**
-     * Returns the camera's current unaltered frame
-     * @return current frame
+     * Returns the statistics of the camera's stages
+     * @return camera statistics
+     */
+    public CameraStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns a copy of the camera's most recently processed unaltered frame
+     * @return current frame, null if no frame has been processed yet
      */
     public Mat getCurrentFrame() {
-        return frame;
+        synchronized (frameLock) {
+            if (latestFrame == null) return null;
+            return latestFrame.getImage().clone();
+        }
     }
 
     /**
-     * Enables saving images of a person to then be able to recognize
+     * Returns the recognition results of the most recently processed frame
+     * @return detection objects for each individual detected face, null if no frame has been processed yet
      */
-    public void trackFace() {
-        trackedFaceImages = new LinkedList<>();
+    public Detection[] getRecognizedFaces() {
+        synchronized (frameLock) {
+            if (latestFrame == null) return null;
+            return latestFrame.getDetections();
+        }
     }
 
     /**
-     * Returns the saved images of the tracked person and deletes them
-     * @return the saved images
+     * Enables saving images of a person to then be able to recognize, discarding the images of a previously tracked person
+     * @throws IOException in case the images could not be spooled
      */
-    public LinkedList<Mat> finishTracking() {
-        LinkedList<Mat> matList = trackedFaceImages;
-        trackedFaceImages = null;
-        return matList;
+    public void trackFace() throws IOException {
+        Enrollment newEnrollment = new Enrollment();
+        synchronized (trackingLock) {
+            if (enrollment != null) enrollment.cancel();
+            enrollment = newEnrollment;
+        }
     }
 
     /**
-     * Initializes the camera with the given capture rate and index
+     * Returns the saved images of the tracked person and deletes them.
+     * The images are scaled to {@link Enrollment#SAMPLE_SIZE}, at most {@link Enrollment#MAX_SAMPLES} of them evenly spaced over the tracking are returned.
+     * @return the saved images, null if no face is tracked
+     * @throws IOException in case the images could not be read
+     */
+    public LinkedList<Mat> finishTracking() throws IOException {
+        Enrollment finishedEnrollment;
+        synchronized (trackingLock) {
+            finishedEnrollment = enrollment;
+            enrollment = null;
+        }
+        return finishedEnrollment == null ? null : finishedEnrollment.finish();
+    }
+
+    /**
+     * Initializes the camera with the given capture rate and frame source
      * @param captureRate camera capture rate
-     * @param index camera index
+     * @param source frame source
+     * @param workerPool shared worker pool, null for the stages to run whenever they have a frame
      */
-    private void init(int captureRate, int index) {
+    private void init(int captureRate, FrameSource source, WorkerPool workerPool) {
         long startTime = System.currentTimeMillis();
         Log.printMessage("Camera initializing...", MessageType.INIT);
-        videoCapture = new VideoCapture(index, Videoio.CAP_V4L2);
-        if (!videoCapture.isOpened()) {
-            throw new RuntimeException("Unable to open video capture!");
-        }
-        videoCapture.set(3, 1920);
-        videoCapture.set(4, 1080);
-        faceCascade = loadClassifier("opencv/haarcascades/haarcascade_frontalface_default.xml");
-        smileCascade = loadClassifier("opencv/haarcascades/haarcascade_smile.xml");
-        captureTimer = new Timer(1000 / captureRate, this);
-        captureTimer.start();
+        this.source = source;
+        stats = new CameraStats(source.getName(),
+                () -> pipeline != null ? pipeline.getCompletedFrameCount() : 0,
+                () -> pipeline != null ? pipeline.getDroppedFrameCount() : 0,
+                () -> pipeline != null ? pipeline.getSkippedFrameCount() : 0,
+                () -> recognizer != null ? recognizer.getPersonCount() : 0,
+                () -> pipeline != null ? pipeline.getScheduler().getCaptureRate() : 0);
+        faceDetector = Application.getFaceDetectorType().create(Application.getDetectionScale());
+        faceTracker = new FaceTracker(Application.getDetectionInterval(), 2);
+        recognitionCache = new RecognitionCache(Application.getRecognitionCacheLifetime());
+        smileCascade = loadClassifier(SMILE_CASCADE_PATH);
+        smileAnalysis = analyses.register("smiles", this::detectSmiles);
         disableTimer = new Timer(Application.getDisableDelay() * 1000, this);
         disableTimer.setRepeats(false);
+        actuating = captureRate != MAX_RATE;
+        // Replays measure the detector on every frame, so only live cameras skip the detector on frames without motion
+        if (actuating && Application.getMotionThreshold() > 0) {
+            motionDetector = new MotionDetector(Application.getMotionThreshold());
+            motionCheckInterval = Application.getMotionCheckInterval() * 1_000_000_000L;
+        }
+        if (workerPool != null) workerClient = workerPool.register(source.getName());
+        if (actuating) {
+            DropPolicy policy = Application.isDropOldestFrames() ? DropPolicy.DROP_OLDEST : DropPolicy.BLOCK;
+            CaptureScheduler scheduler = new CaptureScheduler(captureRate, Application.getIdleCaptureRate(),
+                    Application.getIdleDelay() * 1000L, Application.getLatencyBudget());
+            pipeline = createPipeline(scheduler, policy, 0);
+            pipeline.start();
+        }
         long finishTime = System.currentTimeMillis();
         Log.printMessage("Camera initialized in " + ((finishTime - startTime) / (double) 1000) + "s", MessageType.INIT);
     }
 
+    /**
+     * Creates the frame processing pipeline of the camera
+     * @param scheduler decides when the next frame is captured
+     * @param policy policy of the queues between the stages
+     * @param frameLimit maximum number of captured frames, 0 or less for no limit
+     * @return pipeline
+     */
+    private Pipeline createPipeline(CaptureScheduler scheduler, DropPolicy policy, int frameLimit) {
+        Pipeline newPipeline = new Pipeline("camera", frame -> (frameLimit <= 0 || frame.getSequence() < frameLimit) && captureFrame(frame),
+                scheduler, Application.getQueueCapacity(), policy);
+        newPipeline.addStage("detection", share(this::detectFaces));
+        // Optional analyses only take a worker while a consumer has subscribed to them
+        FrameProcessor analysis = share(analyses::analyzeSubscribed);
+        newPipeline.addStage("analysis", frame -> !analyses.hasSubscribers() || analysis.process(frame));
+        newPipeline.addStage("recognition", share(this::recognizeFaces));
+        newPipeline.addStage("actuation", this::actuate);
+        // A live preview must never hold back the actuation stage, so it only ever gets the newest frame
+        newPipeline.addStage("preview", this::preview, 1, actuating ? DropPolicy.DROP_OLDEST : DropPolicy.BLOCK);
+        return newPipeline;
+    }
+
+    /**
+     * Returns a processor which does the work of the given processor while holding a worker of the camera's worker pool
+     * @param processor the work done on every frame
+     * @return shared processor, the given processor if the camera has no worker pool
+     */
+    private FrameProcessor share(FrameProcessor processor) {
+        return workerClient != null ? workerClient.share(processor) : processor;
+    }
+
     /**
      * Loads and returns a cascade classifier from an XML file in the given relative path
      * @param path relative path to XML file
@@ -150,232 +341,412 @@ public class Camera implements ActionListener {
     }
 
     /**
-     * Detects and returns parts of the given image containing faces
-     * @param image image to be analysed
-     * @return rectangles with faces
+     * Reads a frame from the camera's source, or from the loaded images if there are any
+     * @param frame frame to be filled
+     * @return false if the source has no more frames
      */
-    private Rect[] detectFaces(Mat image) {
-        Mat grayFrame = new Mat();
-        if (loadedImage != null) {
-            image = loadedImage.clone();
+    private boolean captureFrame(Frame frame) {
+        long startTime = System.nanoTime();
+        synchronized (sourceLock) {
+            FrameSource currentSource = imageSource != null ? imageSource : source;
+            boolean captured = currentSource.read(frame.getImage()) || currentSource.isLive();
+            stats.record(Stage.CAPTURE, startTime);
+            return captured;
         }
+    }
+
+    /**
+     * Detects or tracks the parts of the frame containing faces.
+     * While no face is being tracked, live cameras only look for new faces in the part of the frame which has changed, or in the whole frame once per motion check interval.
+     * @param frame frame to be analysed
+     * @return false if the frame should not be processed any further
+     */
+    private boolean detectFaces(Frame frame) {
+        Mat image = frame.getImage();
+        if (image.empty()) return false;
+        if (recognizer == null) return false;
+        Mat grayFrame = frame.getGray();
+        long startTime = System.nanoTime();
         Imgproc.cvtColor(image, grayFrame, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.equalizeHist(grayFrame, grayFrame);
-        if (this.absoluteFaceSize == 0) {
-            int height = grayFrame.rows();
-            if (Math.round(height * 0.2f) > 0) {
-                this.absoluteFaceSize = Math.round(height * 0.2f);
+        stats.record(Stage.GRAYSCALE, startTime);
+        Rect motionRegion = null;
+        if (motionDetector != null) {
+            startTime = System.nanoTime();
+            motionRegion = motionDetector.detect(grayFrame);
+            frame.setMotionRegion(motionRegion);
+            stats.record(Stage.MOTION, startTime);
+        }
+        startTime = System.nanoTime();
+        // The detector only runs every few frames or when a face was lost, the tracker follows the faces in between
+        if (faceTracker.isDetectionDue()) {
+            long now = System.nanoTime();
+            if (motionDetector == null || faceTracker.hasTracks() || now - lastFullDetection >= motionCheckInterval) {
+                // Tracked faces may sit still, and the occasional full detection catches faces the background has absorbed
+                faceTracker.update(grayFrame, faceDetector.detect(grayFrame));
+                lastFullDetection = now;
+            } else if (motionRegion != null) {
+                faceTracker.update(grayFrame, faceDetector.detect(grayFrame, motionRegion));
             }
+            // Otherwise nothing has changed since the detector last found no faces, so it stays due until something moves
+        } else {
+            faceTracker.track(grayFrame);
         }
-
-        MatOfRect faces = new MatOfRect();
-        faceCascade.detectMultiScale(grayFrame, faces, 1.1, 2, 0 | Objdetect.CASCADE_SCALE_IMAGE,
-                new Size(absoluteFaceSize, absoluteFaceSize), new Size());
-        return faces.toArray();
+        stats.record(Stage.DETECTION, startTime);
+        frame.setFaces(faceTracker.getFaces());
+        frame.setTrackIds(faceTracker.getTrackIds());
+        // A face appearing in idle mode makes the next frame be captured right away
+        pipeline.getScheduler().facesSeen(frame.getFaces().length);
+        return true;
     }
 
     /**
-     * Recognizes the faces in the image using the camera's recognizer
-     * @param image image to be analyzed
-     * @return detection objects for each indiviual detected face
+     * Recognizes the faces in the frame using the camera's recognizer
+     * @param frame frame to be analyzed
+     * @return false if the frame should not be processed any further
      */
-    public Detection[] recognizeFaces(Mat image) {
-        if (image == null) return null;
-        if (image.empty()) return null;
+    private boolean recognizeFaces(Frame frame) {
+        long startTime = System.nanoTime();
+        Rect[] faces = frame.getFaces();
         Detection[] people = new Detection[faces.length];
+        Recognizer currentRecognizer = recognizer;
 
-        if (recognizer == null) {
+        if (currentRecognizer == null) {
             for (int i = 0; i < people.length; i++) {
                 people[i] = Recognizer.UNRECOGNIZED;
             }
-            return people;
+            frame.setDetections(people);
+            stats.record(Stage.RECOGNITION, startTime);
+            return true;
         }
 
-        Mat grayFrame = new Mat();
+        while (faceRegions.size() < faces.length) {
+            faceRegions.add(new Mat());
+            faceSamples.add(new Mat());
+        }
+        if (currentRecognizer != cachedRecognizer) {
+            recognitionCache.clear();
+            cachedRecognizer = currentRecognizer;
+        }
+        int[] trackIds = frame.getTrackIds();
+        long modelVersion = currentRecognizer.getModelVersion();
+        double maxConfidence = Application.getMaxConfidence();
+        long now = System.nanoTime();
+        byte[][] signatures = new byte[people.length][];
+        uncachedFaces.clear();
+        uncachedIndices.clear();
         for (int i = 0; i < people.length; i++) {
-            Imgproc.cvtColor(image.submat(faces[i]), grayFrame, Imgproc.COLOR_BGR2GRAY);
+            // Faces are recognized at the size people were enrolled at
+            Mat grayFrame = faceSamples.get(i);
+            Enrollment.copySample(frame.getGray(), faces[i], faceRegions.get(i), grayFrame);
             // ! Případně odkomentovat!!!
             //Imgproc.equalizeHist(grayFrame, grayFrame);
-            people[i] = recognizer.recognizeFace(grayFrame);
+            // A face which has not changed since it was last recognized keeps its result until the result expires
+            signatures[i] = recognitionCache.getSignature(grayFrame);
+            people[i] = recognitionCache.get(trackIds[i], signatures[i], modelVersion, maxConfidence, now);
+            if (people[i] == null) {
+                uncachedFaces.add(grayFrame);
+                uncachedIndices.add(i);
+            }
+        }
+        // Every face has its own sample buffer, so the remaining faces can be recognized in parallel
+        Detection[] recognized = currentRecognizer.recognizeFaces(uncachedFaces);
+        for (int j = 0; j < recognized.length; j++) {
+            int i = uncachedIndices.get(j);
+            people[i] = recognized[j];
+            recognitionCache.put(trackIds[i], signatures[i], people[i], modelVersion, maxConfidence, now);
         }
+        recognitionCache.retain(trackIds);
 
-        return people;
+        frame.setDetections(people);
+        stats.record(Stage.RECOGNITION, startTime);
+        return true;
     }
 
     /**
-     * Detects and returns parts of the given image containing smiles
-     * @param image image to be analyzed
-     * @return smiles
+     * Detects the parts of the frame's faces containing smiles, only searching the lower half of every face
+     * @param frame frame to be analyzed
+     * @return smiles of every face, in the same order as the faces
      */
-    public Rect[] detectSmiles(Mat image) {
-        LinkedList<Rect> rectangles = new LinkedList<>();
-        if (faces == null) faces = detectFaces(image);
-        Mat grayFrame = new Mat();
+    private Rect[][] detectSmiles(Frame frame) {
+        long startTime = System.nanoTime();
+        Rect[] faces = frame.getFaces();
+        if (faces == null) return new Rect[0][];
+        Rect[][] smiles = new Rect[faces.length][];
         for (int i = 0; i < faces.length; i++) {
-            Imgproc.cvtColor(image.submat(faces[i]), grayFrame, Imgproc.COLOR_BGR2GRAY);
-            //Imgproc.equalizeHist(grayFrame, grayFrame);
-            MatOfRect smiles = new MatOfRect();
-            smileCascade.detectMultiScale(grayFrame, smiles, 1.4, 6);
-            //smileCascade.detectMultiScale(grayFrame, smiles);
-            for (Rect rect : smiles.toArray()) {
-                rect.x += faces[i].x;
-                rect.y += faces[i].y;
-                rectangles.add(rect);
+            Rect mouthRegion = new Rect(faces[i].x, faces[i].y + faces[i].height / 2, faces[i].width, faces[i].height - faces[i].height / 2);
+            Rects.copyRegion(frame.getGray(), mouthRegion, smileRegion);
+            //Imgproc.equalizeHist(smileRegion, smileRegion);
+            smileCascade.detectMultiScale(smileRegion, smileRects, SMILE_SCALE_FACTOR, SMILE_MIN_NEIGHBORS);
+            //smileCascade.detectMultiScale(smileRegion, smileRects);
+            smiles[i] = smileRects.toArray();
+            for (Rect rect : smiles[i]) {
+                rect.x += mouthRegion.x;
+                rect.y += mouthRegion.y;
             }
         }
-        Rect[] rectArray = new Rect[rectangles.size()];
-        return rectangles.toArray(rectArray);
+        stats.record(Stage.SMILES, startTime);
+        return smiles;
     }
 
     /**
-     * Returns how many smiles are present in the given image
-     * @param image image to be analyzed
+     * Returns how many smiles are present in the most recently processed frame.
+     * Smiles are detected in the frame on the first call unless something has subscribed to them.
      * @return smile count
      */
-    public int getSmileCount(Mat image) {
-        int smileCount = 0;
-        Rect[] faces = detectFaces(image);
-        Mat grayFrame = new Mat();
-        for (int i = 0; i < faces.length; i++) {
-            Imgproc.cvtColor(image.submat(faces[i]), grayFrame, Imgproc.COLOR_BGR2GRAY);
-            //Imgproc.equalizeHist(grayFrame, grayFrame);
-            MatOfRect smiles = new MatOfRect();
-            smileCascade.detectMultiScale(grayFrame, smiles, 1.4, 6);
-            smileCount += smiles.toArray().length > 0 ? 1 : 0;
+    public int getSmileCount() {
+        Frame frame = retainLatestFrame();
+        if (frame == null) return 0;
+        try {
+            int smilingFaceCount = 0;
+            for (Rect[] faceSmiles : smileAnalysis.get(frame)) {
+                if (faceSmiles.length > 0) smilingFaceCount++;
+            }
+            return smilingFaceCount;
+        } finally {
+            frame.release();
         }
-        return smileCount;
     }
 
     /**
-     * Returns a buffered image object containing the camera's current frame with highlighted faces with names and confidence values, as well as highlighted smiles
-     * @return buffered image of the camera's altered current frame
+     * Returns the registry of the camera's optional frame analyses, which consumers can subscribe to or register new analyses with
+     * @return analysis registry
      */
-    public BufferedImage getBufferedImage() {
-        if (faces == null) faces = detectFaces(frame);
-        if (smiles == null) smiles = detectSmiles(frame);
-        if (recognizedFaces == null) recognizedFaces = recognizeFaces(frame);
-        //Mat newFrame = new Mat();
-        //Imgproc.cvtColor(frame, newFrame, Imgproc.COLOR_BGR2GRAY);
-        Mat newFrame = frame.clone();
-        for (Rect rect : faces) {
-            Imgproc.rectangle(newFrame, rect, new Scalar(0, 255, 0));
-        }
+    public AnalysisRegistry getAnalyses() {
+        return analyses;
+    }
 
-        Detection[] peopleOnScreen = recognizedFaces;
-        for (int i = 0; i < faces.length; i++) {
-            Imgproc.putText(newFrame, peopleOnScreen[i].getPerson().getName(), new Point(faces[i].x, faces[i].y + faces[i].height), Imgproc.FONT_HERSHEY_SIMPLEX, 1, new Scalar(255, 255, 255), 4);
-            Imgproc.putText(newFrame, String.valueOf((int) peopleOnScreen[i].getConfidence()), new Point(faces[i].x, faces[i].y + faces[i].height + 50), Imgproc.FONT_HERSHEY_SIMPLEX, 1, new Scalar(255, 255, 255), 4);
+    /**
+     * Returns a buffered image object containing the camera's most recently processed frame with highlighted faces with names and confidence values, as well as highlighted smiles
+     * @return buffered image of the camera's altered current frame, null if no frame has been processed yet
+     */
+    public BufferedImage getBufferedImage() {
+        Frame frame = retainLatestFrame();
+        if (frame == null) return null;
+        try {
+            return PreviewRenderer.render(frame, smileAnalysis.get(frame));
+        } finally {
+            frame.release();
         }
+    }
 
-        for (Rect rect : smiles) {
-            Imgproc.rectangle(newFrame, rect, new Scalar(255, 0, 0));
-        }
-        MatOfByte buffer = new MatOfByte();
-        Imgcodecs.imencode(".png", newFrame, buffer);
-        BufferedImage image = null;
-        try {
-            InputStream in = new ByteArrayInputStream(buffer.toArray());
-            image = ImageIO.read(in);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Returns the most recently processed frame, which the caller has to release.
+     * The frame is only retained while holding the frame lock, so detecting smiles or rendering the frame never blocks the pipeline from publishing the next frame.
+     * @return retained frame, null if no frame has been processed yet
+     */
+    private Frame retainLatestFrame() {
+        synchronized (frameLock) {
+            if (latestFrame == null) return null;
+            latestFrame.retain();
+            return latestFrame;
         }
-        return image;   
     }
 
     /**
-     * Loads the given image to the camera
-     * @param url path to the image
+     * Loads the given image or directory of images to the camera.
+     * The images are used instead of the frames of the camera's source until they are unloaded.
+     * @param url path to the image or directory of images
      */
     public void loadImage(String url) {
-        loadedImage = Imgcodecs.imread(url);
+        FrameSource newSource = new ImageDirectoryFrameSource(url, true, true);
+        synchronized (sourceLock) {
+            if (imageSource != null) imageSource.release();
+            imageSource = newSource;
+        }
     }
 
     /**
-     * Unloads the previously loaded image
+     * Unloads the previously loaded images
      */
     public void unloadImage() {
-        loadedImage = null;
+        synchronized (sourceLock) {
+            if (imageSource != null) imageSource.release();
+            imageSource = null;
+        }
     }
 
     /**
      * Shuts the camera down, stopping the frame capture and face recognition cycle
      */
     public void shutdown() {
-        captureTimer.stop();
-        videoCapture.release();
+        if (pipeline != null) pipeline.stop();
+        if (workerClient != null) workerClient.unregister();
+        disableTimer.stop();
+        synchronized (sourceLock) {
+            source.release();
+            if (imageSource != null) imageSource.release();
+        }
+        synchronized (frameLock) {
+            if (latestFrame != null) latestFrame.release();
+            latestFrame = null;
+        }
+        faceDetector.release();
+        faceTracker.release();
+        if (motionDetector != null) motionDetector.release();
+        recognitionCache.release();
+        // A smile count or preview requested just before the shutdown may still be detecting smiles in its retained frame
+        synchronized (smileAnalysis) {
+            smileRegion.release();
+            smileRects.release();
+        }
+        for (Mat faceRegion : faceRegions) {
+            faceRegion.release();
+        }
+        for (Mat faceSample : faceSamples) {
+            faceSample.release();
+        }
+        previewRenderer.release();
+        synchronized (trackingLock) {
+            if (enrollment != null) enrollment.cancel();
+            enrollment = null;
+        }
     }
 
     /**
-     * Triggered by the camera capture timer. This method serves as the camera frame capture and face recognition cycle
+     * Reads and processes frames from the camera's source as fast as possible until the source has no more frames.
+     * No frames are dropped between the stages, the achieved frame rate is periodically printed to the log.
+     * @param frameLimit maximum number of frames to process, 0 or less for no limit
+     * @return the average number of processed frames per second
      */
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        synchronized (timerLock) {
-            if (e.getSource() == captureTimer) {
-                if (frame == null)
-                    frame = new Mat();
-                videoCapture.read(frame);
-                faces = null;
-                smiles = null;
-                recognizedFaces = null;
-
-                if (frame.empty()) return;
-                if (recognizer == null) return;
-
-                faces = detectFaces(frame);
-                smiles = detectSmiles(frame);
-                recognizedFaces = recognizeFaces(frame);
-                
-                if (WindowManager.isWindowVisible()) {
-                    WindowManager.getWindow().setImage(getBufferedImage());
-                }
+    public double replay(int frameLimit) {
+        return replay(frameLimit, null);
+    }
 
-                boolean authorizedPersonDetected = false;
-                for (Detection person : recognizedFaces) {
-                    if (person.getPerson().isAuthorized()) {
-                        authorizedPersonDetected = true;
-                        if (!currentState && currentTolerance < Application.getFrameChangeCount()) {
-                            currentTolerance++;
-                        } else {
-                            if (disableTimer.isRunning()) {
-                                disableTimer.stop();
-                                GPIOManager.setBlinkDevices(false);
-                            }
-                            GPIOManager.setState(true);
-                            currentState = true;
-                            currentTolerance = 0;
-                        }
-                        break;
-                    }
-                }
-                if (!authorizedPersonDetected) {
-                    if (currentState && currentTolerance < Application.getFrameChangeCount()) {
-                        currentTolerance++;
-                    } else {
-                        disableTimer.start();
-                        if (currentState) GPIOManager.setBlinkDevices(true);
-                        currentState = false;
-                        currentTolerance = 0;
-                    }
-                }
+    /**
+     * Reads and processes frames from the camera's source as fast as possible until the source has no more frames, passing every processed frame to the given listener.
+     * The listener is called by the actuation stage, the frame's buffers are reused once it returns.
+     * @param frameLimit maximum number of frames to process, 0 or less for no limit
+     * @param frameListener called with every processed frame in capture order, null for none
+     * @return the average number of processed frames per second
+     */
+    public double replay(int frameLimit, Consumer<Frame> frameListener) {
+        if (actuating) throw new IllegalStateException("Only cameras created with the capture rate MAX_RATE can replay frames!");
+        Log.printMessage("Replaying " + source.getName(), MessageType.INFO);
+        this.frameListener = frameListener;
+        pipeline = createPipeline(CaptureScheduler.fixed(MAX_RATE), DropPolicy.BLOCK, frameLimit);
+        long startTime = System.nanoTime();
+        long reportedFrameCount = 0;
+        long reportTime = startTime;
+        pipeline.start();
+        try {
+            while (!pipeline.awaitCompletion(1000)) {
+                long now = System.nanoTime();
+                long frameCount = pipeline.getCompletedFrameCount();
+                Log.printMessage("Replay: " + String.format("%.2f", (frameCount - reportedFrameCount) * 1e9 / (now - reportTime)) + " fps", MessageType.INFO);
+                reportedFrameCount = frameCount;
+                reportTime = now;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.stop();
+            this.frameListener = null;
+        }
+        long frameCount = pipeline.getCompletedFrameCount();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        double fps = seconds > 0 ? frameCount / seconds : 0;
+        Log.printMessage("Replay finished: " + frameCount + " frames in " + String.format("%.2f", seconds) + "s (" + String.format("%.2f", fps) + " fps)", MessageType.INFO);
+        return fps;
+    }
+
+    /**
+     * Updates the GPIO output and the tracked face images based on the frame's recognition results, then makes it the camera's current frame
+     * @param frame processed frame
+     * @return false if the frame should not be processed any further
+     */
+    private boolean actuate(Frame frame) {
+        if (actuating) {
+            long startTime = System.nanoTime();
+            updateOutput(frame.getDetections());
+            stats.record(Stage.GPIO, startTime);
+        }
+        stats.markFrame();
+        stats.record(Stage.END_TO_END, frame.getCaptureTime());
+        if (frameListener != null) frameListener.accept(frame);
+        pipeline.getScheduler().frameFinished(System.nanoTime() - frame.getCaptureTime(), frame.getSequence());
+
+        synchronized (trackingLock) {
+            Rect[] detectedFaces = frame.getFaces();
+            // The frame's buffers are reused, so the face is copied out of them before this stage returns
+            if (enrollment != null && detectedFaces.length == 1) enrollment.offer(frame.getGray(), detectedFaces[0]);
+        }
+
+        frame.retain();
+        synchronized (frameLock) {
+            if (latestFrame != null) latestFrame.release();
+            latestFrame = frame;
+        }
+        return true;
+    }
 
-                if (trackedFaceImages != null) {
-                    //Rect[] detectedFaces = detectFaces(frame);
-                    Rect[] detectedFaces = faces;
-                    if (detectedFaces.length != 1)
-                        return;
-                    Mat grayFrame = new Mat();
-                    Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
-                    //Imgproc.equalizeHist(grayFrame, grayFrame);
-                    if (trackedFaceImages != null)
-                        trackedFaceImages.add(grayFrame.submat(detectedFaces[0]));
+    /**
+     * Displays the frame in the face recognition window if the window is visible and the camera is previewing.
+     * The frame is rendered at the window's size, frames arriving while the previous frame is being rendered are skipped by the stage's queue.
+     * @param frame processed frame
+     * @return false if the frame should not be processed any further
+     */
+    private boolean preview(Frame frame) {
+        boolean visible = previewing && WindowManager.isWindowVisible();
+        // The smiles are only drawn while the preview is visible, so only then are they detected ahead of the preview stage
+        if (visible != previewSubscribed) {
+            if (visible) smileAnalysis.subscribe();
+            else smileAnalysis.unsubscribe();
+            previewSubscribed = visible;
+        }
+        if (visible) {
+            FaceRecognitionWindow window = WindowManager.getWindow();
+            Rect[][] smiles = smileAnalysis.get(frame);
+            long startTime = System.nanoTime();
+            BufferedImage image = previewRenderer.render(frame, smiles, window.getPreviewWidth(), window.getPreviewHeight());
+            stats.record(Stage.OVERLAY, startTime);
+            if (image != null) window.setImage(image);
+        }
+        return true;
+    }
+
+    /**
+     * Switches the GPIO output of the camera's devices based on whether an authorized person is present in the recognized faces
+     * @param recognizedFaces recognized faces
+     */
+    private void updateOutput(Detection[] recognizedFaces) {
+        boolean authorizedPersonDetected = false;
+        for (Detection person : recognizedFaces) {
+            if (person.getPerson().isAuthorized()) {
+                authorizedPersonDetected = true;
+                if (!currentState && currentTolerance < Application.getFrameChangeCount()) {
+                    currentTolerance++;
+                } else {
+                    if (disableTimer.isRunning()) {
+                        disableTimer.stop();
+                        GPIOManager.setBlinkDevices(id, false);
+                    }
+                    GPIOManager.setState(id, true);
+                    currentState = true;
+                    currentTolerance = 0;
                 }
+                break;
+            }
+        }
+        if (!authorizedPersonDetected) {
+            if (currentState && currentTolerance < Application.getFrameChangeCount()) {
+                currentTolerance++;
+            } else {
+                disableTimer.start();
+                if (currentState) GPIOManager.setBlinkDevices(id, true);
+                currentState = false;
+                currentTolerance = 0;
             }
         }
+    }
 
+    /**
+     * Triggered by the disable timer, disables the GPIO output after no authorized person has been seen for the disable delay
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
         if (e.getSource() == disableTimer) {
-            GPIOManager.setBlinkDevices(false);
-            GPIOManager.setState(false);
+            GPIOManager.setBlinkDevices(id, false);
+            GPIOManager.setState(id, false);
         }
     }
 }
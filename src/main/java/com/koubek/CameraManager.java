@@ -0,0 +1,161 @@
+package com.koubek;
+
+import com.koubek.gpio.GPIOManager;
+import com.koubek.pipeline.WorkerPool;
+import com.koubek.source.CameraFrameSource;
+import com.koubek.source.FrameSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * CameraManager instances run several cameras in one program, e.g. one for the inner and one for the outer door.
+ * All cameras recognize faces using the same recognizer, so its model is only held in memory once,
+ * and their face detection, smile detection and recognition stages share a single worker pool, which divides the CPU fairly between the cameras.
+ * Every camera has an ID, which its GPIO devices are bound to. One of the cameras is selected, which is the camera the console commands and the preview window refer to.
+ */
+public class CameraManager {
+    private final WorkerPool workerPool;
+    private final LinkedHashMap<Integer, Camera> cameras = new LinkedHashMap<>();
+
+    private volatile Recognizer recognizer;
+    private volatile Camera selectedCamera;
+    private int nextId = 0;
+
+    /**
+     * Constructs a new camera manager without any cameras
+     * @param workerCount number of frames processed at the same time by the CPU-heavy stages of all cameras together
+     */
+    public CameraManager(int workerCount) {
+        workerPool = new WorkerPool(workerCount);
+    }
+
+    /**
+     * Adds a camera reading frames from the hardware camera with the given index. The first added camera is selected.
+     * @param index camera index
+     * @return camera
+     */
+    public Camera addCamera(int index) {
+        return addCamera(new CameraFrameSource(index));
+    }
+
+    /**
+     * Adds a camera reading frames from the given source with the current capture rate. The first added camera is selected.
+     * @param source frame source
+     * @return camera
+     */
+    public synchronized Camera addCamera(FrameSource source) {
+        Camera camera = new Camera(source, Application.getCaptureRate(), nextId++, workerPool);
+        camera.setRecognizer(recognizer);
+        cameras.put(camera.getId(), camera);
+        if (selectedCamera == null) select(camera);
+        else camera.setPreviewing(false);
+        Log.printMessage("Camera " + camera.getId() + " added: " + source.getName(), MessageType.INFO);
+        return camera;
+    }
+
+    /**
+     * Shuts down and removes the camera with the given ID and disables its GPIO devices. If the camera was selected, the first remaining camera is selected.
+     * @param id camera ID
+     */
+    public synchronized void removeCamera(int id) {
+        Camera camera = cameras.remove(id);
+        if (camera == null) throw new IllegalArgumentException("Unknown camera: " + id + "!");
+        camera.shutdown();
+        GPIOManager.removeCamera(id);
+        if (camera == selectedCamera) select(cameras.isEmpty() ? null : cameras.values().iterator().next());
+        Log.printMessage("Camera " + id + " removed", MessageType.INFO);
+    }
+
+    /**
+     * Selects the camera with the given ID
+     * @param id camera ID
+     */
+    public synchronized void selectCamera(int id) {
+        Camera camera = cameras.get(id);
+        if (camera == null) throw new IllegalArgumentException("Unknown camera: " + id + "!");
+        select(camera);
+    }
+
+    /**
+     * Selects the given camera, which is the only one showing its frames in the preview window, must be called while holding the manager's lock
+     * @param camera camera, null if there are no cameras
+     */
+    private void select(Camera camera) {
+        if (selectedCamera != null) selectedCamera.setPreviewing(false);
+        selectedCamera = camera;
+        if (camera != null) camera.setPreviewing(true);
+    }
+
+    /**
+     * Returns the selected camera
+     * @return camera, null if there are no cameras
+     */
+    public Camera getSelectedCamera() {
+        return selectedCamera;
+    }
+
+    /**
+     * Returns the camera with the given ID
+     * @param id camera ID
+     * @return camera, null if there is no camera with the ID
+     */
+    public synchronized Camera getCamera(int id) {
+        return cameras.get(id);
+    }
+
+    /**
+     * Returns all cameras in the order they were added
+     * @return cameras
+     */
+    public synchronized List<Camera> getCameras() {
+        return new ArrayList<>(cameras.values());
+    }
+
+    /**
+     * Assigns the given recognizer to all current and future cameras and closes the recognizer it replaces
+     * @param recognizer recognizer
+     */
+    public void setRecognizer(Recognizer recognizer) {
+        Recognizer oldRecognizer;
+        synchronized (this) {
+            oldRecognizer = this.recognizer;
+            this.recognizer = recognizer;
+            for (Camera camera : cameras.values()) {
+                camera.setRecognizer(recognizer);
+            }
+        }
+        // The old recognizer may still be finishing a training, which must not hold up the cameras
+        if (oldRecognizer != null && oldRecognizer != recognizer) oldRecognizer.close();
+    }
+
+    /**
+     * Returns the recognizer shared by all cameras
+     * @return recognizer, null if no recognizer has been created or loaded
+     */
+    public Recognizer getRecognizer() {
+        return recognizer;
+    }
+
+    /**
+     * Returns the worker pool shared by all cameras
+     * @return worker pool
+     */
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * Shuts down and removes all cameras, then closes the recognizer once its queued trainings have finished
+     */
+    public synchronized void shutdown() {
+        for (Camera camera : cameras.values()) {
+            camera.shutdown();
+        }
+        cameras.clear();
+        selectedCamera = null;
+        if (recognizer != null) recognizer.close();
+        recognizer = null;
+    }
+}
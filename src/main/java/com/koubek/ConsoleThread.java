@@ -2,9 +2,14 @@ package com.koubek;
 
 import org.opencv.core.Mat;
 
+import com.koubek.detection.FaceDetectorType;
 import com.koubek.gpio.DigitalOutputDevice;
 import com.koubek.gpio.GPIOManager;
 import com.koubek.gpio.PWMDevice;
+import com.koubek.source.FrameSource;
+import com.koubek.source.ImageDirectoryFrameSource;
+import com.koubek.source.SyntheticFrameSource;
+import com.koubek.source.VideoFileFrameSource;
 import com.koubek.window.WindowManager;
 
 import java.util.LinkedList;
@@ -14,6 +19,8 @@ import java.util.Scanner;
  * Console thread instances are threads that display the command line interface on the program instance's command line and allow the user to provide input
  */
 public class ConsoleThread extends Thread {
+    private static final int MAX_SYNTHETIC_FRAME_SIZE = 8192;
+
     Scanner scanner;
 
     /**
@@ -56,7 +63,7 @@ public class ConsoleThread extends Thread {
                         break;
                     case "faces":
                     case "f":
-                        Detection[] people = Application.getCamera().recognizeFaces(Application.getCamera().getCurrentFrame());
+                        Detection[] people = Application.getCamera().getRecognizedFaces();
                         if (people == null) {
                             printToConsole("Unable to detect faces");
                             break;
@@ -70,6 +77,25 @@ public class ConsoleThread extends Thread {
                         printToConsole("Enter camera index: ");
                         Application.initCamera(scanner.nextInt());
                         break;
+                    case "addcamera":
+                    case "ac":
+                        printToConsole("Enter camera index: ");
+                        printToConsole("Camera ID: " + Application.addCamera(scanner.nextInt()).getId());
+                        break;
+                    case "listcameras":
+                    case "lc":
+                        listCameras();
+                        break;
+                    case "selectcamera":
+                    case "sc":
+                        printToConsole("Enter camera ID: ");
+                        Application.getCameraManager().selectCamera(scanner.nextInt());
+                        break;
+                    case "removecamera":
+                    case "rc":
+                        printToConsole("Enter camera ID: ");
+                        Application.getCameraManager().removeCamera(scanner.nextInt());
+                        break;
                     case "createrecognizer":
                     case "cr":
                         Application.createRecognizer();
@@ -92,17 +118,49 @@ public class ConsoleThread extends Thread {
                     case "saveface":
                     case "sf":
                         LinkedList<Mat> faceImages = Application.getCamera().finishTracking();
+                        if (faceImages == null) {
+                            printToConsole("No face is being tracked, use \"trackface\" first");
+                            break;
+                        }
+                        if (faceImages.isEmpty()) {
+                            printToConsole("No faces were captured, the person was not added");
+                            break;
+                        }
                         printToConsole("Enter person name: ");
                         String personName = scanner.next();
                         printToConsole("Is " + personName + " authorized? (y/n)");
                         boolean isAuthorized = scanner.next().equalsIgnoreCase("y") ? true : false;
                         Person person = new Person(personName, isAuthorized);
-                        Application.getCamera().getRecognizer().addPerson(faceImages, person);
-                        printToConsole("Face saved to recognizer");
+                        if (Application.getRecognizer().addPersonInBackground(faceImages, person) == null) {
+                            printToConsole("No faces were captured, the person was not added");
+                            break;
+                        }
+                        printToConsole("Training started with " + faceImages.size() + " faces, faces keep being recognized in the meantime. Use \"training\" to see its progress");
+                        break;
+                    case "condense":
+                    case "cd":
+                        Application.getRecognizer().condenseInBackground();
+                        printToConsole("Condensation started, faces keep being recognized in the meantime. Use \"training\" to see its progress");
+                        break;
+                    case "training":
+                    case "tr":
+                        printToConsole("Training: " + Application.getRecognizer().getTrainingStatus());
+                        break;
+                    case "replay":
+                    case "rp":
+                        replayProcedure();
+                        break;
+                    case "stats":
+                    case "st":
+                        if (Application.getCamera() == null) {
+                            printToConsole("Camera has not been initialized!");
+                            break;
+                        }
+                        printToConsole(Application.getCamera().getStats().getReport());
                         break;
                     case "smile":
                     case "s":
-                        printToConsole("Smile count: " + Application.getCamera().getSmileCount(Application.getCamera().getCurrentFrame()));
+                        printToConsole("Smile count: " + Application.getCamera().getSmileCount());
                         break;
                     default:
                         printToConsole("Unrecognized command: \"" + input + "\". Try using \"help\".");
@@ -125,13 +183,21 @@ public class ConsoleThread extends Thread {
                 "\naddgpio | ag" +
                 "\nopenwindow | ow" +
                 "\ninitcamera | ic" +
+                "\naddcamera | ac" +
+                "\nlistcameras | lc" +
+                "\nselectcamera | sc" +
+                "\nremovecamera | rc" +
                 "\ncreaterecognizer | cr" +
                 "\nloadrecognizer | lr" +
                 "\nsaverecognizer | sr" +
                 "\ntrackface | tf" +
                 "\nsaveface | sf" +
+                "\ntraining | tr" +
+                "\ncondense | cd" +
                 "\nfaces | f" +
                 "\nsmile | s" +
+                "\nstats | st" +
+                "\nreplay | rp" +
                 "\nexit");
     }
 
@@ -144,6 +210,8 @@ public class ConsoleThread extends Thread {
         int answer = ScannerInput.GetInt(0, 2);
         printToConsole("Is this device used for blinking when the state disable timer is active? (y/n)");
         boolean blinkingDevice = scanner.next().equalsIgnoreCase("y");
+        printToConsole("Enter the ID of the camera the device is bound to (" + GPIOManager.ALL_CAMERAS + " for all cameras)");
+        int camera = ScannerInput.GetInt(GPIOManager.ALL_CAMERAS, Integer.MAX_VALUE);
         switch (answer) {
             case 0:
                 return;
@@ -151,7 +219,7 @@ public class ConsoleThread extends Thread {
                 printToConsole("Enter pin BCM number (please refer to the pin numbering diagram)");
                 int address = ScannerInput.GetInt();
                 
-                GPIOManager.addDevice(new DigitalOutputDevice(address, blinkingDevice));
+                GPIOManager.addDevice(new DigitalOutputDevice(address, blinkingDevice), camera);
                 break;
             case 2:
                 printToConsole("Enter PWM channel number (0 - BCM pin 12, 18; 1 - BCM pin 13, 19)");
@@ -162,7 +230,7 @@ public class ConsoleThread extends Thread {
                 double dutyCycleOn = ScannerInput.GetDouble();
                 printToConsole("Enter device duty cycle for disabled state (Default: 13.2)");
                 double dutyCycleOff = ScannerInput.GetDouble();
-                GPIOManager.addDevice(new PWMDevice(channel, frequency, dutyCycleOn, dutyCycleOff, blinkingDevice));
+                GPIOManager.addDevice(new PWMDevice(channel, frequency, dutyCycleOn, dutyCycleOff, blinkingDevice), camera);
                 break;
         
             default:
@@ -171,13 +239,65 @@ public class ConsoleThread extends Thread {
         }
     }
 
+    /**
+     * Prints the ID, frame source, frame rate, GPIO device count and worker time of every camera, marking the selected camera
+     */
+    private void listCameras() {
+        CameraManager manager = Application.getCameraManager();
+        if (manager.getCameras().isEmpty()) {
+            printToConsole("No cameras have been initialized");
+            return;
+        }
+        for (Camera camera : manager.getCameras()) {
+            printToConsole((camera == manager.getSelectedCamera() ? "* " : "  ") + camera.getId() + ": " + camera.getName()
+                    + ", " + String.format("%.2f", camera.getStats().getFrameRate()) + " fps"
+                    + ", " + GPIOManager.getDeviceCount(camera.getId()) + " GPIO devices"
+                    + ", " + String.format("%.2f", camera.getWorkerTime() / 1e9) + "s of worker time");
+        }
+        printToConsole(GPIOManager.getDeviceCount(GPIOManager.ALL_CAMERAS) + " GPIO devices bound to all cameras, "
+                + manager.getWorkerPool().getWorkerCount() + " workers");
+    }
+
+    /**
+     * Starts the user-reliant procedure to replay frames from a video file, a directory of images or a synthetic source as fast as possible
+     */
+    private void replayProcedure() {
+        printToConsole("Choose frame source:\n0) Cancel\n1) Video file\n2) Image file or directory\n3) Synthetic frames");
+        int answer = ScannerInput.GetInt(0, 3);
+        FrameSource source;
+        switch (answer) {
+            case 1:
+                printToConsole("Enter video file path: ");
+                source = new VideoFileFrameSource(scanner.next());
+                break;
+            case 2:
+                printToConsole("Enter image file or directory path: ");
+                source = new ImageDirectoryFrameSource(scanner.next(), false, true);
+                break;
+            case 3:
+                printToConsole("Enter frame width: ");
+                int width = ScannerInput.GetInt(1, MAX_SYNTHETIC_FRAME_SIZE);
+                printToConsole("Enter frame height: ");
+                int height = ScannerInput.GetInt(1, MAX_SYNTHETIC_FRAME_SIZE);
+                printToConsole("Enter frame count: ");
+                source = new SyntheticFrameSource(width, height, ScannerInput.GetInt(1, Integer.MAX_VALUE));
+                break;
+            default:
+                return;
+        }
+        printToConsole("Enter frame limit (0 for no limit): ");
+        int frameLimit = ScannerInput.GetInt();
+        double fps = Application.replay(source, frameLimit);
+        printToConsole("Replay frame rate: " + String.format("%.2f", fps) + " fps");
+    }
+
     /**
      * Starts the user-reliant procedure to change certain settings regarding recognition
      */
     private void changeSettingsProcedure() {
         printToConsole("Which setting do you wish to change?");
-        printToConsole("1) Cancel\n2) Verification frame count\n3) Output disable delay\n4) Max confidence value");
-        switch (ScannerInput.GetInt(1, 4)) {
+        printToConsole("1) Cancel\n2) Verification frame count\n3) Output disable delay\n4) Max confidence value\n5) Capture rate\n6) Pipeline queue capacity\n7) Pipeline drop policy\n8) Detection scale\n9) Detection interval\n10) Recognition cache lifetime\n11) Statistics port\n12) Index threshold\n13) Index search breadth\n14) Max prototypes per person\n15) Duplicate distance\n16) Idle capture rate\n17) Idle delay\n18) Latency budget\n19) Motion threshold\n20) Motion check interval\n21) Face detector");
+        switch (ScannerInput.GetInt(1, 21)) {
             case 1:
                 break;
             case 2:
@@ -192,6 +312,74 @@ public class ConsoleThread extends Thread {
                 printToConsole("Enter max confidence value: ");
                 Application.setMaxConfidence(ScannerInput.GetInt());
                 break;
+            case 5:
+                printToConsole("Enter capture rate (frames per second, applies to newly initialized cameras): ");
+                Application.setCaptureRate(ScannerInput.GetInt(1, 1000));
+                break;
+            case 6:
+                printToConsole("Enter pipeline queue capacity (applies to newly initialized cameras): ");
+                Application.setQueueCapacity(ScannerInput.GetInt(1, 100));
+                break;
+            case 7:
+                printToConsole("Drop the oldest frame when a pipeline stage falls behind? (y/n, applies to newly initialized cameras)");
+                Application.setDropOldestFrames(scanner.next().equalsIgnoreCase("y"));
+                break;
+            case 8:
+                printToConsole("Enter detection scale (e.g. 0.5 to detect faces at half resolution, applies to newly initialized cameras): ");
+                Application.setDetectionScale(ScannerInput.GetDouble(0.01, 1));
+                break;
+            case 9:
+                printToConsole("Enter detection interval (faces are detected every n-th frame and tracked in between, 1 to detect in every frame, applies to newly initialized cameras): ");
+                Application.setDetectionInterval(ScannerInput.GetInt(1, 1000));
+                break;
+            case 10:
+                printToConsole("Enter recognition cache lifetime (in milliseconds, 0 to recognize every face in every frame, applies to newly initialized cameras): ");
+                Application.setRecognitionCacheLifetime(ScannerInput.GetInt(0, Integer.MAX_VALUE));
+                break;
+            case 11:
+                printToConsole("Enter statistics port (Prometheus metrics are served at http://localhost:<port>/metrics, 0 to disable): ");
+                Application.setStatsPort(ScannerInput.GetInt(0, 65535));
+                break;
+            case 12:
+                printToConsole("Enter index threshold (galleries of at least this many face images are indexed for approximate searches in the background, 0 to never index galleries): ");
+                Application.setIndexThreshold(ScannerInput.GetInt(0, Integer.MAX_VALUE));
+                break;
+            case 13:
+                printToConsole("Enter index search breadth (the higher the more accurate and the slower approximate searches are, 0 to search indexed galleries exactly): ");
+                Application.setIndexSearchBreadth(ScannerInput.GetInt(0, 100000));
+                break;
+            case 14:
+                printToConsole("Enter max prototypes per person (at most this many representative face images are kept when a person is added or the recognizer is condensed, 0 for no limit): ");
+                Application.setMaxPrototypes(ScannerInput.GetInt(0, 100000));
+                break;
+            case 15:
+                printToConsole("Enter duplicate distance (face images of a person closer than this to a kept image are dropped, 0 to keep duplicates): ");
+                Application.setDuplicateDistance(ScannerInput.GetDouble(0, Double.MAX_VALUE));
+                break;
+            case 16:
+                printToConsole("Enter idle capture rate (frames per second while no faces are being seen, applies to newly initialized cameras): ");
+                Application.setIdleCaptureRate(ScannerInput.GetInt(1, 1000));
+                break;
+            case 17:
+                printToConsole("Enter idle delay (in seconds without a face before switching to the idle capture rate, 0 to never switch, applies to newly initialized cameras): ");
+                Application.setIdleDelay(ScannerInput.GetInt(0, Integer.MAX_VALUE));
+                break;
+            case 18:
+                printToConsole("Enter latency budget (in milliseconds from capture to GPIO output, the capture rate is lowered while frames take longer, 0 to never lower it, applies to newly initialized cameras): ");
+                Application.setLatencyBudget(ScannerInput.GetInt(0, Integer.MAX_VALUE));
+                break;
+            case 19:
+                printToConsole("Enter motion threshold (share of pixels which has to change for new faces to be looked for, e.g. 0.002, 0 to look for faces regardless of motion, applies to newly initialized cameras): ");
+                Application.setMotionThreshold(ScannerInput.GetDouble(0, 1));
+                break;
+            case 20:
+                printToConsole("Enter motion check interval (in seconds without motion after which new faces are looked for in the whole frame anyway, applies to newly initialized cameras): ");
+                Application.setMotionCheckInterval(ScannerInput.GetInt(1, Integer.MAX_VALUE));
+                break;
+            case 21:
+                printToConsole("Enter face detector (haar for the most accurate detection, lbp for several times faster detection, applies to newly initialized cameras): ");
+                Application.setFaceDetectorType(FaceDetectorType.fromName(scanner.next()));
+                break;
             default:
                 break;
         }
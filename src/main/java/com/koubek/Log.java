@@ -1,13 +1,18 @@
 package com.koubek;
 
-import java.io.PrintStream;
-import java.sql.Time;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * The log class contains a method used for abstracting log output for means of alteration.
  * Depending on the terminal emulator's capabilities, the log output may also have a special color based on the message type.
+ * Messages are written asynchronously by a single writer thread, so logging never waits for a slow console.
+ * The messages wait in a preallocated ring buffer, when it is full, INIT and INFO messages are dropped and more severe messages wait for space.
  */
 public class Log {
     private static final String ANSI_RESET = "\u001B[0m";
@@ -20,8 +25,42 @@ public class Log {
     private static final String ANSI_CYAN = "\u001B[36m";
     private static final String ANSI_WHITE = "\u001B[37m";
 
+    private static final int CAPACITY = 1024;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
     private static boolean printLog = true;
-    private static boolean printInitializationDialog = false;
+
+    // Ring buffer of waiting messages, guarded by the lock
+    private static final long[] times = new long[CAPACITY];
+    private static final MessageType[] types = new MessageType[CAPACITY];
+    private static final String[] messages = new String[CAPACITY];
+    private static int head = 0;
+    private static int count = 0;
+    private static long enqueuedMessages = 0;
+    private static long writtenMessages = 0;
+    private static long droppedMessages = 0;
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition notEmpty = lock.newCondition();
+    private static final Condition notFull = lock.newCondition();
+    private static final Condition written = lock.newCondition();
+
+    static {
+        Thread writer = new Thread(Log::writeMessages, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "log-flush"));
+    }
+
+    /**
+     * Returns whether messages of the given type are printed, so callers can skip building messages which would be dropped
+     * @param type type of the message
+     * @return is enabled
+     */
+    public static boolean isEnabled(MessageType type) {
+        if (!printLog) return false;
+        return type != MessageType.INIT || Application.isDebug();
+    }
 
     /**
      * Prints the message to the console along with the type and date.
@@ -31,20 +70,125 @@ public class Log {
      * @param type type of the message
      */
     public static void printMessage(String message, MessageType type) {
-        printInitializationDialog = Application.isDebug();
-        if (!printLog) return;
-        if (type == MessageType.INIT && !printInitializationDialog) return;
-        String colorCode;
-        colorCode = switch (type) {
-            case INIT -> ANSI_RESET;
-            case INFO -> ANSI_CYAN;
-            case WARNING -> ANSI_YELLOW;
-            case ERROR -> ANSI_RED;
-            case FATAL -> ANSI_PURPLE;
-            default -> ANSI_RESET;
-        };
-        SimpleDateFormat formatter = new SimpleDateFormat("HH:mm:ss");
-        System.out.println("[" + formatter.format(new Date()) + "] " + type + ": " + message);
+        if (!isEnabled(type)) return;
+        enqueue(System.currentTimeMillis(), type, message);
+    }
+
+    /**
+     * Prints the supplied message to the console along with the type and date.
+     * The message is only built if messages of the given type are printed, which makes this method suitable for frequently called code.
+     * @param message supplies the message to be displayed
+     * @param type type of the message
+     */
+    public static void printMessage(Supplier<String> message, MessageType type) {
+        if (!isEnabled(type)) return;
+        enqueue(System.currentTimeMillis(), type, message.get());
     }
-}
 
+    /**
+     * Waits until all messages logged so far have been written
+     * @param timeoutMillis maximum time to wait in milliseconds
+     */
+    public static void flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            long target = enqueuedMessages;
+            while (writtenMessages < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return;
+                written.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a message to the ring buffer
+     * @param time time the message was logged at in milliseconds since the epoch
+     * @param type type of the message
+     * @param message message
+     */
+    private static void enqueue(long time, MessageType type, String message) {
+        lock.lock();
+        try {
+            if (count == CAPACITY) {
+                if (type == MessageType.INIT || type == MessageType.INFO) {
+                    droppedMessages++;
+                    return;
+                }
+                while (count == CAPACITY) {
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            int tail = (head + count) % CAPACITY;
+            times[tail] = time;
+            types[tail] = type;
+            messages[tail] = message;
+            count++;
+            enqueuedMessages++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run by the writer thread, takes all waiting messages at once and writes them to the console with a single call
+     */
+    private static void writeMessages() {
+        long[] batchTimes = new long[CAPACITY];
+        MessageType[] batchTypes = new MessageType[CAPACITY];
+        String[] batchMessages = new String[CAPACITY];
+        StringBuilder output = new StringBuilder();
+        while (true) {
+            int batchSize;
+            long dropped;
+            lock.lock();
+            try {
+                while (count == 0) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                batchSize = count;
+                for (int i = 0; i < batchSize; i++) {
+                    int index = (head + i) % CAPACITY;
+                    batchTimes[i] = times[index];
+                    batchTypes[i] = types[index];
+                    batchMessages[i] = messages[index];
+                    messages[index] = null;
+                }
+                head = (head + batchSize) % CAPACITY;
+                count = 0;
+                dropped = droppedMessages;
+                droppedMessages = 0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            output.setLength(0);
+            if (dropped > 0) {
+                output.append("[").append(TIME_FORMAT.format(Instant.ofEpochMilli(batchTimes[0]))).append("] ")
+                        .append(MessageType.WARNING).append(": ").append(dropped).append(" log messages dropped\n");
+            }
+            for (int i = 0; i < batchSize; i++) {
+                output.append("[").append(TIME_FORMAT.format(Instant.ofEpochMilli(batchTimes[i]))).append("] ")
+                        .append(batchTypes[i]).append(": ").append(batchMessages[i]).append('\n');
+                batchMessages[i] = null;
+            }
+            System.out.print(output);
+            System.out.flush();
+
+            lock.lock();
+            try {
+                writtenMessages += batchSize;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
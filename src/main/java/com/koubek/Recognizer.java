@@ -1,25 +1,55 @@
 package com.koubek;
 
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfInt;
-import org.opencv.face.LBPHFaceRecognizer;
+
+import com.koubek.recognition.Condenser;
+import com.koubek.recognition.HistogramModel;
+import com.koubek.recognition.LbphModel;
+import com.koubek.recognition.Match;
+import com.koubek.recognition.ModelFile;
+import com.koubek.recognition.ModelStore;
+import com.koubek.recognition.RecognizerModel;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Recognizer instances are used to recognize faces from image input.
  * Recognizers first have to be trained, only then can they recognize faces.
+ * Recognizers are safe to use from multiple threads. Faces are recognized using an immutable snapshot of the recognizer's model without any locking.
+ * Adding a person trains a new snapshot on the recognizer's background training thread, which then atomically replaces the old one,
+ * so recognition never pauses while a person is being added.
+ * Once a recognizer has been loaded from or saved to a directory in the binary model format, every added person is immediately appended to the directory's journal.
+ * Once the gallery reaches the index threshold, an index for approximate searches is built in the background and saved next to the model.
  */
 public class Recognizer {
-    private LBPHFaceRecognizer lbph;
-    private ArrayList<Person> people;
-    private boolean trained;
-    private boolean savingPerson = false;
+    private static final ExecutorService predictionPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "recognizer-prediction");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private final Object recognizerLock = new Object();
+    private final AtomicReference<RecognizerModel> model = new AtomicReference<>();
+    private final AtomicInteger pendingTrainings = new AtomicInteger();
+    private final ExecutorService trainingExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recognizer-training");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only used on the training thread, and before the recognizer is published
+    private ModelStore store;
+    private volatile long modelVersion = 0;
+    private volatile String trainingStatus = "idle";
 
     public static final Detection UNRECOGNIZED = new Detection(new Person("Unrecognized", false), 0);
 
@@ -27,95 +57,392 @@ public class Recognizer {
      * Constructs a new recognizer instance.
      */
     public Recognizer() {
-        lbph = LBPHFaceRecognizer.create();
-        people = new ArrayList<>();
-        trained = false;
+        this(new HistogramModel());
+    }
+
+    /**
+     * Constructs a new recognizer instance using the given model
+     * @param model recognizer model
+     */
+    private Recognizer(RecognizerModel model) {
+        this.model.set(model);
     }
 
     /**
-     * Loads a recognizer from the given recognizer directory's relative path
+     * Loads a recognizer from the given recognizer directory's relative path.
+     * Directories containing a binary model file are memory-mapped and their journals are replayed, older directories containing lbph.xml and people.ser are parsed.
      * @param path the given recognizer directory's relative path
      * @return The loaded recognizer
      * @throws IOException in case the recognizer could not be loaded
      * @throws ClassNotFoundException in case the class was not found
      */
     public static Recognizer loadRecognizer(String path) throws IOException, ClassNotFoundException {
-        Recognizer recognizer = new Recognizer();
-        recognizer.trained = true;
-        recognizer.lbph = LBPHFaceRecognizer.create();
-        recognizer.lbph.read(path + "/lbph.xml");
-        FileInputStream fileInputStream = new FileInputStream(path + "/people.ser");
-        ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream);
-        recognizer.people = (ArrayList<Person>) objectInputStream.readObject();
-
-        String peopleString = "\n";
-        for (int i = 0; i < recognizer.people.size(); i++) {
-            peopleString += i + ": " + recognizer.people.get(i).getName();
-        }
-        Log.printMessage("Recognizer loaded" + peopleString, MessageType.INIT);
+        ModelStore store = ModelFile.exists(path) ? ModelStore.open(path) : null;
+        RecognizerModel model = store != null ? store.load() : LbphModel.load(path);
+        Recognizer recognizer = new Recognizer(model);
+        recognizer.store = store;
 
+        Log.printMessage(() -> {
+            StringBuilder peopleString = new StringBuilder("Recognizer loaded\n");
+            for (int i = 0; i < model.getPersonCount(); i++) {
+                peopleString.append(i).append(": ").append(model.getPerson(i).getName());
+            }
+            return peopleString.toString();
+        }, MessageType.INIT);
+
+        recognizer.updateIndexInBackground();
         return recognizer;
     }
 
     /**
-     * Saves the recognizer to the given relative path
+     * Saves the recognizer to the given relative path in the binary model format and keeps the directory up to date from then on.
+     * Saving to the directory the recognizer was loaded from or last saved to costs nothing, as every added person has already been journaled there.
      * Saving a recognizer directory automatically creates any potential directories that may not already exist
      * @param path the relative path of the recognizer's directory
      * @throws IOException in case the recognizer could not be saved
      */
     public void saveRecognizer(String path) throws IOException {
-        new File(path).mkdirs();
-        lbph.save(path + "/lbph.xml");
-        FileOutputStream fileOutputStream = new FileOutputStream(path + "/people.ser");
-        ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-        objectOutputStream.writeObject(people);
+        // Saving runs on the training thread, so it never overlaps with a person being added
+        Future<?> saving = trainingExecutor.submit(() -> {
+            save(path);
+            return null;
+        });
+        try {
+            saving.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while saving recognizer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException("Unable to save recognizer", e.getCause());
+        }
+    }
+
+    /**
+     * Saves the recognizer to the given relative path and opens the store of the directory, must be called on the training thread
+     * @param path the relative path of the recognizer's directory
+     * @throws IOException in case the recognizer could not be saved
+     */
+    private void save(String path) throws IOException {
+        if (store != null && store.getDirectory().getCanonicalFile().equals(new File(path).getCanonicalFile())) return;
+        RecognizerModel currentModel = model.get();
+        ModelStore newStore;
+        if (currentModel instanceof HistogramModel) {
+            newStore = ModelStore.create((HistogramModel) currentModel, path);
+        } else {
+            // Models loaded from lbph.xml are saved in the binary model format and replaced by the saved model, so people added from now on can be journaled
+            currentModel.save(path);
+            newStore = ModelStore.open(path);
+            model.set(newStore.load());
+            modelVersion++;
+        }
+        if (store != null) store.close();
+        store = newStore;
+        updateIndex();
+    }
+
+    /**
+     * Waits until every training queued so far has finished and its people have been journaled
+     */
+    public void finishTrainings() {
+        try {
+            trainingExecutor.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to finish trainings", e.getCause());
+        }
     }
 
     /**
-     * Adds a new person to the recognizer who can then be recognized.
+     * Finishes every queued training, then stops the training thread and closes the store of the recognizer's directory.
+     * The recognizer can still recognize faces afterwards, but people can no longer be added to it.
+     */
+    public void close() {
+        trainingExecutor.shutdown();
+        try {
+            trainingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // The training thread has terminated, so the store is no longer used
+        if (store != null) store.close();
+        store = null;
+    }
+
+    /**
+     * Builds the index for approximate searches on the recognizer's background training thread if the gallery has reached the index threshold
+     * @return the indexing task
+     */
+    public Future<?> updateIndexInBackground() {
+        return trainingExecutor.submit(this::updateIndex);
+    }
+
+    /**
+     * Builds the index for approximate searches if the gallery has reached the index threshold and has no index yet, then saves it next to the model.
+     * Faces keep being recognized using the current model while the index is built. Must be called on the training thread.
+     */
+    private void updateIndex() {
+        int threshold = Application.getIndexThreshold();
+        if (threshold <= 0 || !(model.get() instanceof HistogramModel)) return;
+        HistogramModel currentModel = (HistogramModel) model.get();
+        if (currentModel.hasIndex() || currentModel.getSampleCount() < threshold) return;
+        long startTime = System.currentTimeMillis();
+        trainingStatus = "indexing " + currentModel.getSampleCount() + " histograms";
+        HistogramModel newModel = currentModel.withIndex();
+        // Training is serialized on this thread, so nobody else can have replaced the model in the meantime
+        if (!model.compareAndSet(currentModel, newModel)) {
+            throw new IllegalStateException("Recognizer model was replaced during indexing!");
+        }
+        trainingStatus = "finished indexing " + newModel.getSampleCount() + " histograms in " + ((System.currentTimeMillis() - startTime) / (double) 1000) + "s";
+        Log.printMessage("Recognizer " + trainingStatus, MessageType.INFO);
+        if (store == null) return;
+        try {
+            store.saveIndex(newModel);
+        } catch (IOException e) {
+            Log.printMessage("Unable to save recognizer index: " + e.getMessage(), MessageType.ERROR);
+        }
+    }
+
+    /**
+     * Adds a new person to the recognizer who can then be recognized and waits until the person has been added.
      * For optimal results, the images should be cropped to the face.
      * @param images the images of the person
      * @param person the person in the images
      */
     public void addPerson(LinkedList<Mat> images, Person person)
     {
-        synchronized (recognizerLock) {
-            if (images == null) return;
-            if (images.size() == 0) return;
-            savingPerson = true;
-            int[] labels = new int[images.size()];
-            Log.printMessage("Person ID: " + people.size(), MessageType.INIT);
-            Arrays.fill(labels, people.size());
-            if (trained) {
-                lbph.update(images, new MatOfInt(labels));
-            } else {
-                lbph.train(images, new MatOfInt(labels));
-                trained = true;
+        Future<?> training = addPersonInBackground(images, person);
+        if (training == null) return;
+        try {
+            training.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while adding person", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to add person", e.getCause());
+        }
+    }
+
+    /**
+     * Adds a new person to the recognizer on its background training thread.
+     * The new model is trained on a copy of the current one, faces keep being recognized using the current model until the new one replaces it.
+     * For optimal results, the images should be cropped to the face.
+     * @param images the images of the person
+     * @param person the person in the images
+     * @return the training task, null if there are no images
+     */
+    public Future<?> addPersonInBackground(List<Mat> images, Person person) {
+        if (images == null) return null;
+        if (images.size() == 0) return null;
+        pendingTrainings.incrementAndGet();
+        trainingStatus = "queued: " + person.getName();
+        return trainingExecutor.submit(() -> {
+            long startTime = System.currentTimeMillis();
+            try {
+                RecognizerModel currentModel = model.get();
+                int label = currentModel.getPersonCount();
+                Log.printMessage("Person ID: " + label, MessageType.INIT);
+                RecognizerModel newModel = currentModel.withPerson(images, person, Application.getCondenser(), step -> {
+                    trainingStatus = person.getName() + ": " + step;
+                    Log.printMessage("Training " + person.getName() + ": " + step, MessageType.INIT);
+                });
+                if (store != null && newModel instanceof HistogramModel) {
+                    trainingStatus = person.getName() + ": journaling";
+                    try {
+                        store.append((HistogramModel) newModel, label);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Unable to journal person: " + e.getMessage(), e);
+                    }
+                }
+                // Training is serialized on this thread, so nobody else can have replaced the model in the meantime
+                if (!model.compareAndSet(currentModel, newModel)) {
+                    throw new IllegalStateException("Recognizer model was replaced during training!");
+                }
+                modelVersion++;
+                trainingStatus = "finished: " + person.getName() + " in " + ((System.currentTimeMillis() - startTime) / (double) 1000) + "s";
+                Log.printMessage("Face " + label + ": " + person.getName() + " added in " + ((System.currentTimeMillis() - startTime) / (double) 1000) + "s", MessageType.INFO);
+                updateIndex();
+            } catch (RuntimeException e) {
+                trainingStatus = "failed: " + person.getName() + ": " + e.getMessage();
+                Log.printMessage("Unable to add " + person.getName() + ": " + e.getMessage(), MessageType.ERROR);
+                throw e;
+            } finally {
+                pendingTrainings.decrementAndGet();
             }
-            people.add(person);
-            Log.printMessage("Face " + labels[0] + ": " + person.getName() + " added!", MessageType.INIT);
-            savingPerson = false;
+        });
+    }
+
+    /**
+     * Condenses the recognizer's model on its background training thread, keeping only the samples of every person the current condenser chooses.
+     * Faces keep being recognized using the current model until the condensed one replaces it.
+     * A recognizer directory the recognizer was loaded from or saved to is rewritten with the condensed model, which also deletes its journals and index.
+     * @return the condensation task
+     */
+    public Future<?> condenseInBackground() {
+        pendingTrainings.incrementAndGet();
+        trainingStatus = "queued: condensation";
+        return trainingExecutor.submit(() -> {
+            long startTime = System.currentTimeMillis();
+            try {
+                RecognizerModel currentModel = model.get();
+                Condenser condenser = Application.getCondenser();
+                HistogramModel newModel = currentModel.condensed(condenser, step -> trainingStatus = "condensation: " + step);
+                if (store != null) {
+                    trainingStatus = "condensation: rewriting " + store.getDirectory();
+                    String path = store.getDirectory().getPath();
+                    // A compaction of the old store must not write to the directory while it is rewritten
+                    store.close();
+                    try {
+                        store = ModelStore.create(newModel, path);
+                    } catch (IOException e) {
+                        // The old journals are only deleted once the new model file is in place, so people added from now on are journaled again
+                        reopenStore(path);
+                        throw new RuntimeException("Unable to save condensed model: " + e.getMessage(), e);
+                    }
+                }
+                // Training is serialized on this thread, so nobody else can have replaced the model in the meantime
+                if (!model.compareAndSet(currentModel, newModel)) {
+                    throw new IllegalStateException("Recognizer model was replaced during condensation!");
+                }
+                modelVersion++;
+                String sampleCounts = currentModel instanceof HistogramModel ? "from " + ((HistogramModel) currentModel).getSampleCount() + " " : "";
+                trainingStatus = "finished condensation (" + condenser + ") " + sampleCounts + "to " + newModel.getSampleCount() + " samples in "
+                        + ((System.currentTimeMillis() - startTime) / (double) 1000) + "s";
+                Log.printMessage("Recognizer " + trainingStatus, MessageType.INFO);
+                updateIndex();
+            } catch (RuntimeException e) {
+                trainingStatus = "failed condensation: " + e.getMessage();
+                Log.printMessage("Unable to condense recognizer: " + e.getMessage(), MessageType.ERROR);
+                throw e;
+            } finally {
+                pendingTrainings.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Reopens the store of the given recognizer directory after it could not be rewritten, must be called on the training thread
+     * @param path the relative path of the recognizer's directory
+     */
+    private void reopenStore(String path) {
+        try {
+            store = ModelStore.open(path);
+        } catch (IOException e) {
+            store = null;
+            Log.printMessage("Unable to reopen recognizer directory " + path + ", added people are no longer saved: " + e.getMessage(), MessageType.ERROR);
         }
     }
 
+    /**
+     * Returns a description of the recognizer's current or most recent training
+     * @return training status
+     */
+    public String getTrainingStatus() {
+        int pending = pendingTrainings.get();
+        return pending > 0 ? trainingStatus + " (" + pending + " pending)" : trainingStatus;
+    }
+
     /**
      * Recognizes a single face from the given image.
      * For optimal results, the image should be cropped to the face.
-     * @param face
-     * @return
+     * This method may be called from several threads at once.
+     * @param face grayscale image of the face
+     * @return detection of the most similar person, or an unrecognized detection
      */
     public Detection recognizeFace(Mat face)
     {
-        synchronized (recognizerLock) {
-            if (savingPerson) return UNRECOGNIZED;
-            if (!trained) return UNRECOGNIZED;
-            int[] label = new int[1];
-            double[] confidence = new double[1];
-            lbph.predict(face, label, confidence);
-            Log.printMessage("Face recognized as ID " + label[0] + ". Face: " + people.get(label[0]) + ". " + "Confidence: " + confidence[0] + ".", MessageType.INIT);
-            return confidence[0] < Application.getMaxConfidence() ? new Detection(people.get(label[0]), confidence[0]) : UNRECOGNIZED;
-            //return confidence[0] < 8000 ? people.get(label[0]) : new Person(String.valueOf(confidence[0])); // Used for testing
+        RecognizerModel currentModel = model.get();
+        if (!currentModel.isTrained()) return UNRECOGNIZED;
+        if (currentModel.isParallel()) return recognizeFaces(List.of(face))[0];
+        double[] confidence = new double[1];
+        int label = currentModel.predict(face, confidence);
+        return toDetection(currentModel, label, confidence[0]);
+        //return confidence[0] < 8000 ? people.get(label[0]) : new Person(String.valueOf(confidence[0])); // Used for testing
+    }
+
+    /**
+     * Returns the detection of a face predicted by the given model
+     * @param currentModel the model which predicted the face
+     * @param label label of the most similar person, -1 if there is none
+     * @param distance distance to the most similar person
+     * @return detection of the most similar person, or an unrecognized detection
+     */
+    private Detection toDetection(RecognizerModel currentModel, int label, double distance) {
+        if (label < 0) return UNRECOGNIZED;
+        Person person = currentModel.getPerson(label);
+        Log.printMessage(() -> "Face recognized as ID " + label + ". Face: " + person + ". " + "Confidence: " + distance + ".", MessageType.INIT);
+        return distance < Application.getMaxConfidence() ? new Detection(person, distance) : new Detection(UNRECOGNIZED.getPerson(), distance);
+    }
+
+    /**
+     * Finds the people most similar to the given face, regardless of the max confidence value.
+     * @param face grayscale image of the face
+     * @param k maximum number of people
+     * @return detections of the most similar people ordered from the most similar, only the most similar one if the model cannot rank people
+     */
+    public Detection[] findClosestPeople(Mat face, int k) {
+        RecognizerModel currentModel = model.get();
+        Match[] matches = currentModel.predictAll(List.of(face), k, Application.getIndexSearchBreadth())[0];
+        Detection[] detections = new Detection[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+            detections[i] = new Detection(currentModel.getPerson(matches[i].getLabel()), matches[i].getDistance());
+        }
+        return detections;
+    }
+
+    /**
+     * Recognizes all given faces in parallel.
+     * Models which match a whole batch of faces in parallel do so in a single pass over their gallery,
+     * otherwise the faces are predicted one by one using the recognizer's shared prediction threads and the calling thread.
+     * @param faces grayscale images of the faces, each image may only appear once
+     * @return detections in the same order as the faces
+     */
+    public Detection[] recognizeFaces(List<Mat> faces) {
+        Detection[] detections = new Detection[faces.size()];
+        if (faces.size() == 0) return detections;
+        RecognizerModel currentModel = model.get();
+        if (currentModel.isParallel()) {
+            Match[][] matches = currentModel.predictAll(faces, 1, Application.getIndexSearchBreadth());
+            for (int i = 0; i < detections.length; i++) {
+                detections[i] = matches[i].length == 0 ? UNRECOGNIZED : toDetection(currentModel, matches[i][0].getLabel(), matches[i][0].getDistance());
+            }
+            return detections;
+        }
+        ArrayList<Future<Detection>> futures = new ArrayList<>(faces.size() - 1);
+        for (int i = 1; i < faces.size(); i++) {
+            Mat face = faces.get(i);
+            futures.add(predictionPool.submit((Callable<Detection>) () -> recognizeFace(face)));
         }
+        detections[0] = recognizeFace(faces.get(0));
+        try {
+            for (int i = 1; i < faces.size(); i++) {
+                detections[i] = futures.get(i - 1).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while recognizing faces", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to recognize face", e.getCause());
+        }
+        return detections;
+    }
+
+    /**
+     * Returns the number of people the recognizer can recognize
+     * @return person count
+     */
+    public int getPersonCount() {
+        return model.get().getPersonCount();
+    }
+
+    /**
+     * Returns the version of the recognizer's model, which changes whenever a person is added
+     * @return model version
+     */
+    public long getModelVersion() {
+        return modelVersion;
     }
 
     /**
@@ -123,6 +450,6 @@ public class Recognizer {
      * @return is saving person
      */
     public boolean isSavingPerson() {
-        return savingPerson;
+        return pendingTrainings.get() > 0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,332 @@
+package com.koubek.batch;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Application;
+import com.koubek.Detection;
+import com.koubek.Log;
+import com.koubek.MessageType;
+import com.koubek.Recognizer;
+import com.koubek.detection.FaceDetector;
+import com.koubek.enrollment.Enrollment;
+import com.koubek.source.ImageDirectoryFrameSource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BatchRecognizer recognizes the faces in a directory tree of still images without a camera, e.g. to audit the quality of enrolled people on thousands of photos.
+ * Every image is decoded, detected and recognized by a single task of a work-stealing pool with a thread for every core.
+ * Only a bounded number of tasks is in flight at a time, so the decoded images held in memory do not grow with the size of the tree.
+ * Every worker thread has its own face detector and buffers. The results are streamed to a CSV or JSON lines file as soon as an image is finished,
+ * one line for every face, or a single line without a face for an image without faces.
+ */
+public class BatchRecognizer {
+    private static final int TASKS_PER_THREAD = 4;
+    private static final String CSV_HEADER = "file,face,x,y,width,height,person,authorized,confidence,decode_ms,detection_ms,recognition_ms";
+
+    private final Path root;
+    private final Recognizer recognizer;
+    private final BufferedWriter writer;
+    private final boolean json;
+    private final int threadCount;
+    private final ThreadLocal<Worker> workers;
+    private final ConcurrentLinkedQueue<Worker> allWorkers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong imageCount = new AtomicLong();
+    private final AtomicLong faceCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicReference<IOException> writeError = new AtomicReference<>();
+
+    /**
+     * Runs the batch recognition given by the program arguments and prints a summary.
+     * Usage: batch &lt;image directory&gt; &lt;recognizer directory&gt; &lt;output file (.csv or .jsonl)&gt; [thread count]
+     * @param args arguments following the batch command
+     * @param out output the summary is printed to
+     */
+    public static void run(String[] args, PrintStream out) {
+        int threadCount = args.length > 3 ? parseThreadCount(args[3]) : Runtime.getRuntime().availableProcessors();
+        if (args.length < 3 || threadCount < 1) {
+            out.println("Usage: batch <image directory> <recognizer directory> <output file (.csv or .jsonl)> [thread count]");
+            return;
+        }
+        Path output = Paths.get(args[2]);
+        boolean json = output.getFileName().toString().toLowerCase().endsWith(".jsonl");
+        try {
+            Recognizer recognizer = Recognizer.loadRecognizer(args[1]);
+            try {
+                if (recognizer.getPersonCount() == 0) Log.printMessage("The recognizer knows no people, all faces will be unrecognized", MessageType.WARNING);
+                try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    BatchRecognizer batch = new BatchRecognizer(Paths.get(args[0]), recognizer, writer, json, threadCount);
+                    long startTime = System.nanoTime();
+                    batch.recognizeAll();
+                    double seconds = (System.nanoTime() - startTime) / 1e9;
+                    out.println("Recognized " + batch.faceCount.get() + " faces in " + batch.imageCount.get() + " images (" + batch.failedCount.get()
+                            + " failed) in " + String.format("%.2f", seconds) + "s (" + String.format("%.2f", batch.imageCount.get() / seconds)
+                            + " images/s) using " + threadCount + " threads, results written to " + output);
+                }
+            } finally {
+                recognizer.close();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            out.println("Batch recognition failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the thread count given as a program argument
+     * @param arg program argument
+     * @return thread count, 0 if the argument is not a number
+     */
+    private static int parseThreadCount(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Constructs a new batch recognition
+     * @param root root of the directory tree of images
+     * @param recognizer recognizer
+     * @param writer writer the results are written to
+     * @param json whether the results are written as JSON lines instead of CSV
+     * @param threadCount number of images processed at the same time
+     */
+    private BatchRecognizer(Path root, Recognizer recognizer, BufferedWriter writer, boolean json, int threadCount) {
+        if (threadCount < 1) throw new IllegalArgumentException("Thread count must be at least 1!");
+        this.root = root;
+        this.recognizer = recognizer;
+        this.writer = writer;
+        this.json = json;
+        this.threadCount = threadCount;
+        this.workers = ThreadLocal.withInitial(() -> {
+            Worker worker = new Worker();
+            allWorkers.add(worker);
+            return worker;
+        });
+    }
+
+    /**
+     * Recognizes the faces in all images of the tree and writes the results
+     * @throws IOException in case the tree could not be listed or the results could not be written
+     */
+    private void recognizeAll() throws IOException {
+        List<Path> images = listImages();
+        Log.printMessage("Batch recognition of " + images.size() + " images in " + root, MessageType.INFO);
+        if (!json) writer.write(CSV_HEADER + "\n");
+
+        // Tasks taken from the shared queue in submission order, idle threads steal from each other
+        ForkJoinPool pool = new ForkJoinPool(threadCount, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        Semaphore slots = new Semaphore(threadCount * TASKS_PER_THREAD);
+        try {
+            for (Path image : images) {
+                if (writeError.get() != null) break;
+                slots.acquire();
+                pool.execute(() -> {
+                    try {
+                        recognize(image);
+                    } catch (RuntimeException e) {
+                        failedCount.incrementAndGet();
+                        Log.printMessage("Unable to recognize image " + image + ": " + e.getMessage(), MessageType.ERROR);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Worker worker : allWorkers) {
+                worker.release();
+            }
+        }
+        if (writeError.get() != null) throw writeError.get();
+    }
+
+    /**
+     * Returns all images in the tree in alphabetical order of their paths
+     * @return image paths
+     * @throws IOException in case the tree could not be listed
+     */
+    private List<Path> listImages() throws IOException {
+        if (!Files.isDirectory(root)) throw new IOException("Unable to find image directory: " + root);
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(path -> Files.isRegularFile(path) && ImageDirectoryFrameSource.isImage(path.getFileName().toString()))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Decodes the given image, recognizes its faces and writes the results, called by the pool's threads
+     * @param image image path
+     */
+    private void recognize(Path image) {
+        Worker worker = workers.get();
+        String file = root.relativize(image).toString();
+        long startTime = System.nanoTime();
+        Mat frame = Imgcodecs.imread(image.toString());
+        try {
+            if (frame.empty()) {
+                failedCount.incrementAndGet();
+                Log.printMessage("Unable to decode image: " + image, MessageType.WARNING);
+                return;
+            }
+            long decodeTime = System.nanoTime();
+            Imgproc.cvtColor(frame, worker.grayFrame, Imgproc.COLOR_BGR2GRAY);
+            Rect[] faces = worker.detector.detect(worker.grayFrame);
+            long detectionTime = System.nanoTime();
+            // The worker threads already use every core, so the faces are recognized one by one on the worker's own thread
+            Detection[] detections = new Detection[faces.length];
+            for (int i = 0; i < faces.length; i++) {
+                Enrollment.copySample(worker.grayFrame, faces[i], worker.faceRegion, worker.faceSample);
+                detections[i] = recognizer.recognizeFace(worker.faceSample);
+            }
+            long recognitionTime = System.nanoTime();
+
+            double[] timings = {(decodeTime - startTime) / 1e6, (detectionTime - decodeTime) / 1e6, (recognitionTime - detectionTime) / 1e6};
+            StringBuilder lines = new StringBuilder();
+            if (faces.length == 0) appendLine(lines, file, -1, null, null, timings);
+            for (int i = 0; i < faces.length; i++) {
+                appendLine(lines, file, i, faces[i], detections[i], timings);
+            }
+            write(lines.toString());
+            imageCount.incrementAndGet();
+            faceCount.addAndGet(faces.length);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Appends the result line of a single face to the given builder
+     * @param lines builder
+     * @param file image path relative to the root
+     * @param face index of the face in the image, -1 for an image without faces
+     * @param rect face rectangle, null for an image without faces
+     * @param detection recognition result, null for an image without faces
+     * @param timings decode, detection and recognition time of the image in milliseconds
+     */
+    private void appendLine(StringBuilder lines, String file, int face, Rect rect, Detection detection, double[] timings) {
+        if (json) {
+            lines.append("{\"file\":").append(jsonString(file));
+            if (rect != null) {
+                lines.append(",\"face\":").append(face).append(",\"x\":").append(rect.x).append(",\"y\":").append(rect.y)
+                        .append(",\"width\":").append(rect.width).append(",\"height\":").append(rect.height)
+                        .append(",\"person\":").append(jsonString(detection.getPerson().getName()))
+                        .append(",\"authorized\":").append(detection.getPerson().isAuthorized())
+                        .append(",\"confidence\":").append(format(detection.getConfidence()));
+            }
+            lines.append(",\"decode_ms\":").append(format(timings[0])).append(",\"detection_ms\":").append(format(timings[1]))
+                    .append(",\"recognition_ms\":").append(format(timings[2])).append("}\n");
+        } else {
+            lines.append(csvString(file)).append(',');
+            if (rect != null) {
+                lines.append(face).append(',').append(rect.x).append(',').append(rect.y).append(',').append(rect.width).append(',').append(rect.height).append(',')
+                        .append(csvString(detection.getPerson().getName())).append(',').append(detection.getPerson().isAuthorized()).append(',')
+                        .append(format(detection.getConfidence())).append(',');
+            } else {
+                lines.append(",,,,,,,,");
+            }
+            lines.append(format(timings[0])).append(',').append(format(timings[1])).append(',').append(format(timings[2])).append('\n');
+        }
+    }
+
+    /**
+     * Writes the result lines of an image, the lines of an image are never interleaved with the lines of another image
+     * @param lines result lines
+     */
+    private void write(String lines) {
+        synchronized (writer) {
+            try {
+                writer.write(lines);
+            } catch (IOException e) {
+                writeError.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the value with three decimal places
+     * @param value value
+     * @return formatted value
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Returns the value quoted as a CSV field if it contains a separator, quote or line break
+     * @param value value
+     * @return CSV field
+     */
+    private static String csvString(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Returns the value as a quoted and escaped JSON string
+     * @param value value
+     * @return JSON string
+     */
+    private static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+                    else builder.append(c);
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Worker instances hold the face detector and buffers of a single thread of the pool
+     */
+    private static class Worker {
+        private final FaceDetector detector = Application.getFaceDetectorType().create(Application.getDetectionScale());
+        private final Mat grayFrame = new Mat();
+        private final Mat faceRegion = new Mat();
+        private final Mat faceSample = new Mat();
+
+        /**
+         * Releases the native buffers of the worker
+         */
+        private void release() {
+            detector.release();
+            grayFrame.release();
+            faceRegion.release();
+            faceSample.release();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.koubek.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+
+/**
+ * CascadeFaceDetector instances detect faces in grayscale frames using a cascade classifier with the given detection parameters.
+ * Detection may run on a downscaled copy of the frame, the detected rectangles are then mapped back to the coordinates of the full resolution frame.
+ * The minimum and maximum face sizes are given relative to the frame's height, so they do not depend on the resolution or the detection scale.
+ * Detector instances reuse their buffers and are therefore not thread-safe, every thread needs its own detector.
+ */
+public class CascadeFaceDetector implements FaceDetector {
+    private final CascadeClassifier cascade;
+    private final double scaleFactor;
+    private final int minNeighbors;
+    private final double minFaceRatio;
+    private final double maxFaceRatio;
+    private final double detectionScale;
+
+    private final Mat regionFrame = new Mat();
+    private final Mat scaledFrame = new Mat();
+    private final Mat equalizedFrame = new Mat();
+    private final MatOfRect faceRects = new MatOfRect();
+    private Size minFaceSize;
+    private Size maxFaceSize;
+    private int minFaceSizeRows = -1;
+
+    /**
+     * Constructs a new detector using the cascade classifier in the given XML file
+     * @param cascadePath relative path to the cascade classifier XML file
+     * @param scaleFactor how much the searched face size grows between two passes over the frame, greater than 1
+     * @param minNeighbors how many overlapping candidates have to agree on a face
+     * @param minFaceRatio minimum face size relative to the frame's height
+     * @param maxFaceRatio maximum face size relative to the frame's height, 0 for no limit
+     * @param detectionScale factor the frame is scaled by before detection, 1 for full resolution
+     */
+    public CascadeFaceDetector(String cascadePath, double scaleFactor, int minNeighbors, double minFaceRatio, double maxFaceRatio, double detectionScale) {
+        if (detectionScale <= 0 || detectionScale > 1) throw new IllegalArgumentException("Detection scale must be greater than 0 and at most 1!");
+        if (scaleFactor <= 1) throw new IllegalArgumentException("Scale factor must be greater than 1!");
+        if (minNeighbors < 0) throw new IllegalArgumentException("Min neighbors must not be negative!");
+        if (minFaceRatio <= 0 || minFaceRatio > 1) throw new IllegalArgumentException("Min face ratio must be greater than 0 and at most 1!");
+        if (maxFaceRatio != 0 && maxFaceRatio < minFaceRatio) throw new IllegalArgumentException("Max face ratio must be 0 or at least the min face ratio!");
+        this.scaleFactor = scaleFactor;
+        this.minNeighbors = minNeighbors;
+        this.minFaceRatio = minFaceRatio;
+        this.maxFaceRatio = maxFaceRatio;
+        this.detectionScale = detectionScale;
+        cascade = new CascadeClassifier();
+        if (!cascade.load(cascadePath)) {
+            throw new RuntimeException("Unable to load XML classifier: " + cascadePath);
+        }
+        Log.printMessage("Loaded XML classifier: " + cascadePath, MessageType.INIT);
+    }
+
+    @Override
+    public double getDetectionScale() {
+        return detectionScale;
+    }
+
+    @Override
+    public Rect[] detect(Mat grayFrame) {
+        return detect(grayFrame, grayFrame.rows());
+    }
+
+    /**
+     * Detects faces in the given region of the grayscale frame, e.g. the part of the frame where motion was seen.
+     * The region is widened by the minimum face size on every side, so faces reaching over its edges are still found,
+     * and faces have to be as large as when detecting them in the whole frame.
+     * @param grayFrame grayscale frame
+     * @param region region of the frame to be searched
+     * @return rectangles with faces in the coordinates of the given frame
+     */
+    @Override
+    public Rect[] detect(Mat grayFrame, Rect region) {
+        int margin = (int) Math.ceil(grayFrame.rows() * minFaceRatio);
+        Rect area = Rects.clamp(new Rect(region.x - margin, region.y - margin, region.width + 2 * margin, region.height + 2 * margin),
+                grayFrame.cols(), grayFrame.rows());
+        if (area.width == grayFrame.cols() && area.height == grayFrame.rows()) return detect(grayFrame);
+        if (area.width == 0 || area.height == 0) return new Rect[0];
+
+        Rects.copyRegion(grayFrame, area, regionFrame);
+        Rect[] faces = detect(regionFrame, grayFrame.rows());
+        for (Rect face : faces) {
+            face.x += area.x;
+            face.y += area.y;
+        }
+        return faces;
+    }
+
+    /**
+     * Detects faces in the given grayscale image with the minimum face size of a frame with the given height
+     * @param grayFrame grayscale image, either a whole frame or a region of it
+     * @param frameRows height of the whole frame
+     * @return rectangles with faces in the coordinates of the given image
+     */
+    private Rect[] detect(Mat grayFrame, int frameRows) {
+        Mat detectionFrame = grayFrame;
+        if (detectionScale < 1) {
+            Imgproc.resize(grayFrame, scaledFrame, new Size(), detectionScale, detectionScale, Imgproc.INTER_AREA);
+            detectionFrame = scaledFrame;
+        }
+        Imgproc.equalizeHist(detectionFrame, equalizedFrame);
+        if (frameRows != minFaceSizeRows) {
+            int absoluteFaceSize = Math.max(1, (int) Math.round(frameRows * detectionScale * minFaceRatio));
+            minFaceSize = new Size(absoluteFaceSize, absoluteFaceSize);
+            int absoluteMaxFaceSize = (int) Math.round(frameRows * detectionScale * maxFaceRatio);
+            maxFaceSize = new Size(absoluteMaxFaceSize, absoluteMaxFaceSize);
+            minFaceSizeRows = frameRows;
+        }
+
+        cascade.detectMultiScale(equalizedFrame, faceRects, scaleFactor, minNeighbors, 0 | Objdetect.CASCADE_SCALE_IMAGE,
+                minFaceSize, maxFaceSize);
+        Rect[] faces = faceRects.toArray();
+        if (detectionScale < 1) {
+            for (int i = 0; i < faces.length; i++) {
+                faces[i] = scaleRect(faces[i], 1 / detectionScale, grayFrame.cols(), grayFrame.rows());
+            }
+        }
+        return faces;
+    }
+
+    /**
+     * Scales the rectangle by the given factor and clamps it to the bounds of an image
+     * @param rect rectangle
+     * @param factor scale factor
+     * @param cols image width
+     * @param rows image height
+     * @return scaled rectangle
+     */
+    public static Rect scaleRect(Rect rect, double factor, int cols, int rows) {
+        int x = Math.max(0, (int) Math.floor(rect.x * factor));
+        int y = Math.max(0, (int) Math.floor(rect.y * factor));
+        int right = Math.min(cols, (int) Math.ceil((rect.x + rect.width) * factor));
+        int bottom = Math.min(rows, (int) Math.ceil((rect.y + rect.height) * factor));
+        return new Rect(x, y, Math.max(1, right - x), Math.max(1, bottom - y));
+    }
+
+    @Override
+    public void release() {
+        regionFrame.release();
+        scaledFrame.release();
+        equalizedFrame.release();
+        faceRects.release();
+    }
+}
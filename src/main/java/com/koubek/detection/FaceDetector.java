@@ -0,0 +1,36 @@
+package com.koubek.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * FaceDetector instances find faces in grayscale frames.
+ * Detector instances may reuse their buffers and are therefore not thread-safe, every thread needs its own detector.
+ */
+public interface FaceDetector {
+    /**
+     * Detects faces in the given grayscale frame
+     * @param grayFrame grayscale frame
+     * @return rectangles with faces in the coordinates of the given frame
+     */
+    public Rect[] detect(Mat grayFrame);
+
+    /**
+     * Detects faces in the given region of the grayscale frame, faces reaching over the edges of the region are still found
+     * @param grayFrame grayscale frame
+     * @param region region of the frame to be searched
+     * @return rectangles with faces in the coordinates of the given frame
+     */
+    public Rect[] detect(Mat grayFrame, Rect region);
+
+    /**
+     * Returns the factor frames are scaled by before detection
+     * @return detection scale
+     */
+    public double getDetectionScale();
+
+    /**
+     * Releases the native buffers of the detector
+     */
+    public void release();
+}
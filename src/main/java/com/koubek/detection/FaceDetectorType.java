@@ -0,0 +1,53 @@
+package com.koubek.detection;
+
+import java.util.function.DoubleFunction;
+
+/**
+ * FaceDetectorType serves as a way to choose the face detector implementation at runtime.
+ */
+public enum FaceDetectorType {
+    HAAR("haar", HaarFaceDetector::new),
+    LBP("lbp", LbpFaceDetector::new);
+
+    private final String name;
+    private final DoubleFunction<FaceDetector> factory;
+
+    /**
+     * Constructs a new detector type
+     * @param name name used in the console and program arguments
+     * @param factory creates a detector with the given detection scale
+     */
+    FaceDetectorType(String name, DoubleFunction<FaceDetector> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the name used in the console and program arguments
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Creates a new detector of this type
+     * @param detectionScale factor frames are scaled by before detection, 1 for full resolution
+     * @return detector
+     */
+    public FaceDetector create(double detectionScale) {
+        return factory.apply(detectionScale);
+    }
+
+    /**
+     * Returns the detector type with the given name
+     * @param name name, case insensitive
+     * @return detector type
+     */
+    public static FaceDetectorType fromName(String name) {
+        for (FaceDetectorType type : values()) {
+            if (type.name.equalsIgnoreCase(name)) return type;
+        }
+        throw new IllegalArgumentException("Unknown face detector: " + name + "!");
+    }
+}
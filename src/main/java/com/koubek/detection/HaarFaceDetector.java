@@ -0,0 +1,20 @@
+package com.koubek.detection;
+
+/**
+ * HaarFaceDetector instances detect faces using the bundled Haar cascade, which is the most accurate of the bundled cascades.
+ */
+public class HaarFaceDetector extends CascadeFaceDetector {
+    private static final String CASCADE_PATH = "opencv/haarcascades/haarcascade_frontalface_default.xml";
+    private static final double SCALE_FACTOR = 1.1;
+    private static final int MIN_NEIGHBORS = 2;
+    private static final double MIN_FACE_RATIO = 0.2;
+    private static final double MAX_FACE_RATIO = 0;
+
+    /**
+     * Constructs a new Haar cascade detector
+     * @param detectionScale factor the frame is scaled by before detection, 1 for full resolution
+     */
+    public HaarFaceDetector(double detectionScale) {
+        super(CASCADE_PATH, SCALE_FACTOR, MIN_NEIGHBORS, MIN_FACE_RATIO, MAX_FACE_RATIO, detectionScale);
+    }
+}
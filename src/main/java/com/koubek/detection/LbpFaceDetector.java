@@ -0,0 +1,21 @@
+package com.koubek.detection;
+
+/**
+ * LbpFaceDetector instances detect faces using the bundled LBP cascade, which evaluates integer features and is typically several times faster than the Haar cascade.
+ * LBP cascades produce more loose candidates, so more neighbouring candidates have to agree on a face.
+ */
+public class LbpFaceDetector extends CascadeFaceDetector {
+    private static final String CASCADE_PATH = "opencv/lbpcascades/lbpcascade_frontalface_improved.xml";
+    private static final double SCALE_FACTOR = 1.1;
+    private static final int MIN_NEIGHBORS = 3;
+    private static final double MIN_FACE_RATIO = 0.2;
+    private static final double MAX_FACE_RATIO = 0;
+
+    /**
+     * Constructs a new LBP cascade detector
+     * @param detectionScale factor the frame is scaled by before detection, 1 for full resolution
+     */
+    public LbpFaceDetector(double detectionScale) {
+        super(CASCADE_PATH, SCALE_FACTOR, MIN_NEIGHBORS, MIN_FACE_RATIO, MAX_FACE_RATIO, detectionScale);
+    }
+}
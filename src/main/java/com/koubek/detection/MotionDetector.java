@@ -0,0 +1,82 @@
+package com.koubek.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * MotionDetector instances find the parts of grayscale frames which have changed, so the face detector only has to run where something is happening.
+ * Frames are compared with a running average of the previous frames at a small fixed width, which is cheap enough to run on every frame
+ * and averages out the sensor noise. Changes which persist, like a light being switched on, are gradually absorbed into the background.
+ * Detector instances reuse their buffers and are therefore not thread-safe, every thread needs its own detector.
+ */
+public class MotionDetector {
+    private static final int WIDTH = 80;
+    private static final double LEARNING_RATE = 0.05;
+    private static final double DIFFERENCE_THRESHOLD = 25;
+
+    private final double minChangedRatio;
+
+    private final Mat smallFrame = new Mat();
+    private final Mat floatFrame = new Mat();
+    private final Mat background = new Mat();
+    private final Mat difference = new Mat();
+    private final Mat changedMask = new Mat();
+    private final Mat changedPixels = new Mat();
+
+    /**
+     * Constructs a new motion detector
+     * @param minChangedRatio share of the frame's pixels which has to change for the frame to contain motion, between 0 and 1
+     */
+    public MotionDetector(double minChangedRatio) {
+        if (minChangedRatio < 0 || minChangedRatio > 1) throw new IllegalArgumentException("Changed pixel ratio must be between 0 and 1!");
+        this.minChangedRatio = minChangedRatio;
+    }
+
+    /**
+     * Compares the given frame with the background and adds it to the background
+     * @param grayFrame grayscale frame
+     * @return bounding box of the changed pixels in the coordinates of the given frame, the whole frame for the first frame, null if the frame contains no motion
+     */
+    public Rect detect(Mat grayFrame) {
+        double scale = (double) WIDTH / grayFrame.cols();
+        Imgproc.resize(grayFrame, smallFrame, new Size(WIDTH, Math.max(1, Math.round(grayFrame.rows() * scale))), 0, 0, Imgproc.INTER_AREA);
+        smallFrame.convertTo(floatFrame, CvType.CV_32F);
+        if (background.empty() || !background.size().equals(floatFrame.size())) {
+            floatFrame.copyTo(background);
+            return new Rect(0, 0, grayFrame.cols(), grayFrame.rows());
+        }
+
+        Core.absdiff(floatFrame, background, difference);
+        Imgproc.threshold(difference, difference, DIFFERENCE_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        difference.convertTo(changedMask, CvType.CV_8U);
+        Imgproc.accumulateWeighted(floatFrame, background, LEARNING_RATE);
+
+        int changedCount = Core.countNonZero(changedMask);
+        if (changedCount == 0 || changedCount < minChangedRatio * changedMask.total()) return null;
+        Core.findNonZero(changedMask, changedPixels);
+        return CascadeFaceDetector.scaleRect(Imgproc.boundingRect(changedPixels), 1 / scale, grayFrame.cols(), grayFrame.rows());
+    }
+
+    /**
+     * Forgets the background, so the next frame is compared with nothing and counts as motion in the whole frame
+     */
+    public void reset() {
+        background.release();
+    }
+
+    /**
+     * Releases the native buffers of the detector
+     */
+    public void release() {
+        smallFrame.release();
+        floatFrame.release();
+        background.release();
+        difference.release();
+        changedMask.release();
+        changedPixels.release();
+    }
+}
@@ -0,0 +1,85 @@
+package com.koubek.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Rects contains static helper methods for comparing rectangles of detected faces and for copying the regions of images they enclose.
+ */
+public abstract class Rects {
+    /**
+     * Returns the intersection over union of the given rectangles
+     * @param a first rectangle
+     * @param b second rectangle
+     * @return area of the intersection divided by the area of the union, between 0 and 1
+     */
+    public static double intersectionOverUnion(Rect a, Rect b) {
+        int left = Math.max(a.x, b.x);
+        int top = Math.max(a.y, b.y);
+        int right = Math.min(a.x + a.width, b.x + b.width);
+        int bottom = Math.min(a.y + a.height, b.y + b.height);
+        if (right <= left || bottom <= top) return 0;
+        double intersection = (double) (right - left) * (bottom - top);
+        double union = (double) a.width * a.height + (double) b.width * b.height - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    /**
+     * Returns how many of the reference rectangles are matched by a distinct candidate rectangle with at least the given intersection over union
+     * @param reference reference rectangles
+     * @param candidates candidate rectangles
+     * @param minOverlap minimum intersection over union of a match
+     * @return matched reference rectangle count
+     */
+    public static int countMatches(Rect[] reference, Rect[] candidates, double minOverlap) {
+        boolean[] used = new boolean[candidates.length];
+        int matches = 0;
+        for (Rect rect : reference) {
+            int best = -1;
+            double bestOverlap = minOverlap;
+            for (int i = 0; i < candidates.length; i++) {
+                if (used[i]) continue;
+                double overlap = intersectionOverUnion(rect, candidates[i]);
+                if (overlap >= bestOverlap) {
+                    best = i;
+                    bestOverlap = overlap;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the rectangle clamped to the bounds of an image
+     * @param rect rectangle
+     * @param cols image width
+     * @param rows image height
+     * @return clamped rectangle, with a width or height of 0 if it lies outside of the image
+     */
+    public static Rect clamp(Rect rect, int cols, int rows) {
+        int x = Math.max(0, Math.min(cols, rect.x));
+        int y = Math.max(0, Math.min(rows, rect.y));
+        int right = Math.max(x, Math.min(cols, rect.x + rect.width));
+        int bottom = Math.max(y, Math.min(rows, rect.y + rect.height));
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    /**
+     * Copies the given region of the source image into the destination buffer, reusing the buffer's memory if it is large enough.
+     * Unlike {@link Mat#submat(Rect)}, this does not allocate a new native matrix header.
+     * @param source source image
+     * @param region region to be copied
+     * @param destination destination buffer
+     */
+    public static void copyRegion(Mat source, Rect region, Mat destination) {
+        Imgproc.getRectSubPix(source, new Size(region.width, region.height),
+                new Point(region.x + (region.width - 1) * 0.5, region.y + (region.height - 1) * 0.5), destination);
+    }
+}
@@ -0,0 +1,233 @@
+package com.koubek.enrollment;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+import com.koubek.detection.Rects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enrollment instances collect the face images of a person being enrolled with bounded memory, however long the enrollment runs.
+ * A pipeline stage only copies the face out of the frame into one of a few preallocated buffers. The enrollment thread then scales the face
+ * to a fixed sample size and appends it to a spool file, so the samples are kept on disk instead of in memory.
+ * Faces arriving while every buffer is still waiting for the enrollment thread are dropped.
+ * When the enrollment is finished, at most a fixed number of samples spread evenly over the whole enrollment is read back.
+ */
+public class Enrollment {
+    /**
+     * Width and height of every sample
+     */
+    public static final int SAMPLE_SIZE = 128;
+    /**
+     * Maximum number of samples returned when the enrollment is finished
+     */
+    public static final int MAX_SAMPLES = 500;
+
+    private static final int SAMPLE_BYTES = SAMPLE_SIZE * SAMPLE_SIZE;
+    private static final int BUFFER_COUNT = 4;
+    private static final ExecutorService enrollmentExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "enrollment");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path spoolFile;
+    private final FileChannel spool;
+    private final ArrayBlockingQueue<Mat> freeBuffers = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    // Only used on the enrollment thread
+    private final Mat sample = new Mat(SAMPLE_SIZE, SAMPLE_SIZE, CvType.CV_8UC1);
+    private final byte[] sampleBytes = new byte[SAMPLE_BYTES];
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private volatile boolean closed = false;
+    // Only used on the enrollment thread
+    private boolean released = false;
+
+    /**
+     * Starts a new enrollment with an empty spool file in the temporary directory
+     * @throws IOException in case the spool file could not be created
+     */
+    public Enrollment() throws IOException {
+        spoolFile = Files.createTempFile("enrollment", ".spool");
+        spoolFile.toFile().deleteOnExit();
+        spool = FileChannel.open(spoolFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            freeBuffers.add(new Mat());
+        }
+    }
+
+    /**
+     * Scales a face image to the sample size.
+     * Faces must be recognized at the size they were enrolled at, as the local binary patterns and therefore the distances depend on the scale of the face.
+     * @param face face image
+     * @param sample destination buffer
+     */
+    public static void scaleSample(Mat face, Mat sample) {
+        // Area interpolation averages the pixels of large faces instead of skipping them, which keeps the texture the local binary patterns describe
+        Imgproc.resize(face, sample, new Size(SAMPLE_SIZE, SAMPLE_SIZE), 0, 0, Imgproc.INTER_AREA);
+    }
+
+    /**
+     * Copies the face out of the given image and scales it to the sample size, like enrollment does with every face
+     * @param image grayscale image
+     * @param face region of the face
+     * @param region buffer the face is copied into before it is scaled
+     * @param sample destination buffer
+     */
+    public static void copySample(Mat image, Rect face, Mat region, Mat sample) {
+        Rects.copyRegion(image, face, region);
+        scaleSample(region, sample);
+    }
+
+    /**
+     * Copies the face out of the given image and hands it to the enrollment thread. Returns immediately.
+     * @param gray grayscale image, which may be reused as soon as this method returns
+     * @param face region of the face
+     * @return false if the face was dropped because the enrollment thread has fallen behind or the enrollment is finished
+     */
+    public boolean offer(Mat gray, Rect face) {
+        Mat buffer = closed ? null : freeBuffers.poll();
+        if (buffer == null) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        Rects.copyRegion(gray, face, buffer);
+        enrollmentExecutor.execute(() -> {
+            try {
+                if (!closed && !buffer.empty()) spoolSample(buffer);
+            } catch (IOException e) {
+                Log.printMessage("Unable to spool enrollment sample: " + e.getMessage(), MessageType.ERROR);
+            } finally {
+                // A face offered while the enrollment was being cancelled may arrive after the buffers were released
+                if (released) buffer.release();
+                else freeBuffers.add(buffer);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Scales a face to the sample size and appends it to the spool file, must be called on the enrollment thread
+     * @param face face image
+     * @throws IOException in case the sample could not be written
+     */
+    private void spoolSample(Mat face) throws IOException {
+        scaleSample(face, sample);
+        sample.get(0, 0, sampleBytes);
+        ByteBuffer buffer = ByteBuffer.wrap(sampleBytes);
+        while (buffer.hasRemaining()) {
+            spool.write(buffer);
+        }
+        sampleCount.incrementAndGet();
+    }
+
+    /**
+     * Waits for the enrollment thread to spool every offered face, then reads the samples back and deletes the spool file.
+     * If more than {@link #MAX_SAMPLES} samples were spooled, samples evenly spaced over the whole enrollment are returned.
+     * @return samples in the order they were captured
+     * @throws IOException in case the samples could not be read
+     */
+    public LinkedList<Mat> finish() throws IOException {
+        Future<LinkedList<Mat>> samples = enrollmentExecutor.submit(() -> {
+            closed = true;
+            try {
+                return readSamples();
+            } finally {
+                release();
+            }
+        });
+        try {
+            return samples.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing enrollment", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException("Unable to finish enrollment", e.getCause());
+        }
+    }
+
+    /**
+     * Discards the enrollment and deletes the spool file without waiting
+     */
+    public void cancel() {
+        closed = true;
+        enrollmentExecutor.execute(this::release);
+    }
+
+    /**
+     * Reads the spooled samples, must be called on the enrollment thread
+     * @return samples
+     * @throws IOException in case the samples could not be read
+     */
+    private LinkedList<Mat> readSamples() throws IOException {
+        int count = sampleCount.get();
+        LinkedList<Mat> samples = new LinkedList<>();
+        double step = Math.max(1, count / (double) MAX_SAMPLES);
+        for (double position = 0; position < count && samples.size() < MAX_SAMPLES; position += step) {
+            ByteBuffer buffer = ByteBuffer.wrap(sampleBytes);
+            long offset = (long) position * SAMPLE_BYTES;
+            while (buffer.hasRemaining()) {
+                if (spool.read(buffer, offset + buffer.position()) < 0) throw new IOException("Enrollment spool " + spoolFile + " is truncated!");
+            }
+            Mat mat = new Mat(SAMPLE_SIZE, SAMPLE_SIZE, CvType.CV_8UC1);
+            mat.put(0, 0, sampleBytes);
+            samples.add(mat);
+        }
+        Log.printMessage("Enrollment finished: " + count + " samples spooled, " + samples.size() + " used, " + droppedCount.get() + " dropped", MessageType.INFO);
+        return samples;
+    }
+
+    /**
+     * Closes and deletes the spool file and releases the buffers, must be called on the enrollment thread
+     */
+    private void release() {
+        if (released) return;
+        released = true;
+        try {
+            spool.close();
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            Log.printMessage("Unable to delete enrollment spool " + spoolFile + ": " + e.getMessage(), MessageType.WARNING);
+        }
+        sample.release();
+        Mat buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Returns the number of samples spooled so far
+     * @return sample count
+     */
+    public int getSampleCount() {
+        return sampleCount.get();
+    }
+
+    /**
+     * Returns the number of faces dropped because the enrollment thread had fallen behind
+     * @return dropped face count
+     */
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,252 @@
+package com.koubek.evaluation;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Application;
+import com.koubek.Camera;
+import com.koubek.Detection;
+import com.koubek.Person;
+import com.koubek.Recognizer;
+import com.koubek.detection.FaceDetector;
+import com.koubek.enrollment.Enrollment;
+import com.koubek.pipeline.Frame;
+import com.koubek.source.ImageDirectoryFrameSource;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * RecognitionEvaluation measures how accurately and how fast the current settings recognize the people of a labeled face dataset, so performance changes can prove they do not cost accuracy.
+ * The dataset has a directory of images for every person. The first part of every person's images trains a recognizer the way enrollment does,
+ * the rest are replayed through a camera, which detects and recognizes them like live frames. Every fifth person is not enrolled, their images are attempts by unknown people.
+ * Every attempt is judged by the largest face found in its image. The report shows the false accept and false reject rates over the confidence thresholds,
+ * the top-1 accuracy, and the camera's per-stage latencies and frame rate.
+ * Faces are detected in every test image and never reuse the recognition result of a previous image, as tracking makes no sense across unrelated images.
+ */
+public class RecognitionEvaluation {
+    private static final double DEFAULT_TRAIN_SHARE = 0.5;
+    private static final int UNKNOWN_PERSON_INTERVAL = 5;
+    private static final int THRESHOLD_STEPS = 20;
+
+    /**
+     * Runs the evaluation given by the program arguments and prints the report
+     * @param args dataset path, optionally followed by the share of every person's images used for training
+     * @param out output the report is printed to
+     */
+    public static void run(String[] args, PrintStream out) {
+        if (args.length < 1) {
+            out.println("Usage: evaluate <dataset directory> [train share]");
+            return;
+        }
+        double trainShare = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_TRAIN_SHARE;
+        if (trainShare <= 0 || trainShare >= 1) throw new IllegalArgumentException("Train share must be between 0 and 1!");
+
+        File[] personDirectories = new File(args[0]).listFiles(File::isDirectory);
+        if (personDirectories == null || personDirectories.length == 0) throw new RuntimeException("The dataset contains no person directories: " + args[0]);
+        Arrays.sort(personDirectories);
+
+        Recognizer recognizer = new Recognizer();
+        FaceDetector detector = Application.getFaceDetectorType().create(Application.getDetectionScale());
+        ArrayList<File> testFiles = new ArrayList<>();
+        ArrayList<String> truths = new ArrayList<>();
+        int enrolledCount = 0;
+        int unknownCount = 0;
+        int trainFaceCount = 0;
+        int trainImageCount = 0;
+        long trainStart = System.nanoTime();
+        for (int i = 0; i < personDirectories.length; i++) {
+            File[] images = personDirectories[i].listFiles(file -> file.isFile() && ImageDirectoryFrameSource.isImage(file.getName()));
+            if (images == null || images.length == 0) continue;
+            Arrays.sort(images);
+            String name = personDirectories[i].getName();
+            if (i % UNKNOWN_PERSON_INTERVAL == UNKNOWN_PERSON_INTERVAL - 1) {
+                for (File image : images) {
+                    testFiles.add(image);
+                    truths.add(null);
+                }
+                unknownCount++;
+                continue;
+            }
+            if (images.length < 2) continue;
+            int trainCount = Math.min(images.length - 1, Math.max(1, (int) Math.round(images.length * trainShare)));
+            LinkedList<Mat> samples = loadSamples(detector, Arrays.copyOfRange(images, 0, trainCount));
+            trainImageCount += trainCount;
+            trainFaceCount += samples.size();
+            if (samples.isEmpty()) continue;
+            recognizer.addPerson(samples, new Person(name, true));
+            for (Mat sample : samples) {
+                sample.release();
+            }
+            for (int j = trainCount; j < images.length; j++) {
+                testFiles.add(images[j]);
+                truths.add(name);
+            }
+            enrolledCount++;
+        }
+        detector.release();
+        double trainSeconds = (System.nanoTime() - trainStart) / 1e9;
+        if (enrolledCount == 0 || testFiles.isEmpty()) throw new RuntimeException("The dataset needs at least one person with two images!");
+
+        out.println("Recognition evaluation: " + args[0]);
+        out.println("Enrolled " + enrolledCount + " people from " + trainFaceCount + " faces in " + trainImageCount + " images in "
+                + String.format("%.2f", trainSeconds) + "s, " + unknownCount + " unknown people");
+        out.println("Test attempts: " + testFiles.size() + ", face detector: " + Application.getFaceDetectorType().getName() + ", detection scale: " + Application.getDetectionScale()
+                + ", configured max confidence: " + Application.getMaxConfidence());
+
+        Detection[] results = new Detection[testFiles.size()];
+        boolean[] found = new boolean[testFiles.size()];
+        int maxConfidence = Application.getMaxConfidence();
+        int detectionInterval = Application.getDetectionInterval();
+        int cacheLifetime = Application.getRecognitionCacheLifetime();
+        Camera camera = null;
+        try {
+            // Every face keeps its closest person regardless of the confidence, the thresholds are applied below
+            Application.setMaxConfidence(Integer.MAX_VALUE);
+            Application.setDetectionInterval(1);
+            Application.setRecognitionCacheLifetime(0);
+            camera = new Camera(new ImageDirectoryFrameSource("evaluation test split", testFiles, false, false), Camera.MAX_RATE);
+            camera.setRecognizer(recognizer);
+            double fps = camera.replay(0, frame -> {
+                int attempt = (int) frame.getSequence();
+                found[attempt] = frame.getFaces().length > 0;
+                results[attempt] = getLargestFace(frame);
+            });
+            out.println();
+            out.println(camera.getStats().getReport());
+            out.println(String.format("Replay frame rate: %.2f fps", fps));
+        } finally {
+            Application.setMaxConfidence(maxConfidence);
+            Application.setDetectionInterval(detectionInterval);
+            Application.setRecognitionCacheLifetime(cacheLifetime);
+            if (camera != null) camera.shutdown();
+            recognizer.close();
+        }
+        printAccuracy(results, found, truths, maxConfidence, out);
+    }
+
+    /**
+     * Detects the largest face in every image and scales it like enrollment does
+     * @param detector face detector
+     * @param images image files
+     * @return enrollment samples, images without a face have none
+     */
+    private static LinkedList<Mat> loadSamples(FaceDetector detector, File[] images) {
+        LinkedList<Mat> samples = new LinkedList<>();
+        Mat image = new Mat();
+        Mat grayFrame = new Mat();
+        Mat face = new Mat();
+        for (File file : images) {
+            image.release();
+            image = Imgcodecs.imread(file.getPath());
+            if (image.empty()) continue;
+            Imgproc.cvtColor(image, grayFrame, Imgproc.COLOR_BGR2GRAY);
+            Rect largest = null;
+            for (Rect rect : detector.detect(grayFrame)) {
+                if (largest == null || rect.area() > largest.area()) largest = rect;
+            }
+            if (largest == null) continue;
+            Mat sample = new Mat();
+            Enrollment.copySample(grayFrame, largest, face, sample);
+            samples.add(sample);
+        }
+        image.release();
+        grayFrame.release();
+        face.release();
+        return samples;
+    }
+
+    /**
+     * Returns the recognition result of the largest face in the processed frame
+     * @param frame processed frame
+     * @return detection, null if the frame contains no face or the face could not be matched with anybody
+     */
+    private static Detection getLargestFace(Frame frame) {
+        Rect[] faces = frame.getFaces();
+        Detection[] detections = frame.getDetections();
+        int largest = -1;
+        for (int i = 0; i < faces.length; i++) {
+            if (largest < 0 || faces[i].area() > faces[largest].area()) largest = i;
+        }
+        if (largest < 0 || detections[largest].getPerson() == Recognizer.UNRECOGNIZED.getPerson()) return null;
+        return detections[largest];
+    }
+
+    /**
+     * Prints the top-1 accuracy and the false accept and false reject rates over the confidence thresholds.
+     * An attempt is accepted below a threshold if its largest face is closer to its closest person than the threshold.
+     * A false accept is an attempt accepted as a person it is not, a false reject is an attempt of an enrolled person not accepted as that person.
+     * @param results detection of the largest face of every attempt, null for attempts without a matched face
+     * @param found whether a face was found in every attempt
+     * @param truths name of the person of every attempt, null for unknown people
+     * @param configuredThreshold the configured max confidence
+     * @param out output
+     */
+    private static void printAccuracy(Detection[] results, boolean[] found, ArrayList<String> truths, int configuredThreshold, PrintStream out) {
+        int genuineCount = 0;
+        int detectedCount = 0;
+        int correctCount = 0;
+        double maxDistance = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (found[i]) detectedCount++;
+            if (results[i] != null) maxDistance = Math.max(maxDistance, results[i].getConfidence());
+            if (truths.get(i) == null) continue;
+            genuineCount++;
+            if (results[i] != null && results[i].getPerson().getName().equals(truths.get(i))) correctCount++;
+        }
+        out.println();
+        out.println(String.format("Faces found in %d of %d attempts (%.3f)", detectedCount, results.length, detectedCount / (double) results.length));
+        out.println(String.format("Top-1 accuracy of enrolled people: %.3f (%d of %d attempts)", genuineCount > 0 ? correctCount / (double) genuineCount : 0, correctCount, genuineCount));
+
+        out.println(String.format("%12s %10s %10s", "threshold", "FAR", "FRR"));
+        double step = Math.ceil(maxDistance / THRESHOLD_STEPS);
+        for (int i = 1; i <= THRESHOLD_STEPS && step > 0; i++) {
+            double[] rates = getErrorRates(results, truths, i * step);
+            out.println(String.format("%12.1f %10.4f %10.4f", i * step, rates[0], rates[1]));
+        }
+        double[] configured = getErrorRates(results, truths, configuredThreshold);
+        out.println(String.format("%12d %10.4f %10.4f (configured)", configuredThreshold, configured[0], configured[1]));
+
+        // The rates only change at the distances of the attempts, so the equal error rate is found among them
+        double bestThreshold = 0;
+        double[] best = getErrorRates(results, truths, 0);
+        for (Detection result : results) {
+            if (result == null) continue;
+            double threshold = Math.nextUp(result.getConfidence());
+            double[] rates = getErrorRates(results, truths, threshold);
+            if (Math.abs(rates[0] - rates[1]) < Math.abs(best[0] - best[1])) {
+                best = rates;
+                bestThreshold = threshold;
+            }
+        }
+        out.println(String.format("Equal error rate: %.4f FAR, %.4f FRR at threshold %.1f", best[0], best[1], bestThreshold));
+    }
+
+    /**
+     * Returns the false accept rate over all attempts and the false reject rate over the attempts of enrolled people at the given threshold
+     * @param results detection of the largest face of every attempt, null for attempts without a matched face
+     * @param truths name of the person of every attempt, null for unknown people
+     * @param threshold attempts closer than the threshold are accepted
+     * @return false accept rate and false reject rate
+     */
+    private static double[] getErrorRates(Detection[] results, ArrayList<String> truths, double threshold) {
+        int genuineCount = 0;
+        int falseAccepts = 0;
+        int falseRejects = 0;
+        for (int i = 0; i < results.length; i++) {
+            String truth = truths.get(i);
+            boolean accepted = results[i] != null && results[i].getConfidence() < threshold;
+            boolean correct = results[i] != null && results[i].getPerson().getName().equals(truth);
+            if (accepted && !correct) falseAccepts++;
+            if (truth == null) continue;
+            genuineCount++;
+            if (!accepted || !correct) falseRejects++;
+        }
+        return new double[] {falseAccepts / (double) results.length, genuineCount > 0 ? falseRejects / (double) genuineCount : 0};
+    }
+}
@@ -31,7 +31,7 @@ public class DigitalOutputDevice implements IDevice {
         this.blink = signalingDevice;
         output = GPIOManager.getContext().dout().create(address);
         output.config().shutdownState(DigitalState.LOW);
-        GPIOManager.setState(false);
+        output.state(DigitalState.LOW);
     }
 
     /**
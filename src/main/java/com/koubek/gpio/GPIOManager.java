@@ -1,22 +1,30 @@
 package com.koubek.gpio;
 
-import java.io.NotActiveException;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.swing.Timer;
 
 import com.pi4j.Pi4J;
 import com.pi4j.context.Context;
-import com.pi4j.exception.InitializeException;
 
 /**
- * GPIO manager serves as a way to statically manage all GPIO devices
+ * GPIO manager serves as a way to statically manage all GPIO devices.
+ * Every device is bound either to a single camera or to all cameras. A device bound to a single camera follows only that camera's state,
+ * a device bound to all cameras is enabled while any camera is enabled and only blinks once every enabled camera is about to be disabled.
  */
 public abstract class GPIOManager {
+    /**
+     * Camera ID of devices which are bound to all cameras
+     */
+    public static final int ALL_CAMERAS = -1;
+
     private static Context pi4j;
-    private static LinkedList<IDevice> devices = new LinkedList<>();
+    private static final LinkedHashMap<IDevice, Integer> devices = new LinkedHashMap<>();
+    private static final HashSet<Integer> enabledCameras = new HashSet<>();
+    private static final HashSet<Integer> blinkingCameras = new HashSet<>();
     private static Timer blinkingTimer;
-    private static boolean currentState;
 
     /**
      * Initializes the GPIO manager
@@ -25,19 +33,31 @@ public abstract class GPIOManager {
         pi4j = Pi4J.newAutoContext();
         System.out.println();
         blinkingTimer = new Timer(250, e -> {
-            for (IDevice device : devices) {
-                if (device.isBlinkingDevice()) device.setState(!device.getState());
+            synchronized (GPIOManager.class) {
+                for (Map.Entry<IDevice, Integer> entry : devices.entrySet()) {
+                    IDevice device = entry.getKey();
+                    if (device.isBlinkingDevice() && isBlinking(entry.getValue())) device.setState(!device.getState());
+                }
             }
         } );
     }
 
     /**
-     * Adds a new GPIO device to the manager.
+     * Adds a new GPIO device bound to all cameras to the manager.
      * @param device GPIO device
      */
     public static void addDevice(IDevice device) {
+        addDevice(device, ALL_CAMERAS);
+    }
+
+    /**
+     * Adds a new GPIO device bound to the given camera to the manager.
+     * @param device GPIO device
+     * @param camera ID of the camera whose state the device follows, {@link #ALL_CAMERAS} to follow all cameras
+     */
+    public static synchronized void addDevice(IDevice device, int camera) {
         if (pi4j == null) throw new RuntimeException("Pi4J has not been initialized!");
-        devices.add(device);
+        devices.put(device, camera);
     }
 
     /**
@@ -51,38 +71,106 @@ public abstract class GPIOManager {
     }
 
     /**
-     * Sets the state of all added GPIO devices
+     * Sets the state of the given camera and of all GPIO devices following it
+     * @param camera camera ID
      * @param newState the new state
      */
-    public static void setState(boolean newState) {
+    public static synchronized void setState(int camera, boolean newState) {
         if (pi4j == null) throw new RuntimeException("Pi4J has not been initialized!");
-        currentState = newState;
-        for (IDevice device : devices) {
-            device.setState(newState);
+        if (newState) {
+            enabledCameras.add(camera);
+        } else {
+            enabledCameras.remove(camera);
         }
+        updateDevices(camera);
     }
 
     /**
-     * Sets whether signaling devices should be signaling
-     * @param signal
+     * Sets whether the signaling devices following the given camera should be signaling
+     * @param camera camera ID
+     * @param signal signal
      */
-    public static void setBlinkDevices(boolean signal) {
+    public static synchronized void setBlinkDevices(int camera, boolean signal) {
         if (signal) {
-             blinkingTimer.start();
+            blinkingCameras.add(camera);
+            blinkingTimer.start();
         } else {
-            for (IDevice device : devices) {
-                device.setState(currentState);
-            }
-            blinkingTimer.stop();
+            blinkingCameras.remove(camera);
+            updateDevices(camera);
+            if (blinkingCameras.isEmpty()) blinkingTimer.stop();
         }
     }
 
+    /**
+     * Disables the given camera, which is being removed, and all GPIO devices following it
+     * @param camera camera ID
+     */
+    public static synchronized void removeCamera(int camera) {
+        enabledCameras.remove(camera);
+        blinkingCameras.remove(camera);
+        if (pi4j == null) return;
+        updateDevices(camera);
+        if (blinkingCameras.isEmpty()) blinkingTimer.stop();
+    }
+
+    /**
+     * Sets every device following the given camera to the state of the cameras it is bound to, must be called while holding the manager's lock
+     * @param camera camera ID
+     */
+    private static void updateDevices(int camera) {
+        for (Map.Entry<IDevice, Integer> entry : devices.entrySet()) {
+            int boundCamera = entry.getValue();
+            if (boundCamera != ALL_CAMERAS && boundCamera != camera) continue;
+            if (entry.getKey().isBlinkingDevice() && isBlinking(boundCamera)) continue;
+            entry.getKey().setState(isEnabled(boundCamera));
+        }
+    }
+
+    /**
+     * Returns whether the devices bound to the given camera are enabled, must be called while holding the manager's lock
+     * @param boundCamera camera ID, or {@link #ALL_CAMERAS}
+     * @return enabled
+     */
+    private static boolean isEnabled(int boundCamera) {
+        return boundCamera == ALL_CAMERAS ? !enabledCameras.isEmpty() : enabledCameras.contains(boundCamera);
+    }
+
+    /**
+     * Returns whether the signaling devices bound to the given camera are signaling, must be called while holding the manager's lock
+     * @param boundCamera camera ID, or {@link #ALL_CAMERAS}
+     * @return blinking
+     */
+    private static boolean isBlinking(int boundCamera) {
+        if (boundCamera != ALL_CAMERAS) return blinkingCameras.contains(boundCamera);
+        return !blinkingCameras.isEmpty() && blinkingCameras.containsAll(enabledCameras);
+    }
+
+    /**
+     * Returns the number of GPIO devices bound to the given camera
+     * @param camera camera ID, or {@link #ALL_CAMERAS}
+     * @return device count
+     */
+    public static synchronized int getDeviceCount(int camera) {
+        int count = 0;
+        for (int boundCamera : devices.values()) {
+            if (boundCamera == camera) count++;
+        }
+        return count;
+    }
+
     /**
      * Shuts down the GPIO manager
      */
     public static void shutdown() {
         if (pi4j != null) {
-            setState(false);
+            synchronized (GPIOManager.class) {
+                enabledCameras.clear();
+                blinkingCameras.clear();
+                blinkingTimer.stop();
+                for (IDevice device : devices.keySet()) {
+                    device.setState(false);
+                }
+            }
             try {
                 Thread.sleep(3000);
             } catch (Exception e) {}
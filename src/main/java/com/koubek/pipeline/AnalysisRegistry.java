@@ -0,0 +1,60 @@
+package com.koubek.pipeline;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * AnalysisRegistry instances hold the optional analyses of a pipeline's frames.
+ * Its {@link #analyzeSubscribed(Frame)} method serves as the pipeline stage computing the subscribed analyses, which does nothing while no analysis has subscribers.
+ */
+public class AnalysisRegistry {
+    private final CopyOnWriteArrayList<FrameAnalysis<?>> analyses = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a new analysis
+     * @param <T> result type
+     * @param name analysis name
+     * @param analyzer the work done on a frame
+     * @return analysis
+     */
+    public synchronized <T> FrameAnalysis<T> register(String name, FrameAnalyzer<T> analyzer) {
+        if (get(name) != null) throw new IllegalArgumentException("Analysis " + name + " is already registered!");
+        FrameAnalysis<T> analysis = new FrameAnalysis<>(name, analyses.size(), analyzer);
+        analyses.add(analysis);
+        return analysis;
+    }
+
+    /**
+     * Returns the analysis with the given name
+     * @param name analysis name
+     * @return analysis, null if no analysis has the name
+     */
+    public FrameAnalysis<?> get(String name) {
+        for (FrameAnalysis<?> analysis : analyses) {
+            if (analysis.getName().equals(name)) return analysis;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether any of the analyses has subscribers
+     * @return subscribed
+     */
+    public boolean hasSubscribers() {
+        for (FrameAnalysis<?> analysis : analyses) {
+            if (analysis.isSubscribed()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes every analysis which has subscribers for the given frame
+     * @param frame frame
+     * @return always true, the frame is passed on
+     */
+    public boolean analyzeSubscribed(Frame frame) {
+        for (FrameAnalysis<?> analysis : analyses) {
+            if (analysis.isSubscribed()) analysis.get(frame);
+        }
+        return true;
+    }
+}
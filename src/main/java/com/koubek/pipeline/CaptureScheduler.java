@@ -0,0 +1,223 @@
+package com.koubek.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CaptureScheduler instances decide when a pipeline captures its next frame.
+ * While faces are being seen, frames are captured at the maximum rate, unless the pipeline cannot keep up with it.
+ * Frames taking longer than the latency budget to pass through the pipeline make the capture interval grow,
+ * frames finishing more slowly than they are captured make it match the rate the pipeline finishes frames at, as the surplus frames would only be dropped by its queues.
+ * The interval shrinks back towards the maximum rate once the pipeline keeps up again.
+ * When no face has been seen for the idle delay, frames are only captured at the idle rate.
+ * The first face seen in idle mode immediately wakes the capture stage, so the next frame is captured at the maximum rate without waiting out the idle interval.
+ */
+public class CaptureScheduler {
+    // How much the active capture interval grows when frames exceed the latency budget, and how much it shrinks once they are well within it
+    private static final double BACK_OFF_FACTOR = 1.5;
+    private static final double RECOVERY_FACTOR = 0.9;
+    // Frames faster than this share of the latency budget let the capture interval shrink
+    private static final double RECOVERY_THRESHOLD = 0.8;
+    // Weight of the newest frame in the smoothed latency
+    private static final double SMOOTHING = 0.2;
+
+    private final long minPeriod;
+    private final long maxPeriod;
+    private final long idlePeriod;
+    private final long idleDelay;
+    private final long latencyBudget;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition woken = lock.newCondition();
+
+    // Guarded by the lock
+    private long activePeriod;
+    private long smoothedLatency = 0;
+    private long lastFinish = 0;
+    private long lastSequence = -1;
+    private long lastBackOff;
+    private long lastFaceTime;
+    private long lastCapture;
+
+    /**
+     * Constructs a new scheduler which always captures frames at the given rate
+     * @param captureRate frames per second, 0 or less to capture as fast as possible
+     * @return scheduler
+     */
+    public static CaptureScheduler fixed(int captureRate) {
+        return new CaptureScheduler(captureRate, captureRate, 0, 0);
+    }
+
+    /**
+     * Constructs a new capture scheduler
+     * @param maxRate frames per second while faces are being seen, 0 or less to capture as fast as possible
+     * @param idleRate frames per second while no faces are being seen, at most the max rate
+     * @param idleDelayMillis how long no face has to be seen to switch to the idle rate in milliseconds, 0 to never switch
+     * @param latencyBudgetMillis how long a frame may take to pass through the pipeline in milliseconds, 0 to never lower the rate because of slow frames
+     */
+    public CaptureScheduler(int maxRate, int idleRate, long idleDelayMillis, long latencyBudgetMillis) {
+        if (idleDelayMillis < 0) throw new IllegalArgumentException("Idle delay must not be negative!");
+        if (latencyBudgetMillis < 0) throw new IllegalArgumentException("Latency budget must not be negative!");
+        this.minPeriod = toPeriod(maxRate);
+        this.idlePeriod = Math.max(minPeriod, toPeriod(idleRate));
+        this.idleDelay = TimeUnit.MILLISECONDS.toNanos(idleDelayMillis);
+        this.latencyBudget = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+        // Capturing one frame per latency budget keeps up with any pipeline able to meet the budget at all
+        this.maxPeriod = Math.max(idlePeriod, latencyBudget);
+        this.activePeriod = minPeriod;
+        long now = System.nanoTime();
+        this.lastFaceTime = now;
+        this.lastCapture = now;
+        this.lastBackOff = now;
+    }
+
+    /**
+     * Returns the interval between two frames captured at the given rate
+     * @param rate frames per second, 0 or less for no interval
+     * @return interval in nanoseconds
+     */
+    private static long toPeriod(int rate) {
+        return rate > 0 ? 1_000_000_000L / rate : 0;
+    }
+
+    /**
+     * Waits until the next frame is due, called by the capture stage after every captured frame.
+     * Frames are captured at a steady rate, unless capturing falls behind, in which case the next frame is captured right away.
+     * @throws InterruptedException in case the thread was interrupted while waiting
+     */
+    void awaitNextCapture() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long nextCapture = lastCapture + getPeriod(now);
+                if (nextCapture - now <= 0) {
+                    lastCapture = nextCapture - now < 0 ? now : nextCapture;
+                    return;
+                }
+                // A face seen in the meantime shortens the interval and wakes the stage
+                if (woken.awaitNanos(nextCapture - now) <= 0) {
+                    lastCapture = nextCapture;
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records whether a frame contains faces, called by the stage which finds them.
+     * The first face seen in idle mode switches to the maximum rate.
+     * @param faceCount number of faces in the frame
+     */
+    public void facesSeen(int faceCount) {
+        if (faceCount == 0 || idleDelay == 0) return;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            boolean idle = isIdle(now);
+            lastFaceTime = now;
+            if (idle) {
+                // Frames finished in idle mode say nothing about how fast the pipeline can finish frames
+                activePeriod = minPeriod;
+                lastFinish = 0;
+                woken.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records how long a frame took to pass through the pipeline, called by the stage which finishes frames.
+     * The active capture interval grows while the smoothed latency exceeds the budget and shrinks back once frames are well within it.
+     * Because of the latency, frames captured before the interval last grew cannot show the effect yet, so it only grows once per smoothed latency.
+     * If frames have been dropped since the previous finished frame, the pipeline has been busy all along,
+     * so the time since the previous finished frame is how long the pipeline needs per frame and the interval grows to at least that.
+     * @param latencyNanos time from the frame's capture until it was finished in nanoseconds
+     * @param sequence the frame's sequence number
+     */
+    public void frameFinished(long latencyNanos, long sequence) {
+        if (latencyBudget == 0) return;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            smoothedLatency = smooth(smoothedLatency, latencyNanos);
+            boolean dropped = lastFinish != 0 && sequence > lastSequence + 1;
+            long interval = now - lastFinish;
+            lastFinish = now;
+            lastSequence = sequence;
+            // Intervals shorter than a tenth of the budget make no difference to the latency, a pipeline capturing as fast as possible backs off from there
+            long shortestPeriod = latencyBudget / 10;
+            if (smoothedLatency > latencyBudget) {
+                if (now - lastBackOff > smoothedLatency) {
+                    activePeriod = Math.min(maxPeriod, (long) (Math.max(activePeriod, shortestPeriod) * BACK_OFF_FACTOR));
+                    lastBackOff = now;
+                }
+            } else if (dropped) {
+                activePeriod = Math.min(maxPeriod, Math.max(activePeriod, interval));
+            } else if (smoothedLatency < RECOVERY_THRESHOLD * latencyBudget && activePeriod > minPeriod) {
+                activePeriod = (long) (activePeriod * RECOVERY_FACTOR);
+                if (activePeriod < Math.max(minPeriod, shortestPeriod)) activePeriod = minPeriod;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the exponentially smoothed value after the given sample
+     * @param smoothed smoothed value, 0 if there have been no samples yet
+     * @param sample sample
+     * @return smoothed value
+     */
+    private static long smooth(long smoothed, long sample) {
+        return smoothed == 0 ? sample : (long) (SMOOTHING * sample + (1 - SMOOTHING) * smoothed);
+    }
+
+    /**
+     * Returns whether no face has been seen for the idle delay, must be called while holding the lock
+     * @param now current time
+     * @return idle
+     */
+    private boolean isIdle(long now) {
+        return idleDelay > 0 && now - lastFaceTime > idleDelay;
+    }
+
+    /**
+     * Returns the current capture interval, must be called while holding the lock
+     * @param now current time
+     * @return interval in nanoseconds
+     */
+    private long getPeriod(long now) {
+        return isIdle(now) ? Math.max(idlePeriod, activePeriod) : activePeriod;
+    }
+
+    /**
+     * Returns whether frames are currently captured at the idle rate
+     * @return idle
+     */
+    public boolean isIdle() {
+        lock.lock();
+        try {
+            return isIdle(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the rate frames are currently captured at
+     * @return frames per second, 0 if frames are captured as fast as possible
+     */
+    public double getCaptureRate() {
+        lock.lock();
+        try {
+            long period = getPeriod(System.nanoTime());
+            return period > 0 ? 1e9 / period : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.koubek.pipeline;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+
+/**
+ * CaptureStage threads take frames from the pipeline's frame pool, fill them using the capture processor and feed them into the pipeline at the rate decided by the pipeline's scheduler.
+ */
+class CaptureStage extends Thread {
+    private final FramePool pool;
+    private final FrameProcessor capture;
+    private final FrameQueue output;
+    private final CaptureScheduler scheduler;
+
+    /**
+     * Constructs a new capture stage
+     * @param pipeline the pipeline the stage belongs to
+     * @param capture fills new frames, returns false once there are no more frames, frames it fails to fill with an exception are skipped
+     * @param output the queue of the first processing stage
+     * @param scheduler decides when the next frame is captured
+     */
+    CaptureStage(Pipeline pipeline, FrameProcessor capture, FrameQueue output, CaptureScheduler scheduler) {
+        super(pipeline.getName() + "-capture");
+        this.pool = pipeline.getFramePool();
+        this.capture = capture;
+        this.output = output;
+        this.scheduler = scheduler;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long sequence = 0;
+        try {
+            while (!isInterrupted()) {
+                Frame frame = pool.acquire(sequence++);
+                boolean captured;
+                try {
+                    captured = capture.process(frame);
+                } catch (Exception e) {
+                    // A single failed capture must not stop a live camera, the next capture is attempted at the usual rate
+                    Log.printMessage(getName() + ": " + e.getMessage(), MessageType.ERROR);
+                    frame.release();
+                    scheduler.awaitNextCapture();
+                    continue;
+                }
+                if (!captured || !output.offer(frame)) {
+                    frame.release();
+                    break;
+                }
+                scheduler.awaitNextCapture();
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is being stopped
+        }
+        output.close();
+    }
+}
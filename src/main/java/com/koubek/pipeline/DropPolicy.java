@@ -0,0 +1,15 @@
+package com.koubek.pipeline;
+
+/**
+ * DropPolicy serves as a way to choose what a full frame queue does with a new frame.
+ */
+public enum DropPolicy {
+    /**
+     * The oldest queued frame is dropped to make room for the new one, so the producer never waits
+     */
+    DROP_OLDEST,
+    /**
+     * The producer waits until there is room in the queue, so no frame is ever dropped
+     */
+    BLOCK
+}
@@ -0,0 +1,204 @@
+package com.koubek.pipeline;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import com.koubek.Detection;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frame instances carry a single captured image and the results of all stages that have already processed it through a pipeline.
+ * Frames are reference counted. Once the last holder releases a frame, it is returned to its pool, or its native buffers are released if it has none.
+ */
+public class Frame {
+    private final FramePool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private long sequence;
+    private long captureTime;
+
+    private Mat image = new Mat();
+    private Mat gray = new Mat();
+    private Rect[] faces;
+    private int[] trackIds;
+    private Rect motionRegion;
+    private Detection[] detections;
+    private Object[] analysisResults = new Object[0];
+
+    /**
+     * Constructs a new empty frame which does not belong to any pool
+     * @param sequence the frame's sequence number
+     */
+    public Frame(long sequence) {
+        this.pool = null;
+        reset(sequence);
+    }
+
+    /**
+     * Constructs a new empty frame belonging to the given pool
+     * @param pool frame pool
+     */
+    Frame(FramePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Prepares the frame for a new capture, keeping its native buffers
+     * @param sequence the frame's sequence number within its pipeline
+     */
+    void reset(long sequence) {
+        this.sequence = sequence;
+        this.captureTime = System.nanoTime();
+        references.set(1);
+        faces = null;
+        trackIds = null;
+        motionRegion = null;
+        detections = null;
+        Arrays.fill(analysisResults, null);
+    }
+
+    /**
+     * Returns the frame's sequence number within its pipeline
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the time the frame was captured at, as given by {@link System#nanoTime()}
+     * @return capture time in nanoseconds
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * Returns the captured color image
+     * @return image
+     */
+    public Mat getImage() {
+        return image;
+    }
+
+    /**
+     * Returns the grayscale version of the captured image
+     * @return grayscale image
+     */
+    public Mat getGray() {
+        return gray;
+    }
+
+    /**
+     * Returns the rectangles containing faces
+     * @return faces, null if faces have not been detected yet
+     */
+    public Rect[] getFaces() {
+        return faces;
+    }
+
+    /**
+     * Sets the rectangles containing faces
+     * @param faces faces
+     */
+    public void setFaces(Rect[] faces) {
+        this.faces = faces;
+    }
+
+    /**
+     * Returns the identifiers of the tracks the faces belong to, in the same order as the faces
+     * @return track identifiers, null if faces have not been detected yet
+     */
+    public int[] getTrackIds() {
+        return trackIds;
+    }
+
+    /**
+     * Sets the identifiers of the tracks the faces belong to, in the same order as the faces
+     * @param trackIds track identifiers
+     */
+    public void setTrackIds(int[] trackIds) {
+        this.trackIds = trackIds;
+    }
+
+    /**
+     * Returns the bounding box of the pixels which have changed since the previous frames
+     * @return motion region, null if the frame contains no motion or motion has not been detected
+     */
+    public Rect getMotionRegion() {
+        return motionRegion;
+    }
+
+    /**
+     * Sets the bounding box of the pixels which have changed since the previous frames
+     * @param motionRegion motion region, null if the frame contains no motion
+     */
+    public void setMotionRegion(Rect motionRegion) {
+        this.motionRegion = motionRegion;
+    }
+
+    /**
+     * Returns the recognition results, one for each face
+     * @return detections, null if faces have not been recognized yet
+     */
+    public Detection[] getDetections() {
+        return detections;
+    }
+
+    /**
+     * Sets the recognition results, one for each face
+     * @param detections detections
+     */
+    public void setDetections(Detection[] detections) {
+        this.detections = detections;
+    }
+
+    /**
+     * Returns the result of the analysis with the given slot, see {@link FrameAnalysis}
+     * @param slot index of the analysis
+     * @return result, null if it has not been computed
+     */
+    Object getAnalysisResult(int slot) {
+        return slot < analysisResults.length ? analysisResults[slot] : null;
+    }
+
+    /**
+     * Sets the result of the analysis with the given slot, see {@link FrameAnalysis}
+     * @param slot index of the analysis
+     * @param result result
+     */
+    void setAnalysisResult(int slot, Object result) {
+        if (slot >= analysisResults.length) analysisResults = Arrays.copyOf(analysisResults, slot + 1);
+        analysisResults[slot] = result;
+    }
+
+    /**
+     * Adds a holder of the frame, who then has to release it
+     */
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Removes a holder of the frame. When the last holder releases the frame, it is returned to its pool.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            if (pool != null) {
+                pool.recycle(this);
+            } else {
+                dispose();
+            }
+        }
+    }
+
+    /**
+     * Releases the native buffers of the frame
+     */
+    void dispose() {
+        image.release();
+        gray.release();
+    }
+}
@@ -0,0 +1,84 @@
+package com.koubek.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FrameAnalysis instances represent an optional analysis of frames, e.g. smile detection, which only some consumers are interested in.
+ * The result is computed at most once per frame, either by a consumer asking for it or, while the analysis has subscribers, by the pipeline's analysis stage,
+ * so the consumers find it ready. An analysis nobody subscribes to or asks for is never computed.
+ * Results are computed by one thread at a time, so the analyzer may reuse its buffers.
+ * @param <T> result type
+ */
+public class FrameAnalysis<T> {
+    private final String name;
+    private final int slot;
+    private final FrameAnalyzer<T> analyzer;
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    /**
+     * Constructs a new analysis
+     * @param name analysis name
+     * @param slot index of the analysis' result in frames
+     * @param analyzer the work done on a frame
+     */
+    FrameAnalysis(String name, int slot, FrameAnalyzer<T> analyzer) {
+        this.name = name;
+        this.slot = slot;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Returns the analysis name
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the result of the analysis for the given frame, computing it if it has not been computed yet
+     * @param frame frame, which must not be reused while this method runs
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T get(Frame frame) {
+        T result = (T) frame.getAnalysisResult(slot);
+        if (result == null) {
+            result = analyzer.analyze(frame);
+            frame.setAnalysisResult(slot, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result of the analysis for the given frame if it has already been computed
+     * @param frame frame
+     * @return result, null if it has not been computed
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T peek(Frame frame) {
+        return (T) frame.getAnalysisResult(slot);
+    }
+
+    /**
+     * Adds a subscriber, which makes the pipeline compute the analysis for every frame
+     */
+    public void subscribe() {
+        subscribers.incrementAndGet();
+    }
+
+    /**
+     * Removes a subscriber, once the analysis has none the pipeline stops computing it
+     */
+    public void unsubscribe() {
+        if (subscribers.getAndUpdate(count -> Math.max(0, count - 1)) == 0) throw new IllegalStateException("Analysis " + name + " has no subscribers!");
+    }
+
+    /**
+     * Returns whether the analysis has any subscribers
+     * @return subscribed
+     */
+    public boolean isSubscribed() {
+        return subscribers.get() > 0;
+    }
+}
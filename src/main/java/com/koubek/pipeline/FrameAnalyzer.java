@@ -0,0 +1,15 @@
+package com.koubek.pipeline;
+
+/**
+ * FrameAnalyzer instances serve as the work done by an optional analysis on a frame.
+ * @param <T> result type
+ */
+@FunctionalInterface
+public interface FrameAnalyzer<T> {
+    /**
+     * Analyzes the given frame
+     * @param frame frame
+     * @return result, never null
+     */
+    public T analyze(Frame frame);
+}
@@ -0,0 +1,68 @@
+package com.koubek.pipeline;
+
+import java.util.ArrayDeque;
+
+/**
+ * FramePool instances keep released frames of a pipeline together with their native buffers, so that they can be reused for newly captured frames.
+ * Once the pipeline runs in a steady state, no new native matrices have to be allocated for captured frames.
+ */
+public class FramePool {
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();
+    private final int maxSize;
+    private boolean closed = false;
+    private int createdFrames = 0;
+
+    /**
+     * Constructs a new frame pool
+     * @param maxSize maximum number of released frames kept for reuse, frames above this number are disposed
+     */
+    public FramePool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns an empty frame, reusing a released frame if there is one
+     * @param sequence the frame's sequence number within its pipeline
+     * @return frame
+     */
+    public synchronized Frame acquire(long sequence) {
+        Frame frame = freeFrames.pollFirst();
+        if (frame == null) {
+            frame = new Frame(this);
+            createdFrames++;
+        }
+        frame.reset(sequence);
+        return frame;
+    }
+
+    /**
+     * Returns a frame which is no longer held by anyone to the pool
+     * @param frame frame
+     */
+    synchronized void recycle(Frame frame) {
+        if (closed || freeFrames.size() >= maxSize) {
+            frame.dispose();
+        } else {
+            freeFrames.addFirst(frame);
+        }
+    }
+
+    /**
+     * Disposes all pooled frames. Frames released after the pool was closed are disposed immediately.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Frame frame : freeFrames) {
+            frame.dispose();
+        }
+        freeFrames.clear();
+    }
+
+    /**
+     * Returns how many frames the pool has had to create
+     * @return created frame count
+     */
+    public synchronized int getCreatedFrameCount() {
+        return createdFrames;
+    }
+}
@@ -0,0 +1,14 @@
+package com.koubek.pipeline;
+
+/**
+ * FrameProcessor instances serve as the work done by a single pipeline stage on a frame.
+ */
+@FunctionalInterface
+public interface FrameProcessor {
+    /**
+     * Processes the given frame
+     * @param frame frame
+     * @return whether the frame should be passed on to the next stage
+     */
+    public boolean process(Frame frame);
+}
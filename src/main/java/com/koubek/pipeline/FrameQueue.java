@@ -0,0 +1,130 @@
+package com.koubek.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FrameQueue instances serve as bounded ring buffers connecting two pipeline stages.
+ * When the queue is full, it either drops its oldest frame or makes the producer wait, depending on its drop policy.
+ */
+public class FrameQueue {
+    private final Frame[] buffer;
+    private final DropPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructs a new frame queue
+     * @param capacity maximum number of queued frames
+     * @param policy what happens when a frame is offered to a full queue
+     */
+    public FrameQueue(int capacity, DropPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("Queue capacity must be at least 1!");
+        this.buffer = new Frame[capacity];
+        this.policy = policy;
+    }
+
+    /**
+     * Adds the frame to the end of the queue.
+     * Dropped frames are released by the queue.
+     * @param frame frame
+     * @return false if the queue has been closed and the frame was not added
+     * @throws InterruptedException in case the thread was interrupted while waiting for room in the queue
+     */
+    public boolean offer(Frame frame) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == buffer.length && !closed) {
+                if (policy == DropPolicy.DROP_OLDEST) {
+                    Frame dropped = buffer[head];
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    count--;
+                    droppedFrames.incrementAndGet();
+                    dropped.release();
+                } else {
+                    notFull.await();
+                }
+            }
+            if (closed) return false;
+            buffer[(head + count) % buffer.length] = frame;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the first frame of the queue, waiting for one if the queue is empty
+     * @return frame, null if the queue has been closed and all its frames were taken
+     * @throws InterruptedException in case the thread was interrupted while waiting for a frame
+     */
+    public Frame take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+            if (count == 0) return null;
+            Frame frame = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue. No more frames can be added, the remaining frames can still be taken.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue and releases all remaining frames
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            closed = true;
+            while (count > 0) {
+                buffer[head].release();
+                buffer[head] = null;
+                head = (head + 1) % buffer.length;
+                count--;
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of frames dropped by the queue
+     * @return dropped frame count
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+}
@@ -0,0 +1,191 @@
+package com.koubek.pipeline;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline instances process captured frames in a sequence of stages, each of which runs on its own thread.
+ * Stages are connected by bounded frame queues, so a frame can be captured while the previous frames are still being processed by later stages.
+ */
+public class Pipeline {
+    private final String name;
+    private final FrameProcessor capture;
+    private final CaptureScheduler scheduler;
+    private final int queueCapacity;
+    private final DropPolicy dropPolicy;
+    private final ArrayList<PipelineStage> stages = new ArrayList<>();
+    private final AtomicLong completedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final FramePool framePool;
+
+    private CaptureStage captureStage;
+    private boolean started = false;
+
+    /**
+     * Constructs a new pipeline
+     * @param name pipeline name, used to name its threads
+     * @param capture fills new frames, returns false once there are no more frames
+     * @param captureRate frames per second, 0 or less to capture as fast as possible
+     * @param queueCapacity default capacity of the queues between stages
+     * @param dropPolicy default policy of the queues between stages
+     */
+    public Pipeline(String name, FrameProcessor capture, int captureRate, int queueCapacity, DropPolicy dropPolicy) {
+        this(name, capture, CaptureScheduler.fixed(captureRate), queueCapacity, dropPolicy);
+    }
+
+    /**
+     * Constructs a new pipeline whose capture rate is decided by the given scheduler
+     * @param name pipeline name, used to name its threads
+     * @param capture fills new frames, returns false once there are no more frames
+     * @param scheduler decides when the next frame is captured
+     * @param queueCapacity default capacity of the queues between stages
+     * @param dropPolicy default policy of the queues between stages
+     */
+    public Pipeline(String name, FrameProcessor capture, CaptureScheduler scheduler, int queueCapacity, DropPolicy dropPolicy) {
+        this.name = name;
+        this.capture = capture;
+        this.scheduler = scheduler;
+        this.queueCapacity = queueCapacity;
+        this.dropPolicy = dropPolicy;
+        this.framePool = new FramePool(32);
+    }
+
+    /**
+     * Returns the pipeline name
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the scheduler deciding when the pipeline captures its next frame
+     * @return capture scheduler
+     */
+    public CaptureScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns the pool the pipeline's frames are taken from
+     * @return frame pool
+     */
+    public FramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * Appends a stage with the pipeline's default queue settings
+     * @param stageName stage name
+     * @param processor the work done on every frame
+     */
+    public void addStage(String stageName, FrameProcessor processor) {
+        addStage(stageName, processor, queueCapacity, dropPolicy);
+    }
+
+    /**
+     * Appends a stage whose input queue has the given settings
+     * @param stageName stage name
+     * @param processor the work done on every frame
+     * @param capacity capacity of the stage's input queue
+     * @param policy policy of the stage's input queue
+     */
+    public void addStage(String stageName, FrameProcessor processor, int capacity, DropPolicy policy) {
+        if (started) throw new IllegalStateException("Stages cannot be added to a running pipeline!");
+        PipelineStage stage = new PipelineStage(this, stageName, new FrameQueue(capacity, policy), processor);
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).setOutput(stage.getInput());
+        }
+        stages.add(stage);
+    }
+
+    /**
+     * Starts the capture thread and the threads of all stages
+     */
+    public void start() {
+        if (stages.isEmpty()) throw new IllegalStateException("Pipeline has no stages!");
+        started = true;
+        for (PipelineStage stage : stages) {
+            stage.start();
+        }
+        captureStage = new CaptureStage(this, capture, stages.get(0).getInput(), scheduler);
+        captureStage.start();
+    }
+
+    /**
+     * Stops all threads of the pipeline, releases all frames that have not been processed and closes the frame pool
+     */
+    public void stop() {
+        if (!started) return;
+        captureStage.interrupt();
+        for (PipelineStage stage : stages) {
+            stage.interrupt();
+        }
+        try {
+            captureStage.join();
+            for (PipelineStage stage : stages) {
+                stage.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (PipelineStage stage : stages) {
+            stage.getInput().clear();
+        }
+        framePool.close();
+    }
+
+    /**
+     * Waits until the capture stage runs out of frames and all captured frames have passed through the pipeline
+     * @param timeoutMillis maximum time to wait in milliseconds, 0 to wait indefinitely
+     * @return whether the pipeline has finished
+     * @throws InterruptedException in case the thread was interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        PipelineStage lastStage = stages.get(stages.size() - 1);
+        lastStage.join(timeoutMillis);
+        return !lastStage.isAlive();
+    }
+
+    /**
+     * Called by the last stage after it has processed a frame
+     */
+    void frameCompleted() {
+        completedFrames.incrementAndGet();
+    }
+
+    /**
+     * Called by a stage after it has decided not to pass a frame on
+     */
+    void frameSkipped() {
+        skippedFrames.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of frames that a stage has not passed on, either because it had nothing to do with them or because processing failed
+     * @return skipped frame count
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames that have passed through all stages
+     * @return completed frame count
+     */
+    public long getCompletedFrameCount() {
+        return completedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames dropped by the queues between stages
+     * @return dropped frame count
+     */
+    public long getDroppedFrameCount() {
+        long dropped = 0;
+        for (PipelineStage stage : stages) {
+            dropped += stage.getInput().getDroppedFrameCount();
+        }
+        return dropped;
+    }
+}
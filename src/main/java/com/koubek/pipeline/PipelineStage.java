@@ -0,0 +1,75 @@
+package com.koubek.pipeline;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+
+/**
+ * PipelineStage threads take frames from their input queue, process them and pass them on to the next stage's queue.
+ * Frames which are not passed on, or which have passed the last stage, are released.
+ */
+class PipelineStage extends Thread {
+    private final Pipeline pipeline;
+    private final FrameQueue input;
+    private final FrameProcessor processor;
+    private FrameQueue output;
+
+    /**
+     * Constructs a new pipeline stage
+     * @param pipeline the pipeline the stage belongs to
+     * @param name stage name
+     * @param input the queue the stage takes frames from
+     * @param processor the work done on every frame
+     */
+    PipelineStage(Pipeline pipeline, String name, FrameQueue input, FrameProcessor processor) {
+        super(pipeline.getName() + "-" + name);
+        this.pipeline = pipeline;
+        this.input = input;
+        this.processor = processor;
+        setDaemon(true);
+    }
+
+    /**
+     * Sets the queue processed frames are passed on to
+     * @param output output queue, null for the last stage
+     */
+    void setOutput(FrameQueue output) {
+        this.output = output;
+    }
+
+    /**
+     * Returns the queue the stage takes frames from
+     * @return input queue
+     */
+    FrameQueue getInput() {
+        return input;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Frame frame = input.take();
+                if (frame == null) break;
+                boolean forward;
+                try {
+                    forward = processor.process(frame);
+                } catch (Exception e) {
+                    Log.printMessage(getName() + ": " + e.getMessage(), MessageType.ERROR);
+                    forward = false;
+                }
+                if (!forward) {
+                    pipeline.frameSkipped();
+                    frame.release();
+                } else if (output == null) {
+                    pipeline.frameCompleted();
+                    frame.release();
+                } else if (!output.offer(frame)) {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // The pipeline is being stopped
+        }
+        if (output != null) output.close();
+    }
+}
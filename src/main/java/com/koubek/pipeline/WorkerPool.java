@@ -0,0 +1,191 @@
+package com.koubek.pipeline;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WorkerPool instances share a fixed number of workers among the CPU-heavy stages of several pipelines.
+ * Every pipeline registers as a client, and its shared stages only process a frame while they hold one of the pool's workers.
+ * When a worker becomes free, it goes to the waiting client which has used the workers for the shortest time so far,
+ * so a camera with many faces in front of it cannot starve the other cameras.
+ * The stages keep processing frames on their own threads, so the buffers of a stage are still only ever touched by a single thread.
+ */
+public class WorkerPool {
+    // How far a client which has been idle may fall behind the others, which it then catches up on
+    private static final long MAX_CATCH_UP_NANOS = 250_000_000L;
+
+    private final int workerCount;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workerReleased = lock.newCondition();
+    private final ArrayList<Client> clients = new ArrayList<>();
+
+    private int busyWorkers = 0;
+    // Usage of the client which most recently took a worker, it only ever grows
+    private long usageFloor = 0;
+
+    /**
+     * Constructs a new worker pool
+     * @param workerCount number of frames processed at the same time by all shared stages together
+     */
+    public WorkerPool(int workerCount) {
+        if (workerCount < 1) throw new IllegalArgumentException("Worker count must be at least 1!");
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Returns the number of frames processed at the same time by all shared stages together
+     * @return worker count
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Registers a new client of the pool
+     * @param name client name
+     * @return client
+     */
+    public Client register(String name) {
+        Client client = new Client(name);
+        lock.lock();
+        try {
+            clients.add(client);
+        } finally {
+            lock.unlock();
+        }
+        return client;
+    }
+
+    /**
+     * Waits until the client is the waiting client with the lowest usage and a worker is free, then takes the worker
+     * @param client client
+     * @throws InterruptedException in case the thread was interrupted while waiting
+     */
+    private void acquire(Client client) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (client.waiting == 0) {
+                // A client which has been idle only gets to catch up on a limited part of the time it has not used
+                client.usage = Math.max(client.usage, usageFloor - MAX_CATCH_UP_NANOS);
+            }
+            client.waiting++;
+            try {
+                while (busyWorkers == workerCount || lowestWaitingUsage() < client.usage) {
+                    workerReleased.await();
+                }
+            } finally {
+                client.waiting--;
+            }
+            busyWorkers++;
+            usageFloor = Math.max(usageFloor, client.usage);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a worker taken by the client
+     * @param client client
+     * @param nanos how long the client has used the worker
+     */
+    private void release(Client client, long nanos) {
+        lock.lock();
+        try {
+            busyWorkers--;
+            client.usage += nanos;
+            client.workTime += nanos;
+            workerReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lowest usage of all clients waiting for a worker, must be called while holding the lock
+     * @return lowest usage, 0 if no client is waiting
+     */
+    private long lowestWaitingUsage() {
+        long lowest = Long.MAX_VALUE;
+        for (Client client : clients) {
+            if (client.waiting > 0) lowest = Math.min(lowest, client.usage);
+        }
+        return lowest == Long.MAX_VALUE ? 0 : lowest;
+    }
+
+    /**
+     * Client instances represent a single pipeline sharing the workers of a pool
+     */
+    public class Client {
+        private final String name;
+        // Guarded by the pool's lock, the usage the client is scheduled by is raised when the client has been idle for long
+        private long usage = 0;
+        private long workTime = 0;
+        private int waiting = 0;
+
+        /**
+         * Constructs a new client
+         * @param name client name
+         */
+        private Client(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the client name
+         * @return name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns a processor which does the work of the given processor while holding one of the pool's workers
+         * @param processor the work done on every frame
+         * @return shared processor
+         */
+        public FrameProcessor share(FrameProcessor processor) {
+            return frame -> {
+                try {
+                    acquire(this);
+                } catch (InterruptedException e) {
+                    // The pipeline is being stopped, the stage notices once it takes its next frame
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                long startTime = System.nanoTime();
+                try {
+                    return processor.process(frame);
+                } finally {
+                    release(this, System.nanoTime() - startTime);
+                }
+            };
+        }
+
+        /**
+         * Returns how long the client has held the pool's workers
+         * @return work time in nanoseconds
+         */
+        public long getWorkTime() {
+            lock.lock();
+            try {
+                return workTime;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes the client from the pool, its processors must no longer be used
+         */
+        public void unregister() {
+            lock.lock();
+            try {
+                clients.remove(this);
+                workerReleased.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.koubek.recognition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Condenser instances choose the histograms of a person worth keeping in a gallery.
+ * Consecutive frames of an enrollment are nearly identical, so a histogram closer than the duplicate distance to an already kept one is dropped first.
+ * If more histograms than the maximum number of prototypes remain, they are clustered around medoids, which are kept as the person's prototypes.
+ * Clustering compares every pair of histograms, so people with very many remaining histograms are clustered on histograms evenly spaced over all of them.
+ * Prototypes are always histograms of real samples, never averages, so they are compared exactly like any other sample.
+ */
+public class Condenser {
+    /**
+     * Condenser keeping every histogram
+     */
+    public static final Condenser NONE = new Condenser(0, 0);
+
+    private static final int MAX_ITERATIONS = 10;
+    // The distance matrix of this many histograms takes up 32 MB
+    private static final int MAX_CLUSTERED_HISTOGRAMS = 2000;
+
+    private final int maxPrototypes;
+    private final double duplicateDistance;
+
+    /**
+     * Constructs a new condenser
+     * @param maxPrototypes maximum number of histograms kept per person, 0 for no limit
+     * @param duplicateDistance distance below which two histograms of a person are considered duplicates, 0 to keep duplicates
+     */
+    public Condenser(int maxPrototypes, double duplicateDistance) {
+        if (maxPrototypes < 0) throw new IllegalArgumentException("Max prototype count must not be negative!");
+        if (duplicateDistance < 0) throw new IllegalArgumentException("Duplicate distance must not be negative!");
+        this.maxPrototypes = maxPrototypes;
+        this.duplicateDistance = duplicateDistance;
+    }
+
+    /**
+     * Returns the maximum number of histograms kept per person
+     * @return max prototype count, 0 if there is no limit
+     */
+    public int getMaxPrototypes() {
+        return maxPrototypes;
+    }
+
+    /**
+     * Returns the distance below which two histograms of a person are considered duplicates
+     * @return duplicate distance, 0 if duplicates are kept
+     */
+    public double getDuplicateDistance() {
+        return duplicateDistance;
+    }
+
+    /**
+     * Returns whether the condenser keeps every histogram
+     * @return keeps all
+     */
+    public boolean keepsAll() {
+        return maxPrototypes == 0 && duplicateDistance == 0;
+    }
+
+    /**
+     * Chooses the histograms of a single person to be kept
+     * @param histograms histograms of the person
+     * @return indexes of the kept histograms in ascending order
+     */
+    public int[] select(List<float[]> histograms) {
+        int[] kept = removeDuplicates(histograms);
+        if (maxPrototypes == 0 || kept.length <= maxPrototypes) return kept;
+        if (kept.length > MAX_CLUSTERED_HISTOGRAMS) kept = spaceEvenly(kept, MAX_CLUSTERED_HISTOGRAMS);
+        return Arrays.stream(findMedoids(histograms, kept)).distinct().sorted().toArray();
+    }
+
+    /**
+     * Returns the histograms which are not duplicates of an earlier histogram
+     * @param histograms histograms
+     * @return indexes of the remaining histograms in ascending order
+     */
+    private int[] removeDuplicates(List<float[]> histograms) {
+        int[] kept = new int[histograms.size()];
+        int count = 0;
+        for (int i = 0; i < histograms.size(); i++) {
+            boolean duplicate = false;
+            for (int j = 0; j < count && duplicateDistance > 0; j++) {
+                if (distance(histograms.get(i), histograms.get(kept[j]), duplicateDistance) < duplicateDistance) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) kept[count++] = i;
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Returns the given number of indexes evenly spaced over all given indexes
+     * @param indexes indexes in ascending order
+     * @param count number of returned indexes, less than the number of given indexes
+     * @return evenly spaced indexes in ascending order
+     */
+    private static int[] spaceEvenly(int[] indexes, int count) {
+        int[] spaced = new int[count];
+        for (int i = 0; i < count; i++) {
+            spaced[i] = indexes[(int) ((long) i * indexes.length / count)];
+        }
+        return spaced;
+    }
+
+    /**
+     * Clusters the given histograms around as many medoids as prototypes are kept.
+     * The clustering starts with the most central histogram and repeatedly adds the histogram furthest from all medoids chosen so far,
+     * then alternates between assigning every histogram to its closest medoid and moving every medoid to the centre of its cluster.
+     * @param histograms histograms
+     * @param candidates indexes of the histograms to be clustered
+     * @return indexes of the medoids
+     */
+    private int[] findMedoids(List<float[]> histograms, int[] candidates) {
+        int n = candidates.length;
+        double[][] distances = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                distances[i][j] = distances[j][i] = distance(histograms.get(candidates[i]), histograms.get(candidates[j]), Double.MAX_VALUE);
+            }
+        }
+
+        int[] medoids = new int[maxPrototypes];
+        medoids[0] = findCentre(distances, allOf(n));
+        double[] closest = distances[medoids[0]].clone();
+        int count = 1;
+        while (count < maxPrototypes) {
+            int furthest = 0;
+            for (int i = 1; i < n; i++) {
+                if (closest[i] > closest[furthest]) furthest = i;
+            }
+            // Every remaining histogram is identical to a medoid
+            if (closest[furthest] == 0) break;
+            medoids[count++] = furthest;
+            for (int i = 0; i < n; i++) {
+                closest[i] = Math.min(closest[i], distances[furthest][i]);
+            }
+        }
+
+        int[] assignment = new int[n];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            for (int i = 0; i < n; i++) {
+                for (int m = 0; m < count; m++) {
+                    if (distances[i][medoids[m]] < distances[i][medoids[assignment[i]]]) assignment[i] = m;
+                }
+            }
+            boolean changed = false;
+            for (int m = 0; m < count; m++) {
+                ArrayList<Integer> members = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    if (assignment[i] == m) members.add(i);
+                }
+                if (members.isEmpty()) continue;
+                int centre = findCentre(distances, members.stream().mapToInt(Integer::intValue).toArray());
+                if (centre != medoids[m]) {
+                    medoids[m] = centre;
+                    changed = true;
+                }
+            }
+            if (!changed) break;
+        }
+
+        int[] result = new int[count];
+        for (int m = 0; m < count; m++) {
+            result[m] = candidates[medoids[m]];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the member with the lowest sum of distances to all other members
+     * @param distances distances between all histograms
+     * @param members indexes of the members
+     * @return index of the centre
+     */
+    private static int findCentre(double[][] distances, int[] members) {
+        int centre = members[0];
+        double lowestSum = Double.MAX_VALUE;
+        for (int member : members) {
+            double sum = 0;
+            for (int other : members) {
+                sum += distances[member][other];
+            }
+            if (sum < lowestSum) {
+                lowestSum = sum;
+                centre = member;
+            }
+        }
+        return centre;
+    }
+
+    /**
+     * Returns the indexes from 0 to the given count
+     * @param count count
+     * @return indexes
+     */
+    private static int[] allOf(int count) {
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the chi-square distance between two histograms
+     * @param a histogram
+     * @param b histogram
+     * @param bound distance after which the result no longer matters
+     * @return distance, or a value of at least the bound
+     */
+    private static double distance(float[] a, float[] b, double bound) {
+        return LbphKernels.distance(a, b, a.length, bound);
+    }
+
+    @Override
+    public String toString() {
+        return keepsAll() ? "keep all" : "max " + maxPrototypes + " prototypes, duplicate distance " + duplicateDistance;
+    }
+}
@@ -0,0 +1,101 @@
+package com.koubek.recognition;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Gallery instances address the histograms of all histogram sets of a model by a single sample number, counting the sets one after another.
+ */
+class Gallery {
+    private final HistogramSet[] sets;
+    private final int[] starts;
+    private final int size;
+    private final int histogramLength;
+
+    /**
+     * Constructs a new gallery over the given sets
+     * @param sets histogram sets, which all have the same histogram length
+     * @param histogramLength number of values of every histogram
+     */
+    Gallery(List<HistogramSet> sets, int histogramLength) {
+        this.sets = sets.toArray(new HistogramSet[0]);
+        this.starts = new int[this.sets.length];
+        int count = 0;
+        for (int i = 0; i < this.sets.length; i++) {
+            starts[i] = count;
+            count += this.sets[i].size();
+        }
+        this.size = count;
+        this.histogramLength = histogramLength;
+    }
+
+    /**
+     * Returns the number of histograms in the gallery
+     * @return size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of values of every histogram
+     * @return histogram length
+     */
+    int getHistogramLength() {
+        return histogramLength;
+    }
+
+    /**
+     * Returns the label of the given sample
+     * @param sample sample number
+     * @return label
+     */
+    int getLabel(int sample) {
+        int set = findSet(sample);
+        return sets[set].getLabel(sample - starts[set]);
+    }
+
+    /**
+     * Copies the histogram of the given sample into the given array
+     * @param sample sample number
+     * @param destination array of at least the histogram length
+     */
+    void getHistogram(int sample, float[] destination) {
+        int set = findSet(sample);
+        sets[set].getHistogram(sample - starts[set], destination);
+    }
+
+    /**
+     * Returns the CRC32 checksum of the labels of the first samples, which tells whether an index was built for this gallery
+     * @param count number of samples
+     * @return checksum
+     */
+    int getLabelChecksum(int count) {
+        CRC32 crc = new CRC32();
+        for (int sample = 0; sample < count; sample++) {
+            int label = getLabel(sample);
+            crc.update(label);
+            crc.update(label >>> 8);
+            crc.update(label >>> 16);
+            crc.update(label >>> 24);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the index of the set containing the given sample
+     * @param sample sample number
+     * @return set index
+     */
+    private int findSet(int sample) {
+        if (sample < 0 || sample >= size) throw new IllegalArgumentException("Sample " + sample + " is not in the gallery!");
+        int set = Arrays.binarySearch(starts, sample);
+        if (set >= 0) {
+            // Empty sets start at the same sample as the following set
+            while (sets[set].size() == 0) set++;
+            return set;
+        }
+        return -set - 2;
+    }
+}
@@ -0,0 +1,126 @@
+package com.koubek.recognition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * GallerySearch tasks find the closest people for a batch of faces in a range of gallery shards.
+ * Every gallery histogram is read once and compared with all faces of the batch before the next histogram is read.
+ * Ranges of several shards are split in half and searched in parallel by the fork-join pool.
+ */
+class GallerySearch extends RecursiveTask<TopMatches[]> {
+    /**
+     * Maximum number of histograms in a single shard
+     */
+    static final int SHARD_SIZE = 128;
+
+    private final List<Shard> shards;
+    private final int from;
+    private final int to;
+    private final float[][] queries;
+    private final int k;
+
+    /**
+     * Constructs a new search task
+     * @param shards all shards of the gallery
+     * @param from index of the first shard to be searched
+     * @param to index after the last shard to be searched
+     * @param queries histograms of the faces
+     * @param k maximum number of people found for every face
+     */
+    GallerySearch(List<Shard> shards, int from, int to, float[][] queries, int k) {
+        this.shards = shards;
+        this.from = from;
+        this.to = to;
+        this.queries = queries;
+        this.k = k;
+    }
+
+    @Override
+    protected TopMatches[] compute() {
+        if (to - from <= 1) {
+            TopMatches[] top = createTopMatches(queries.length, k);
+            if (to > from) search(shards.get(from), queries, top);
+            return top;
+        }
+        int middle = (from + to) >>> 1;
+        GallerySearch left = new GallerySearch(shards, from, middle, queries, k);
+        left.fork();
+        TopMatches[] top = new GallerySearch(shards, middle, to, queries, k).compute();
+        TopMatches[] leftTop = left.join();
+        for (int q = 0; q < top.length; q++) {
+            top[q].merge(leftTop[q]);
+        }
+        return top;
+    }
+
+    /**
+     * Returns empty collections for the given number of faces
+     * @param count number of faces
+     * @param k maximum number of people found for every face
+     * @return collections
+     */
+    static TopMatches[] createTopMatches(int count, int k) {
+        TopMatches[] top = new TopMatches[count];
+        for (int q = 0; q < count; q++) {
+            top[q] = new TopMatches(k);
+        }
+        return top;
+    }
+
+    /**
+     * Compares every histogram of the shard with every face
+     * @param shard shard
+     * @param queries histograms of the faces
+     * @param top collections receiving the closest people of every face
+     */
+    static void search(Shard shard, float[][] queries, TopMatches[] top) {
+        HistogramSet set = shard.set;
+        int length = set.getHistogramLength();
+        float[] histogram = new float[length];
+        for (int i = shard.start; i < shard.end; i++) {
+            set.getHistogram(i, histogram);
+            int label = set.getLabel(i);
+            for (int q = 0; q < queries.length; q++) {
+                top[q].offer(label, LbphKernels.distance(histogram, queries[q], length, top[q].getBound()));
+            }
+        }
+    }
+
+    /**
+     * Splits the given histogram sets into shards
+     * @param sets histogram sets
+     * @return shards
+     */
+    static List<Shard> createShards(List<HistogramSet> sets) {
+        ArrayList<Shard> shards = new ArrayList<>();
+        for (HistogramSet set : sets) {
+            for (int start = 0; start < set.size(); start += SHARD_SIZE) {
+                shards.add(new Shard(set, start, Math.min(set.size(), start + SHARD_SIZE)));
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Shard instances represent a range of histograms of a histogram set
+     */
+    static class Shard {
+        private final HistogramSet set;
+        private final int start;
+        private final int end;
+
+        /**
+         * Constructs a new shard
+         * @param set histogram set
+         * @param start index of the first histogram
+         * @param end index after the last histogram
+         */
+        Shard(HistogramSet set, int start, int end) {
+            this.set = set;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
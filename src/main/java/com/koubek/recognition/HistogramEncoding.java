@@ -0,0 +1,56 @@
+package com.koubek.recognition;
+
+/**
+ * HistogramEncoding represents the ways histogram values can be stored in a model file.
+ */
+public enum HistogramEncoding {
+    /**
+     * Every value is stored as a 32 bit float, exactly as it was computed
+     */
+    FLOAT32(0, 4),
+    /**
+     * The square root of every value is quantized to an unsigned byte, which makes the histograms four times smaller at the cost of precision
+     */
+    UINT8(1, 1);
+
+    private final int id;
+    private final int bytesPerValue;
+
+    /**
+     * Constructs a new encoding
+     * @param id identifier stored in model files
+     * @param bytesPerValue number of bytes every value takes up
+     */
+    HistogramEncoding(int id, int bytesPerValue) {
+        this.id = id;
+        this.bytesPerValue = bytesPerValue;
+    }
+
+    /**
+     * Returns the identifier stored in model files
+     * @return id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the number of bytes every value takes up
+     * @return bytes per value
+     */
+    public int getBytesPerValue() {
+        return bytesPerValue;
+    }
+
+    /**
+     * Returns the encoding with the given identifier
+     * @param id identifier stored in a model file
+     * @return encoding
+     */
+    public static HistogramEncoding fromId(int id) {
+        for (HistogramEncoding encoding : values()) {
+            if (encoding.id == id) return encoding;
+        }
+        throw new IllegalArgumentException("Unknown histogram encoding: " + id + "!");
+    }
+}
@@ -0,0 +1,420 @@
+package com.koubek.recognition;
+
+import org.opencv.core.Mat;
+import org.opencv.face.LBPHFaceRecognizer;
+
+import com.koubek.Person;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * HistogramModel instances are recognizer models which compare local binary pattern histograms in Java, without the native recognizer.
+ * All faces of a frame are matched in a single parallel pass over the gallery, and the closest people can be found along with their distances.
+ * The histograms are kept in histogram sets, which are usually memory-mapped straight from the model file, so loading a model does not parse its histograms.
+ * Adding a person only adds a set with the person's histograms, the sets of the previous model are shared and never copied.
+ * Large galleries may additionally be indexed for an approximate search, which compares a face with a small part of the gallery only.
+ * The index is extended with the histograms of every added person.
+ */
+public class HistogramModel implements RecognizerModel {
+    private final LbphExtractor extractor;
+    private final List<HistogramSet> sets;
+    private final List<Person> people;
+    private final HistogramEncoding encoding;
+    private final int sampleCount;
+    private final List<GallerySearch.Shard> shards;
+    private final Gallery gallery;
+    private final HnswIndex index;
+
+    /**
+     * Constructs a new untrained model with the native recognizer's default parameters
+     */
+    public HistogramModel() {
+        this(new LbphExtractor(), new ArrayList<>(), new ArrayList<>(), HistogramEncoding.FLOAT32);
+    }
+
+    /**
+     * Constructs a model from the given histograms and people
+     * @param extractor extractor the histograms were computed with
+     * @param sets histogram sets, must not be modified afterwards
+     * @param people people, indexed by their label
+     * @param encoding encoding used when the model is saved
+     */
+    HistogramModel(LbphExtractor extractor, List<HistogramSet> sets, List<Person> people, HistogramEncoding encoding) {
+        this(extractor, sets, people, encoding, null);
+    }
+
+    /**
+     * Constructs a model from the given histograms and people, using the given index for approximate searches
+     * @param extractor extractor the histograms were computed with
+     * @param sets histogram sets, must not be modified afterwards
+     * @param people people, indexed by their label
+     * @param encoding encoding used when the model is saved
+     * @param index index of the first histograms, which is extended with the remaining ones, null for no index
+     */
+    HistogramModel(LbphExtractor extractor, List<HistogramSet> sets, List<Person> people, HistogramEncoding encoding, HnswIndex index) {
+        this.extractor = extractor;
+        this.sets = Collections.unmodifiableList(sets);
+        this.people = Collections.unmodifiableList(people);
+        this.encoding = encoding;
+        int count = 0;
+        for (HistogramSet set : sets) {
+            count += set.size();
+        }
+        this.sampleCount = count;
+        this.shards = GallerySearch.createShards(sets);
+        this.gallery = new Gallery(sets, extractor.getHistogramLength());
+        if (index != null && index.size() > sampleCount) throw new IllegalArgumentException("Index contains more histograms than the model!");
+        this.index = index == null || index.size() == sampleCount ? index : index.withSamples(gallery, sampleCount);
+    }
+
+    /**
+     * Creates a model from the given histograms and people
+     * @param extractor extractor the histograms were computed with
+     * @param sets histogram sets, must not be modified afterwards
+     * @param people people, indexed by their label
+     * @return model
+     */
+    public static HistogramModel of(LbphExtractor extractor, List<HistogramSet> sets, List<Person> people) {
+        return new HistogramModel(extractor, new ArrayList<>(sets), new ArrayList<>(people), HistogramEncoding.FLOAT32);
+    }
+
+    /**
+     * Loads a model from the given recognizer directory, containing a model file
+     * @param path the relative path of the recognizer's directory
+     * @return loaded model
+     * @throws IOException in case the model could not be loaded
+     */
+    public static HistogramModel load(String path) throws IOException {
+        return IndexFile.attach(ModelFile.read(path), path);
+    }
+
+    /**
+     * Creates a model containing the histograms of the given native recognizer
+     * @param lbph native recognizer
+     * @param people people, indexed by their label
+     * @return model
+     */
+    public static HistogramModel fromNative(LBPHFaceRecognizer lbph, List<Person> people) {
+        LbphExtractor extractor = new LbphExtractor(lbph.getRadius(), lbph.getNeighbors(), lbph.getGridX(), lbph.getGridY());
+        int histogramLength = extractor.getHistogramLength();
+        List<Mat> histograms = lbph.getHistograms();
+        Mat labelMat = lbph.getLabels();
+        int[] labels = new int[histograms.size()];
+        if (labels.length > 0) labelMat.get(0, 0, labels);
+        labelMat.release();
+        // Large recognizers are split into several sets, as a single buffer cannot hold more than 2 GiB
+        long histogramSize = (long) histogramLength * HistogramEncoding.FLOAT32.getBytesPerValue();
+        int histogramsPerSet = (int) Math.max(1, HistogramSet.MAX_SIZE / histogramSize);
+        ArrayList<HistogramSet> sets = new ArrayList<>();
+        float[] histogram = new float[histogramLength];
+        for (int start = 0; start < labels.length; start += histogramsPerSet) {
+            int end = Math.min(labels.length, start + histogramsPerSet);
+            ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(Math.multiplyExact(end - start, histogramSize))).order(ByteOrder.LITTLE_ENDIAN);
+            for (Mat mat : histograms.subList(start, end)) {
+                if (mat.total() != histogramLength) throw new IllegalArgumentException("Native histogram has the wrong length!");
+                mat.get(0, 0, histogram);
+                for (float value : histogram) {
+                    data.putFloat(value);
+                }
+                mat.release();
+            }
+            sets.add(new HistogramSet(data, Arrays.copyOfRange(labels, start, end), histogramLength, HistogramEncoding.FLOAT32));
+        }
+        return new HistogramModel(extractor, sets, new ArrayList<>(people), HistogramEncoding.FLOAT32);
+    }
+
+    /**
+     * Returns a model with the same histograms and people, which is saved in the given encoding
+     * @param newEncoding encoding used when the model is saved
+     * @return model
+     */
+    public HistogramModel withEncoding(HistogramEncoding newEncoding) {
+        return new HistogramModel(extractor, sets, people, newEncoding, index);
+    }
+
+    @Override
+    public void save(String path) throws IOException {
+        ModelFile.write(this, path);
+    }
+
+    @Override
+    public int predict(Mat face, double[] distance) {
+        if (!isTrained()) return -1;
+        Match[] matches = predictAll(List.of(face), 1)[0];
+        distance[0] = matches[0].getDistance();
+        return matches[0].getLabel();
+    }
+
+    /**
+     * Finds the closest people of all faces in a single pass over the gallery.
+     * Galleries of more than one shard are searched in parallel by the common fork-join pool.
+     * @param faces grayscale images of the faces
+     * @param k maximum number of people found for every face
+     * @return the closest people of every face, ordered from the closest
+     */
+    @Override
+    public Match[][] predictAll(List<Mat> faces, int k) {
+        return predictAll(faces, k, 0);
+    }
+
+    /**
+     * Finds the closest people of all faces, using the index if the model has one and the search breadth is positive.
+     * Without the index, the whole gallery is searched in a single pass.
+     * @param faces grayscale images of the faces
+     * @param k maximum number of people found for every face
+     * @param searchBreadth number of closest histograms tracked by an approximate search, 0 for an exact search
+     * @return the closest people of every face, ordered from the closest
+     */
+    @Override
+    public Match[][] predictAll(List<Mat> faces, int k, int searchBreadth) {
+        float[][] queries = new float[faces.size()][];
+        if (isTrained()) {
+            for (int q = 0; q < queries.length; q++) {
+                queries[q] = extractor.extract(faces.get(q));
+            }
+        }
+        return findClosest(queries, k, searchBreadth);
+    }
+
+    /**
+     * Finds the closest people of the given histograms, using the index if the model has one and the search breadth is positive.
+     * Approximate searches of several histograms run in parallel on the common fork-join pool.
+     * @param queries histograms computed by the model's extractor
+     * @param k maximum number of people found for every histogram
+     * @param searchBreadth number of closest histograms tracked by an approximate search, 0 for an exact search
+     * @return the closest people of every histogram, ordered from the closest
+     */
+    public Match[][] findClosest(float[][] queries, int k, int searchBreadth) {
+        Match[][] matches = new Match[queries.length][];
+        if (!isTrained() || queries.length == 0) {
+            for (int q = 0; q < matches.length; q++) {
+                matches[q] = new Match[0];
+            }
+            return matches;
+        }
+        TopMatches[] top;
+        if (index != null && searchBreadth > 0) {
+            top = GallerySearch.createTopMatches(queries.length, k);
+            int breadth = Math.max(searchBreadth, k);
+            IntStream.range(0, queries.length).parallel().forEach(q -> index.search(gallery, queries[q], breadth, top[q]));
+        } else if (shards.size() > 1) {
+            top = ForkJoinPool.commonPool().invoke(new GallerySearch(shards, 0, shards.size(), queries, k));
+        } else {
+            top = GallerySearch.createTopMatches(queries.length, k);
+            GallerySearch.search(shards.get(0), queries, top);
+        }
+        for (int q = 0; q < matches.length; q++) {
+            matches[q] = top[q].toArray();
+        }
+        return matches;
+    }
+
+    @Override
+    public boolean isParallel() {
+        return true;
+    }
+
+    @Override
+    public Person getPerson(int label) {
+        return people.get(label);
+    }
+
+    @Override
+    public int getPersonCount() {
+        return people.size();
+    }
+
+    @Override
+    public boolean isTrained() {
+        return sampleCount > 0;
+    }
+
+    @Override
+    public RecognizerModel withPerson(List<Mat> images, Person person, Condenser condenser, Consumer<String> progress) {
+        progress.accept("computing histograms of " + images.size() + " images");
+        ArrayList<float[]> histograms = new ArrayList<>(images.size());
+        for (Mat image : images) {
+            histograms.add(extractor.extract(image));
+        }
+        if (!condenser.keepsAll()) {
+            progress.accept("condensing " + histograms.size() + " histograms");
+            ArrayList<float[]> prototypes = new ArrayList<>();
+            for (int i : condenser.select(histograms)) {
+                prototypes.add(histograms.get(i));
+            }
+            histograms = prototypes;
+        }
+        if (index != null) progress.accept("indexing " + histograms.size() + " histograms");
+        return withSet(HistogramSet.of(histograms, people.size(), extractor.getHistogramLength()), person);
+    }
+
+    /**
+     * Creates a new model with the same people, keeping only the histograms of every person the given condenser chooses. This model stays unchanged.
+     * Only the histograms of one person are held in memory at a time. The kept histograms are then copied into sets of at most {@link HistogramSet#MAX_SIZE} bytes,
+     * the new model has no index.
+     * @param condenser chooses which histograms of every person are kept
+     * @param progress receives a description of every condensation step as it starts
+     * @return new model
+     */
+    @Override
+    public HistogramModel condensed(Condenser condenser, Consumer<String> progress) {
+        progress.accept("grouping " + sampleCount + " histograms of " + people.size() + " people");
+        ArrayList<ArrayList<Integer>> samplesByLabel = new ArrayList<>(people.size());
+        for (int label = 0; label < people.size(); label++) {
+            samplesByLabel.add(new ArrayList<>());
+        }
+        for (int sample = 0; sample < sampleCount; sample++) {
+            samplesByLabel.get(gallery.getLabel(sample)).add(sample);
+        }
+        int histogramLength = extractor.getHistogramLength();
+        ArrayList<Integer> prototypes = new ArrayList<>();
+        for (int label = 0; label < people.size(); label++) {
+            progress.accept("condensing " + people.get(label).getName() + " (" + (label + 1) + "/" + people.size() + ")");
+            ArrayList<Integer> samples = samplesByLabel.get(label);
+            ArrayList<float[]> histograms = new ArrayList<>(samples.size());
+            for (int sample : samples) {
+                float[] histogram = new float[histogramLength];
+                gallery.getHistogram(sample, histogram);
+                histograms.add(histogram);
+            }
+            for (int i : condenser.select(histograms)) {
+                prototypes.add(samples.get(i));
+            }
+        }
+
+        progress.accept("copying " + prototypes.size() + " prototypes");
+        // The prototypes are read from the gallery again, so they are only copied once, straight into buffers of their final size
+        long histogramSize = (long) histogramLength * HistogramEncoding.FLOAT32.getBytesPerValue();
+        int histogramsPerSet = (int) Math.max(1, HistogramSet.MAX_SIZE / histogramSize);
+        ArrayList<HistogramSet> newSets = new ArrayList<>();
+        float[] histogram = new float[histogramLength];
+        for (int start = 0; start < prototypes.size(); start += histogramsPerSet) {
+            int end = Math.min(prototypes.size(), start + histogramsPerSet);
+            ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(Math.multiplyExact(end - start, histogramSize))).order(ByteOrder.LITTLE_ENDIAN);
+            int[] labels = new int[end - start];
+            for (int i = start; i < end; i++) {
+                int sample = prototypes.get(i);
+                gallery.getHistogram(sample, histogram);
+                data.asFloatBuffer().position((i - start) * histogramLength).put(histogram);
+                labels[i - start] = gallery.getLabel(sample);
+            }
+            newSets.add(new HistogramSet(data, labels, histogramLength, HistogramEncoding.FLOAT32));
+        }
+        return new HistogramModel(extractor, newSets, new ArrayList<>(people), encoding);
+    }
+
+    /**
+     * Creates a new model which additionally recognizes the given person. This model stays unchanged.
+     * @param set histograms of the person, labelled with the person count of this model
+     * @param person the person
+     * @return new model
+     */
+    HistogramModel withSet(HistogramSet set, Person person) {
+        ArrayList<HistogramSet> newSets = new ArrayList<>(sets);
+        newSets.add(set);
+        ArrayList<Person> newPeople = new ArrayList<>(people);
+        newPeople.add(person);
+        return new HistogramModel(extractor, newSets, newPeople, encoding, index);
+    }
+
+    /**
+     * Creates a new model with the same histograms and people and a newly built index over all histograms. This model stays unchanged.
+     * Building the index of a large gallery takes a while, it should be done in the background.
+     * @param connections number of neighbours of every histogram in the index, the more the higher the recall and the slower the search
+     * @param constructionBreadth number of candidates considered when the neighbours of a histogram are chosen, the more the better the index and the slower the build
+     * @return new model
+     */
+    public HistogramModel withIndex(int connections, int constructionBreadth) {
+        return withIndex(new HnswIndex(connections, constructionBreadth));
+    }
+
+    /**
+     * Creates a new model with the default index parameters, see {@link #withIndex(int, int)}
+     * @return new model
+     */
+    public HistogramModel withIndex() {
+        return withIndex(HnswIndex.DEFAULT_CONNECTIONS, HnswIndex.DEFAULT_CONSTRUCTION_BREADTH);
+    }
+
+    /**
+     * Creates a new model with the same histograms and people using the given index, which is extended with the histograms it does not contain yet
+     * @param newIndex index of the first histograms
+     * @return new model
+     */
+    HistogramModel withIndex(HnswIndex newIndex) {
+        return new HistogramModel(extractor, sets, people, encoding, newIndex);
+    }
+
+    /**
+     * Returns whether the model has an index for approximate searches
+     * @return has index
+     */
+    public boolean hasIndex() {
+        return index != null;
+    }
+
+    /**
+     * Returns the index for approximate searches
+     * @return index, null if the model has none
+     */
+    HnswIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the gallery addressing all histograms of the model
+     * @return gallery
+     */
+    Gallery getGallery() {
+        return gallery;
+    }
+
+    /**
+     * Returns the extractor the histograms were computed with
+     * @return extractor
+     */
+    public LbphExtractor getExtractor() {
+        return extractor;
+    }
+
+    /**
+     * Returns the histogram sets of the model
+     * @return histogram sets
+     */
+    public List<HistogramSet> getSets() {
+        return sets;
+    }
+
+    /**
+     * Returns the people of the model, indexed by their label
+     * @return people
+     */
+    public List<Person> getPeople() {
+        return people;
+    }
+
+    /**
+     * Returns the encoding used when the model is saved
+     * @return encoding
+     */
+    public HistogramEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the number of histograms of the model
+     * @return sample count
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+}
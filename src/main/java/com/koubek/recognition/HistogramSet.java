@@ -0,0 +1,202 @@
+package com.koubek.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HistogramSet instances hold a block of labelled histograms stored in a byte buffer, which is either a memory-mapped part of a model file or a heap buffer.
+ * Histograms are read with absolute reads only, so a set may be used from several threads at once.
+ */
+public class HistogramSet {
+    static final long MAX_SIZE = 1L << 30;
+
+    private static final float[] DEQUANTIZED = new float[256];
+
+    static {
+        for (int i = 0; i < DEQUANTIZED.length; i++) {
+            float root = i / 255f;
+            DEQUANTIZED[i] = root * root;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final FloatBuffer floats;
+    private final int[] labels;
+    private final int histogramLength;
+    private final HistogramEncoding encoding;
+
+    /**
+     * Constructs a new set over the given buffer
+     * @param data little-endian buffer holding the histograms one after another, starting at index 0
+     * @param labels label of every histogram
+     * @param histogramLength number of values of every histogram
+     * @param encoding how the values are stored
+     */
+    public HistogramSet(ByteBuffer data, int[] labels, int histogramLength, HistogramEncoding encoding) {
+        if (data.capacity() < (long) labels.length * histogramLength * encoding.getBytesPerValue())
+            throw new IllegalArgumentException("Histogram buffer is too small!");
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.floats = this.data.asFloatBuffer();
+        this.labels = labels;
+        this.histogramLength = histogramLength;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Creates a set stored in a heap buffer, containing the given histograms all of which have the same label
+     * @param histograms histograms
+     * @param label label of the histograms
+     * @param histogramLength number of values of every histogram
+     * @return histogram set
+     */
+    public static HistogramSet of(List<float[]> histograms, int label, int histogramLength) {
+        int[] labels = new int[histograms.size()];
+        Arrays.fill(labels, label);
+        return of(histograms, labels, histogramLength);
+    }
+
+    /**
+     * Creates a set stored in a heap buffer, containing the given histograms
+     * @param histograms histograms
+     * @param labels label of every histogram
+     * @param histogramLength number of values of every histogram
+     * @return histogram set
+     */
+    public static HistogramSet of(List<float[]> histograms, int[] labels, int histogramLength) {
+        if (labels.length != histograms.size()) throw new IllegalArgumentException("Every histogram needs a label!");
+        ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(Math.multiplyExact((long) histograms.size(), (long) histogramLength * HistogramEncoding.FLOAT32.getBytesPerValue()))).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < labels.length; i++) {
+            float[] histogram = histograms.get(i);
+            if (histogram.length != histogramLength) throw new IllegalArgumentException("Histogram has the wrong length!");
+            data.asFloatBuffer().position(i * histogramLength).put(histogram);
+        }
+        return new HistogramSet(data, labels, histogramLength, HistogramEncoding.FLOAT32);
+    }
+
+    /**
+     * Returns the number of histograms in the set
+     * @return size
+     */
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * Returns the label of the given histogram
+     * @param index histogram index
+     * @return label
+     */
+    public int getLabel(int index) {
+        return labels[index];
+    }
+
+    /**
+     * Returns the number of values of every histogram
+     * @return histogram length
+     */
+    public int getHistogramLength() {
+        return histogramLength;
+    }
+
+    /**
+     * Returns how the values are stored
+     * @return encoding
+     */
+    public HistogramEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns a single value of a histogram
+     * @param index histogram index
+     * @param bin index of the value within the histogram
+     * @return value
+     */
+    public float getValue(int index, int bin) {
+        int position = index * histogramLength + bin;
+        if (encoding == HistogramEncoding.FLOAT32) return floats.get(position);
+        return dequantize(data.get(position));
+    }
+
+    /**
+     * Copies a histogram into the given array
+     * @param index histogram index
+     * @param destination array of at least the histogram length
+     */
+    public void getHistogram(int index, float[] destination) {
+        int offset = index * histogramLength;
+        if (encoding == HistogramEncoding.FLOAT32) {
+            floats.get(offset, destination, 0, histogramLength);
+        } else {
+            for (int j = 0; j < histogramLength; j++) {
+                destination[j] = dequantize(data.get(offset + j));
+            }
+        }
+    }
+
+    /**
+     * Writes all histograms of the set to the channel in the given encoding
+     * @param channel channel
+     * @param targetEncoding encoding of the written values
+     * @throws IOException in case the histograms could not be written
+     */
+    public void writeTo(WritableByteChannel channel, HistogramEncoding targetEncoding) throws IOException {
+        if (targetEncoding == encoding) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.position(0).limit(Math.toIntExact(Math.multiplyExact((long) labels.length * histogramLength, encoding.getBytesPerValue())));
+            writeFully(channel, buffer);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(histogramLength * targetEncoding.getBytesPerValue()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < labels.length; i++) {
+            buffer.clear();
+            for (int j = 0; j < histogramLength; j++) {
+                float value = getValue(i, j);
+                if (targetEncoding == HistogramEncoding.FLOAT32) {
+                    buffer.putFloat(value);
+                } else {
+                    buffer.put(quantize(value));
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the whole buffer to the channel
+     * @param channel channel
+     * @param buffer buffer
+     * @throws IOException in case the buffer could not be written
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns the quantized form of a normalized histogram value.
+     * The square root of the value is quantized, as the chi-square distance of similar histograms depends on the differences of the square roots of their values.
+     * A linear mapping would round most values of a normalized histogram, which are far below 1, to the same few levels.
+     * @param value value between 0 and 1
+     * @return quantized value
+     */
+    static byte quantize(float value) {
+        return (byte) Math.max(0, Math.min(255, Math.round((float) Math.sqrt(Math.max(0, value)) * 255)));
+    }
+
+    /**
+     * Returns the value a quantized value stands for
+     * @param value quantized value
+     * @return value between 0 and 1
+     */
+    static float dequantize(byte value) {
+        return DEQUANTIZED[value & 0xFF];
+    }
+}
@@ -0,0 +1,366 @@
+package com.koubek.recognition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * HnswIndex instances are hierarchical navigable small world graphs over the histograms of a gallery, which find the closest samples of a face
+ * without comparing the face with every sample.
+ * Every sample is a node on level 0 and, with exponentially decreasing probability, on higher levels. A search descends greedily from the sparse top level
+ * and then explores the closest nodes on level 0, the search breadth trades recall for latency.
+ * Nodes are numbered like the samples of the gallery. An index is never modified once built, adding samples copies the changed neighbour lists,
+ * so indexes may be shared by models just like histogram sets.
+ */
+class HnswIndex {
+    static final int DEFAULT_CONNECTIONS = 16;
+    static final int DEFAULT_CONSTRUCTION_BREADTH = 100;
+    private static final int MAX_LEVEL = 16;
+    private static final Comparator<Candidate> CLOSEST_FIRST = Comparator.comparingDouble(candidate -> candidate.distance);
+    private static final Comparator<Candidate> FURTHEST_FIRST = CLOSEST_FIRST.reversed();
+
+    private final int connections;
+    private final int constructionBreadth;
+    private final double levelMultiplier;
+    // neighbors[node][level] lists the neighbours of a node on a level, the node exists on levels 0 to neighbors[node].length - 1
+    private int[][][] neighbors;
+    private int size;
+    private int entryPoint;
+    private int topLevel;
+
+    /**
+     * Constructs a new empty index
+     * @param connections number of neighbours of a node on the levels above 0, twice as many are kept on level 0
+     * @param constructionBreadth number of candidates considered when the neighbours of a new node are chosen
+     */
+    HnswIndex(int connections, int constructionBreadth) {
+        this(connections, constructionBreadth, new int[0][][], 0, -1, -1);
+    }
+
+    /**
+     * Constructs an index from the given graph
+     * @param connections number of neighbours of a node on the levels above 0, twice as many are kept on level 0
+     * @param constructionBreadth number of candidates considered when the neighbours of a new node are chosen
+     * @param neighbors neighbours of every node on every level of the node
+     * @param size number of nodes
+     * @param entryPoint node searches start at, -1 if the index is empty
+     * @param topLevel level of the entry point, -1 if the index is empty
+     */
+    HnswIndex(int connections, int constructionBreadth, int[][][] neighbors, int size, int entryPoint, int topLevel) {
+        if (connections < 2) throw new IllegalArgumentException("Index needs at least 2 connections per node!");
+        if (constructionBreadth < 1) throw new IllegalArgumentException("Index construction breadth must be positive!");
+        this.connections = connections;
+        this.constructionBreadth = constructionBreadth;
+        this.levelMultiplier = 1 / Math.log(connections);
+        this.neighbors = neighbors;
+        this.size = size;
+        this.entryPoint = entryPoint;
+        this.topLevel = topLevel;
+    }
+
+    /**
+     * Returns an index which additionally contains the samples of the gallery up to the given sample. This index stays unchanged.
+     * @param gallery gallery whose first samples are already in this index
+     * @param end sample after the last sample to be added
+     * @return new index
+     */
+    HnswIndex withSamples(Gallery gallery, int end) {
+        HnswIndex index = new HnswIndex(connections, constructionBreadth, Arrays.copyOf(neighbors, Math.max(end, neighbors.length)), size, entryPoint, topLevel);
+        Builder builder = index.new Builder(gallery);
+        for (int node = size; node < end; node++) {
+            builder.insert(node);
+        }
+        return index;
+    }
+
+    /**
+     * Offers the closest samples of a face found by a search of the given breadth
+     * @param gallery gallery the index was built for
+     * @param query histogram of the face
+     * @param breadth number of closest samples tracked on level 0, at least the number of people to be found
+     * @param top collection receiving the people of the closest samples
+     */
+    void search(Gallery gallery, float[] query, int breadth, TopMatches top) {
+        if (size == 0) return;
+        Searcher searcher = new Searcher(gallery);
+        Candidate closest = new Candidate(entryPoint, searcher.distance(query, entryPoint, Double.MAX_VALUE));
+        for (int level = topLevel; level > 0; level--) {
+            closest = searcher.searchLevel(query, List.of(closest), 1, level).get(0);
+        }
+        for (Candidate candidate : searcher.searchLevel(query, List.of(closest), breadth, 0)) {
+            top.offer(gallery.getLabel(candidate.node), candidate.distance);
+        }
+    }
+
+    /**
+     * Returns the number of nodes
+     * @return size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of neighbours of a node on the levels above 0
+     * @return connections
+     */
+    int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Returns the number of candidates considered when the neighbours of a new node are chosen
+     * @return construction breadth
+     */
+    int getConstructionBreadth() {
+        return constructionBreadth;
+    }
+
+    /**
+     * Returns the node searches start at
+     * @return entry point, -1 if the index is empty
+     */
+    int getEntryPoint() {
+        return entryPoint;
+    }
+
+    /**
+     * Returns the level of the entry point, which is the highest level of the index
+     * @return top level, -1 if the index is empty
+     */
+    int getTopLevel() {
+        return topLevel;
+    }
+
+    /**
+     * Returns the neighbours of a node on every level of the node
+     * @param node node
+     * @return neighbours by level, must not be modified
+     */
+    int[][] getNeighbors(int node) {
+        return neighbors[node];
+    }
+
+    /**
+     * Returns the maximum number of neighbours of a node on the given level
+     * @param level level
+     * @return maximum neighbour count
+     */
+    private int getMaxNeighbors(int level) {
+        return level == 0 ? 2 * connections : connections;
+    }
+
+    /**
+     * Returns the highest level of a new node. Levels are drawn from a generator seeded by the node, so rebuilding an index gives the same graph.
+     * @param node node
+     * @return level
+     */
+    private int drawLevel(int node) {
+        double uniform = new SplittableRandom(node * 0x9E3779B97F4A7C15L).nextDouble();
+        return Math.min(MAX_LEVEL, (int) (-Math.log(1 - uniform) * levelMultiplier));
+    }
+
+    /**
+     * Candidate instances pair a node with its distance to the histogram being searched for
+     */
+    private static class Candidate {
+        private final int node;
+        private final double distance;
+
+        /**
+         * Constructs a new candidate
+         * @param node node
+         * @param distance distance
+         */
+        Candidate(int node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Searcher instances hold the buffers of a single search
+     */
+    private class Searcher {
+        final Gallery gallery;
+        final float[] histogram;
+        final BitSet visited = new BitSet();
+
+        /**
+         * Constructs a new searcher
+         * @param gallery gallery the index was built for
+         */
+        Searcher(Gallery gallery) {
+            this.gallery = gallery;
+            this.histogram = new float[gallery.getHistogramLength()];
+        }
+
+        /**
+         * Returns the distance between a histogram and the histogram of a node
+         * @param query histogram
+         * @param node node
+         * @param bound distance after which the result no longer matters
+         * @return distance, or a value of at least the bound
+         */
+        double distance(float[] query, int node, double bound) {
+            gallery.getHistogram(node, histogram);
+            return LbphKernels.distance(histogram, query, histogram.length, bound);
+        }
+
+        /**
+         * Explores a level starting from the given nodes and returns the closest nodes found
+         * @param query histogram being searched for
+         * @param entryPoints nodes the search starts from
+         * @param breadth number of closest nodes tracked
+         * @param level level
+         * @return closest nodes ordered from the closest
+         */
+        List<Candidate> searchLevel(float[] query, List<Candidate> entryPoints, int breadth, int level) {
+            visited.clear();
+            PriorityQueue<Candidate> candidates = new PriorityQueue<>(CLOSEST_FIRST);
+            PriorityQueue<Candidate> results = new PriorityQueue<>(FURTHEST_FIRST);
+            for (Candidate entry : entryPoints) {
+                visited.set(entry.node);
+                candidates.add(entry);
+                results.add(entry);
+                if (results.size() > breadth) results.poll();
+            }
+            while (!candidates.isEmpty()) {
+                Candidate candidate = candidates.poll();
+                if (results.size() >= breadth && candidate.distance > results.peek().distance) break;
+                for (int neighbor : neighbors[candidate.node][level]) {
+                    if (visited.get(neighbor)) continue;
+                    visited.set(neighbor);
+                    double bound = results.size() >= breadth ? results.peek().distance : Double.MAX_VALUE;
+                    double distance = distance(query, neighbor, bound);
+                    if (distance >= bound) continue;
+                    Candidate next = new Candidate(neighbor, distance);
+                    candidates.add(next);
+                    results.add(next);
+                    if (results.size() > breadth) results.poll();
+                }
+            }
+            ArrayList<Candidate> closest = new ArrayList<>(results);
+            closest.sort(CLOSEST_FIRST);
+            return closest;
+        }
+    }
+
+    /**
+     * Builder instances insert nodes into a newly copied index which has not been published yet.
+     * Neighbour lists are always replaced and never written to, since they may still be shared with the index the copy was made from.
+     */
+    private class Builder extends Searcher {
+        private final float[] query;
+        private final float[] base;
+        private final float[][] selected;
+
+        /**
+         * Constructs a new builder
+         * @param gallery gallery the index is built for
+         */
+        Builder(Gallery gallery) {
+            super(gallery);
+            this.query = new float[gallery.getHistogramLength()];
+            this.base = new float[gallery.getHistogramLength()];
+            this.selected = new float[2 * connections][gallery.getHistogramLength()];
+        }
+
+        /**
+         * Inserts the next node, connecting it to its closest nodes on each of its levels
+         * @param node node, which has to be the current size of the index
+         */
+        void insert(int node) {
+            gallery.getHistogram(node, query);
+            int level = drawLevel(node);
+            neighbors[node] = new int[level + 1][0];
+            size = node + 1;
+            if (entryPoint < 0) {
+                entryPoint = node;
+                topLevel = level;
+                return;
+            }
+            List<Candidate> closest = List.of(new Candidate(entryPoint, distance(query, entryPoint, Double.MAX_VALUE)));
+            for (int l = topLevel; l > level; l--) {
+                closest = searchLevel(query, closest, 1, l);
+            }
+            for (int l = Math.min(level, topLevel); l >= 0; l--) {
+                closest = searchLevel(query, closest, constructionBreadth, l);
+                int[] nodeNeighbors = selectNeighbors(closest, connections);
+                neighbors[node][l] = nodeNeighbors;
+                for (int neighbor : nodeNeighbors) {
+                    connect(neighbor, node, l);
+                }
+            }
+            if (level > topLevel) {
+                entryPoint = node;
+                topLevel = level;
+            }
+        }
+
+        /**
+         * Adds a node to the neighbours of another node, dropping the least useful neighbour if the list is full
+         * @param node node whose neighbours are changed
+         * @param neighbor new neighbour
+         * @param level level
+         */
+        private void connect(int node, int neighbor, int level) {
+            int[] current = neighbors[node][level];
+            int[] updated;
+            if (current.length < getMaxNeighbors(level)) {
+                updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = neighbor;
+            } else {
+                gallery.getHistogram(node, base);
+                ArrayList<Candidate> candidates = new ArrayList<>(current.length + 1);
+                for (int existing : current) {
+                    candidates.add(new Candidate(existing, distance(base, existing, Double.MAX_VALUE)));
+                }
+                candidates.add(new Candidate(neighbor, distance(base, neighbor, Double.MAX_VALUE)));
+                candidates.sort(CLOSEST_FIRST);
+                updated = selectNeighbors(candidates, getMaxNeighbors(level));
+            }
+            int[][] levels = neighbors[node].clone();
+            levels[level] = updated;
+            neighbors[node] = levels;
+        }
+
+        /**
+         * Chooses the neighbours of a node among the given candidates.
+         * A candidate closer to an already chosen neighbour than to the node is skipped at first, so the neighbours lead into different directions,
+         * the list is then filled up with the closest skipped candidates.
+         * @param candidates candidates ordered from the closest to the node
+         * @param count maximum number of neighbours
+         * @return neighbours
+         */
+        private int[] selectNeighbors(List<Candidate> candidates, int count) {
+            int[] result = new int[Math.min(count, candidates.size())];
+            int resultCount = 0;
+            ArrayList<Candidate> skipped = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                if (resultCount == result.length) break;
+                gallery.getHistogram(candidate.node, selected[resultCount]);
+                boolean diverse = true;
+                for (int i = 0; i < resultCount; i++) {
+                    if (LbphKernels.distance(selected[i], selected[resultCount], query.length, candidate.distance) < candidate.distance) {
+                        diverse = false;
+                        break;
+                    }
+                }
+                if (diverse) {
+                    result[resultCount++] = candidate.node;
+                } else {
+                    skipped.add(candidate);
+                }
+            }
+            for (int i = 0; i < skipped.size() && resultCount < result.length; i++) {
+                result[resultCount++] = skipped.get(i).node;
+            }
+            return result;
+        }
+    }
+}
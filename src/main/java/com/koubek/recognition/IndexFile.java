@@ -0,0 +1,180 @@
+package com.koubek.recognition;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * IndexFile contains static methods reading and writing the approximate search index stored next to the model file of a recognizer directory.
+ * All values are little-endian. The file consists of a 32 byte header and the neighbour lists of every node.
+ * The header holds the magic "FRLH", the format version, the index parameters, the node count, the entry point, the top level
+ * and the CRC32 checksum of the labels of the indexed samples, which tells whether the index belongs to the model it is loaded with.
+ * Every node is stored as its level count followed by the neighbour count and the neighbours of every level.
+ * The nodes of an index are the first samples of its model, an index written before people were journaled is completed when it is loaded.
+ */
+public abstract class IndexFile {
+    public static final String FILE_NAME = "index.bin";
+
+    static final int MAGIC = 0x484C5246;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Returns the given model with the index stored in the given recognizer directory.
+     * The model is returned without an index if there is no index file or if the index belongs to a different model.
+     * @param model model loaded from the directory
+     * @param path the relative path of the recognizer's directory
+     * @return model
+     */
+    static HistogramModel attach(HistogramModel model, String path) {
+        File file = new File(path, FILE_NAME);
+        if (!file.isFile()) return model;
+        try {
+            HnswIndex index = read(file.toPath(), model.getGallery());
+            if (index == null) {
+                Log.printMessage("Ignoring index " + file + " which belongs to a different model", MessageType.WARNING);
+                return model;
+            }
+            return model.withIndex(index);
+        } catch (IOException e) {
+            Log.printMessage("Unable to load index " + file + ": " + e.getMessage(), MessageType.WARNING);
+            return model;
+        }
+    }
+
+    /**
+     * Reads an index file
+     * @param file index file
+     * @param gallery gallery of the model the index is loaded with
+     * @return index, null if the index belongs to a different model
+     * @throws IOException in case the file could not be read or is not a valid index file
+     */
+    static HnswIndex read(Path file, Gallery gallery) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) throw new IOException("Index file " + file + " is too short!");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC) throw new IOException(file + " is not an index file!");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException("Unsupported index file version: " + version + "!");
+            int connections = buffer.getInt();
+            int constructionBreadth = buffer.getInt();
+            int size = buffer.getInt();
+            int entryPoint = buffer.getInt();
+            int topLevel = buffer.getInt();
+            int labelChecksum = buffer.getInt();
+            if (size < 0 || entryPoint >= size || (size > 0 && entryPoint < 0)) throw new IOException("Index file " + file + " has an invalid header!");
+            if (size > gallery.size() || gallery.getLabelChecksum(size) != labelChecksum) return null;
+
+            int[][][] neighbors = new int[size][][];
+            try {
+                for (int node = 0; node < size; node++) {
+                    int levelCount = buffer.getInt();
+                    if (levelCount < 1 || levelCount > topLevel + 1) throw new IOException("Index file " + file + " contains an invalid level count!");
+                    neighbors[node] = new int[levelCount][];
+                    for (int level = 0; level < levelCount; level++) {
+                        int count = buffer.getInt();
+                        if (count < 0 || count > buffer.remaining() / 4) throw new IOException("Index file " + file + " is truncated!");
+                        int[] list = new int[count];
+                        buffer.asIntBuffer().get(list);
+                        buffer.position(buffer.position() + 4 * list.length);
+                        for (int neighbor : list) {
+                            if (neighbor < 0 || neighbor >= size) throw new IOException("Index file " + file + " contains an unknown node: " + neighbor + "!");
+                        }
+                        neighbors[node][level] = list;
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Index file " + file + " is truncated!");
+            }
+            if (size > 0 && neighbors[entryPoint].length != topLevel + 1) throw new IOException("Index file " + file + " has an invalid entry point!");
+            return new HnswIndex(connections, constructionBreadth, neighbors, size, entryPoint, topLevel);
+        }
+    }
+
+    /**
+     * Writes the index of the given model to the given recognizer directory, or deletes the directory's index file if the model has no index.
+     * The file is written next to the old one and then atomically replaces it.
+     * @param model model
+     * @param path the relative path of the recognizer's directory
+     * @throws IOException in case the file could not be written
+     */
+    static void write(HistogramModel model, String path) throws IOException {
+        File directory = new File(path);
+        Path file = new File(directory, FILE_NAME).toPath();
+        HnswIndex index = model.getIndex();
+        if (index == null) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        directory.mkdirs();
+        // Several threads may write the index of the same directory, each of them gets its own temporary file
+        Path temporaryFile = new File(directory, FILE_NAME + "." + Thread.currentThread().getId() + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION)
+                    .putInt(index.getConnections()).putInt(index.getConstructionBreadth())
+                    .putInt(index.size()).putInt(index.getEntryPoint()).putInt(index.getTopLevel())
+                    .putInt(model.getGallery().getLabelChecksum(index.size()));
+            for (int node = 0; node < index.size(); node++) {
+                int[][] levels = index.getNeighbors(node);
+                putInt(channel, buffer, levels.length);
+                for (int[] list : levels) {
+                    putInt(channel, buffer, list.length);
+                    for (int neighbor : list) {
+                        putInt(channel, buffer, neighbor);
+                    }
+                }
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the index file of the given recognizer directory
+     * @param path the relative path of the recognizer's directory
+     * @throws IOException in case the file could not be deleted
+     */
+    static void delete(String path) throws IOException {
+        Files.deleteIfExists(new File(path, FILE_NAME).toPath());
+    }
+
+    /**
+     * Puts a value into the buffer, writing the buffer to the channel first if it is full
+     * @param channel channel
+     * @param buffer buffer
+     * @param value value
+     * @throws IOException in case the buffer could not be written
+     */
+    private static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+        if (buffer.remaining() < 4) flush(channel, buffer);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes the content of the buffer to the channel and clears the buffer
+     * @param channel channel
+     * @param buffer buffer
+     * @throws IOException in case the buffer could not be written
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        HistogramSet.writeFully(channel, buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,181 @@
+package com.koubek.recognition;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * LbphExtractor instances compute the spatial local binary pattern histograms used by the LBPH face recognizer.
+ * The histograms are computed exactly like the native OpenCV recognizer computes them, so histograms of both can be compared with each other.
+ * Every pixel is compared with its interpolated circular neighbours, the resulting patterns are counted in a grid of cells and every cell's histogram is normalized.
+ * The pattern codes are computed by {@link LbphKernels}, using the Vector API if it is available.
+ * Extractors are immutable and may be used from several threads at once.
+ */
+public class LbphExtractor {
+    private final int radius;
+    private final int neighbors;
+    private final int gridX;
+    private final int gridY;
+    private final int[] floorX;
+    private final int[] floorY;
+    private final int[] ceilX;
+    private final int[] ceilY;
+    private final float[][] weights;
+
+    /**
+     * Constructs an extractor with the native recognizer's default parameters
+     */
+    public LbphExtractor() {
+        this(1, 8, 8, 8);
+    }
+
+    /**
+     * Constructs a new extractor
+     * @param radius radius of the circle the neighbours lie on
+     * @param neighbors number of neighbours of every pixel, at most 16
+     * @param gridX number of cells in every row of the grid
+     * @param gridY number of cells in every column of the grid
+     */
+    public LbphExtractor(int radius, int neighbors, int gridX, int gridY) {
+        if (radius < 1) throw new IllegalArgumentException("Radius must be at least 1!");
+        if (neighbors < 1 || neighbors > 16) throw new IllegalArgumentException("Neighbor count must be between 1 and 16!");
+        if (gridX < 1 || gridY < 1) throw new IllegalArgumentException("Grid must have at least one cell!");
+        this.radius = radius;
+        this.neighbors = neighbors;
+        this.gridX = gridX;
+        this.gridY = gridY;
+        floorX = new int[neighbors];
+        floorY = new int[neighbors];
+        ceilX = new int[neighbors];
+        ceilY = new int[neighbors];
+        weights = new float[neighbors][4];
+        for (int n = 0; n < neighbors; n++) {
+            float x = (float) (radius * Math.cos(2.0 * Math.PI * n / (float) neighbors));
+            float y = (float) (-radius * Math.sin(2.0 * Math.PI * n / (float) neighbors));
+            floorX[n] = (int) Math.floor(x);
+            floorY[n] = (int) Math.floor(y);
+            ceilX[n] = (int) Math.ceil(x);
+            ceilY[n] = (int) Math.ceil(y);
+            float ty = y - floorY[n];
+            float tx = x - floorX[n];
+            weights[n][0] = (1 - tx) * (1 - ty);
+            weights[n][1] = tx * (1 - ty);
+            weights[n][2] = (1 - tx) * ty;
+            weights[n][3] = tx * ty;
+        }
+    }
+
+    /**
+     * Returns the radius of the circle the neighbours lie on
+     * @return radius
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Returns the number of neighbours of every pixel
+     * @return neighbors
+     */
+    public int getNeighbors() {
+        return neighbors;
+    }
+
+    /**
+     * Returns the number of cells in every row of the grid
+     * @return grid x
+     */
+    public int getGridX() {
+        return gridX;
+    }
+
+    /**
+     * Returns the number of cells in every column of the grid
+     * @return grid y
+     */
+    public int getGridY() {
+        return gridY;
+    }
+
+    /**
+     * Returns the number of values of every histogram
+     * @return histogram length
+     */
+    public int getHistogramLength() {
+        return gridX * gridY * (1 << neighbors);
+    }
+
+    /**
+     * Computes the spatial histogram of the given face
+     * @param face grayscale or BGR image of the face
+     * @return histogram
+     */
+    public float[] extract(Mat face) {
+        int rows = face.rows();
+        int cols = face.cols();
+        byte[] pixels = new byte[rows * cols];
+        if (face.type() == CvType.CV_8UC1 && face.isContinuous()) {
+            face.get(0, 0, pixels);
+        } else {
+            Mat gray = new Mat();
+            if (face.channels() == 1) {
+                face.convertTo(gray, CvType.CV_8UC1);
+            } else {
+                Imgproc.cvtColor(face, gray, Imgproc.COLOR_BGR2GRAY);
+            }
+            gray.get(0, 0, pixels);
+            gray.release();
+        }
+        return extract(pixels, rows, cols);
+    }
+
+    /**
+     * Computes the spatial histogram of the given grayscale pixels
+     * @param pixels pixels stored row by row
+     * @param rows number of rows
+     * @param cols number of columns
+     * @return histogram
+     */
+    public float[] extract(byte[] pixels, int rows, int cols) {
+        int patternCount = 1 << neighbors;
+        float[] histogram = new float[getHistogramLength()];
+        int codeRows = rows - 2 * radius;
+        int codeCols = cols - 2 * radius;
+        if (codeRows <= 0 || codeCols <= 0) return histogram;
+
+        float[] values = new float[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            values[i] = pixels[i] & 0xFF;
+        }
+        int[] codes = new int[codeRows * codeCols];
+        for (int n = 0; n < neighbors; n++) {
+            int[] offsets = {
+                    floorY[n] * cols + floorX[n],
+                    floorY[n] * cols + ceilX[n],
+                    ceilY[n] * cols + floorX[n],
+                    ceilY[n] * cols + ceilX[n]
+            };
+            LbphKernels.addNeighbor(values, rows, cols, radius, offsets, weights[n], 1 << n, codes);
+        }
+
+        int cellWidth = codeCols / gridX;
+        int cellHeight = codeRows / gridY;
+        if (cellWidth == 0 || cellHeight == 0) return histogram;
+        // The native recognizer scales the counts by the reciprocal of the cell size
+        float scale = (float) (1.0 / (cellWidth * cellHeight));
+        for (int cellRow = 0; cellRow < gridY; cellRow++) {
+            for (int cellCol = 0; cellCol < gridX; cellCol++) {
+                int cellOffset = (cellRow * gridX + cellCol) * patternCount;
+                for (int i = cellRow * cellHeight; i < (cellRow + 1) * cellHeight; i++) {
+                    for (int j = cellCol * cellWidth; j < (cellCol + 1) * cellWidth; j++) {
+                        histogram[cellOffset + codes[i * codeCols + j]]++;
+                    }
+                }
+                for (int k = cellOffset; k < cellOffset + patternCount; k++) {
+                    histogram[k] *= scale;
+                }
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,104 @@
+package com.koubek.recognition;
+
+/**
+ * LbphKernels contains the inner loops of the Java LBPH engine: computing local binary pattern codes and chi-square distances.
+ * The loops use the Vector API if the jdk.incubator.vector module is present, which requires running with --add-modules jdk.incubator.vector,
+ * otherwise equivalent scalar loops are used. The system property facerecognition.vector=false forces the scalar loops.
+ */
+abstract class LbphKernels {
+    static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("facerecognition.vector"));
+
+    /**
+     * Number of values after which a distance is compared with its bound
+     */
+    static final int BLOCK_SIZE = 256;
+
+    private static final float FLOAT_EPSILON = Math.ulp(1.0f);
+    private static final double DOUBLE_EPSILON = Math.ulp(1.0);
+
+    /**
+     * Adds the bit of a single neighbour to the pattern code of every pixel which is not closer to the border than the radius
+     * @param pixels grayscale pixels stored row by row
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param radius radius of the circle the neighbours lie on
+     * @param offsets offsets of the four pixels surrounding the neighbour relative to the centre pixel
+     * @param weights interpolation weights of the four pixels
+     * @param bit bit of the neighbour
+     * @param codes pattern codes of the pixels, stored row by row without the border
+     */
+    static void addNeighbor(float[] pixels, int rows, int cols, int radius, int[] offsets, float[] weights, int bit, int[] codes) {
+        if (VECTOR_API) {
+            VectorKernels.addNeighbor(pixels, rows, cols, radius, offsets, weights, bit, codes);
+        } else {
+            addNeighborScalar(pixels, rows, cols, radius, offsets, weights, bit, codes, radius);
+        }
+    }
+
+    /**
+     * Adds the bit of a single neighbour to the pattern codes of the pixels of every row, starting at the given column
+     * @param pixels grayscale pixels stored row by row
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param radius radius of the circle the neighbours lie on
+     * @param offsets offsets of the four pixels surrounding the neighbour relative to the centre pixel
+     * @param weights interpolation weights of the four pixels
+     * @param bit bit of the neighbour
+     * @param codes pattern codes of the pixels, stored row by row without the border
+     * @param startColumn first column
+     */
+    static void addNeighborScalar(float[] pixels, int rows, int cols, int radius, int[] offsets, float[] weights, int bit, int[] codes, int startColumn) {
+        int codeCols = cols - 2 * radius;
+        for (int i = radius; i < rows - radius; i++) {
+            int codeRow = (i - radius) * codeCols - radius;
+            for (int j = startColumn; j < cols - radius; j++) {
+                int center = i * cols + j;
+                float value = pixels[center];
+                float t = weights[0] * pixels[center + offsets[0]] + weights[1] * pixels[center + offsets[1]]
+                        + weights[2] * pixels[center + offsets[2]] + weights[3] * pixels[center + offsets[3]];
+                if (t > value || Math.abs(t - value) < FLOAT_EPSILON) {
+                    codes[codeRow + j] += bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the chi-square distance between two histograms, computed like the native recognizer's HISTCMP_CHISQR_ALT comparison.
+     * The distance stops being computed once it reaches the bound.
+     * @param histogram gallery histogram
+     * @param query histogram of the face
+     * @param length number of values
+     * @param bound distance after which the result no longer matters
+     * @return distance, or a value of at least the bound
+     */
+    static double distance(float[] histogram, float[] query, int length, double bound) {
+        if (VECTOR_API) return VectorKernels.distance(histogram, query, length, bound);
+        return distanceScalar(histogram, query, 0, length, bound, 0);
+    }
+
+    /**
+     * Returns the chi-square distance of the given part of two histograms, added to the distance of the preceding part
+     * @param histogram gallery histogram
+     * @param query histogram of the face
+     * @param start index of the first value
+     * @param end index after the last value
+     * @param bound distance after which the result no longer matters
+     * @param halfDistance half the distance of the values before the start
+     * @return distance, or a value of at least the bound
+     */
+    static double distanceScalar(float[] histogram, float[] query, int start, int end, double bound, double halfDistance) {
+        double result = halfDistance;
+        for (int blockStart = start; blockStart < end; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(end, blockStart + BLOCK_SIZE);
+            for (int j = blockStart; j < blockEnd; j++) {
+                double a = histogram[j] - query[j];
+                double b = histogram[j] + query[j];
+                if (Math.abs(b) > DOUBLE_EPSILON) result += a * a / b;
+            }
+            if (2 * result >= bound) break;
+        }
+        return 2 * result;
+    }
+}
@@ -0,0 +1,170 @@
+package com.koubek.recognition;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.face.LBPHFaceRecognizer;
+
+import com.koubek.Person;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * LbphModel instances are recognizer models backed by the native OpenCV LBPH face recognizer.
+ * They are used for recognizer directories saved as lbph.xml and people.ser, which can be converted to the binary model format using {@link ModelConverter}.
+ * Prediction only reads the native recognizer's histograms, so it is safe to predict from several threads as long as the recognizer is not trained further,
+ * which is why training always happens on a copy of the native recognizer.
+ */
+public class LbphModel implements RecognizerModel {
+    private final LBPHFaceRecognizer lbph;
+    private final List<Person> people;
+    private final boolean trained;
+
+    /**
+     * Constructs a new untrained model
+     */
+    public LbphModel() {
+        this(LBPHFaceRecognizer.create(), new ArrayList<>(), false);
+    }
+
+    /**
+     * Constructs a model from the given native recognizer and people
+     * @param lbph native recognizer, must not be modified afterwards
+     * @param people people, indexed by their label
+     * @param trained whether the native recognizer has been trained
+     */
+    private LbphModel(LBPHFaceRecognizer lbph, List<Person> people, boolean trained) {
+        this.lbph = lbph;
+        this.people = Collections.unmodifiableList(people);
+        this.trained = trained;
+    }
+
+    /**
+     * Loads a model from the given recognizer directory, containing lbph.xml and people.ser
+     * @param path the relative path of the recognizer's directory
+     * @return loaded model
+     * @throws IOException in case the model could not be loaded
+     * @throws ClassNotFoundException in case the class was not found
+     */
+    @SuppressWarnings("unchecked")
+    public static LbphModel load(String path) throws IOException, ClassNotFoundException {
+        LBPHFaceRecognizer lbph = LBPHFaceRecognizer.create();
+        lbph.read(path + "/lbph.xml");
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(path + "/people.ser"))) {
+            ArrayList<Person> people = (ArrayList<Person>) objectInputStream.readObject();
+            return new LbphModel(lbph, people, true);
+        }
+    }
+
+    /**
+     * Saves the model in the binary model format, lbph.xml and people.ser are no longer written
+     * @param path the relative path of the recognizer's directory
+     * @throws IOException in case the model could not be saved
+     */
+    @Override
+    public void save(String path) throws IOException {
+        toHistogramModel().save(path);
+    }
+
+    /**
+     * Returns a model containing the same histograms and people, which compares histograms in Java
+     * @return model
+     */
+    public HistogramModel toHistogramModel() {
+        return HistogramModel.fromNative(lbph, people);
+    }
+
+    @Override
+    public int predict(Mat face, double[] distance) {
+        if (!trained) return -1;
+        int[] label = new int[1];
+        lbph.predict(face, label, distance);
+        return label[0];
+    }
+
+    @Override
+    public Person getPerson(int label) {
+        return people.get(label);
+    }
+
+    @Override
+    public int getPersonCount() {
+        return people.size();
+    }
+
+    @Override
+    public boolean isTrained() {
+        return trained;
+    }
+
+    @Override
+    public RecognizerModel withPerson(List<Mat> images, Person person, Condenser condenser, Consumer<String> progress) {
+        if (!condenser.keepsAll()) {
+            progress.accept("condensing " + images.size() + " images");
+            LbphExtractor extractor = new LbphExtractor(lbph.getRadius(), lbph.getNeighbors(), lbph.getGridX(), lbph.getGridY());
+            ArrayList<float[]> histograms = new ArrayList<>(images.size());
+            for (Mat image : images) {
+                histograms.add(extractor.extract(image));
+            }
+            ArrayList<Mat> prototypes = new ArrayList<>();
+            for (int i : condenser.select(histograms)) {
+                prototypes.add(images.get(i));
+            }
+            images = prototypes;
+        }
+        int[] labels = new int[images.size()];
+        Arrays.fill(labels, people.size());
+        LBPHFaceRecognizer newLbph;
+        if (trained) {
+            progress.accept("copying model of " + people.size() + " people");
+            newLbph = copyRecognizer();
+            progress.accept("computing histograms of " + images.size() + " images");
+            newLbph.update(images, new MatOfInt(labels));
+        } else {
+            progress.accept("computing histograms of " + images.size() + " images");
+            newLbph = LBPHFaceRecognizer.create();
+            newLbph.train(images, new MatOfInt(labels));
+        }
+        ArrayList<Person> newPeople = new ArrayList<>(people);
+        newPeople.add(person);
+        return new LbphModel(newLbph, newPeople, true);
+    }
+
+    /**
+     * Condenses the model, which is converted to a model comparing histograms in Java first
+     * @param condenser chooses which samples of every person are kept
+     * @param progress receives a description of every condensation step as it starts
+     * @return new model
+     */
+    @Override
+    public HistogramModel condensed(Condenser condenser, Consumer<String> progress) {
+        progress.accept("converting model of " + people.size() + " people");
+        return toHistogramModel().condensed(condenser, progress);
+    }
+
+    /**
+     * Returns a copy of the native recognizer, which can be trained without affecting this model
+     * @return copy of the native recognizer
+     */
+    private LBPHFaceRecognizer copyRecognizer() {
+        File file = null;
+        try {
+            file = File.createTempFile("lbph", ".xml");
+            lbph.write(file.getAbsolutePath());
+            LBPHFaceRecognizer copy = LBPHFaceRecognizer.create();
+            copy.read(file.getAbsolutePath());
+            return copy;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to copy the recognizer model", e);
+        } finally {
+            if (file != null) file.delete();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.koubek.recognition;
+
+/**
+ * Match instances represent a person found to be similar to a face, along with the distance between the face and the person's closest sample.
+ */
+public class Match {
+    private final int label;
+    private final double distance;
+
+    /**
+     * Constructs a new match
+     * @param label label of the person
+     * @param distance distance between the face and the person's closest sample, the lower the more similar
+     */
+    public Match(int label, double distance) {
+        this.label = label;
+        this.distance = distance;
+    }
+
+    /**
+     * Returns the label of the person
+     * @return label
+     */
+    public int getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the distance between the face and the person's closest sample
+     * @return distance, the lower the more similar
+     */
+    public double getDistance() {
+        return distance;
+    }
+}
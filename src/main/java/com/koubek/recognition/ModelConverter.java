@@ -0,0 +1,81 @@
+package com.koubek.recognition;
+
+import org.opencv.face.LBPHFaceRecognizer;
+
+import com.koubek.Person;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * ModelConverter contains static methods converting recognizer directories saved as lbph.xml and people.ser to the binary model format
+ * and measuring how much quantizing the histograms changes the distances between them.
+ */
+public abstract class ModelConverter {
+    private static final int ERROR_PAIR_COUNT = 1000;
+
+    /**
+     * Converts the recognizer directory to the binary model format
+     * @param sourcePath the relative path of the recognizer directory containing lbph.xml and people.ser
+     * @param targetPath the relative path of the directory the model file is written to, may be the same directory
+     * @param encoding encoding of the written histograms
+     * @return converted model
+     * @throws IOException in case the recognizer could not be read or the model could not be written
+     * @throws ClassNotFoundException in case the class was not found
+     */
+    @SuppressWarnings("unchecked")
+    public static HistogramModel convert(String sourcePath, String targetPath, HistogramEncoding encoding) throws IOException, ClassNotFoundException {
+        File xml = new File(sourcePath, "lbph.xml");
+        if (!xml.isFile()) throw new IOException(xml + " does not exist!");
+        LBPHFaceRecognizer lbph = LBPHFaceRecognizer.create();
+        lbph.read(xml.getPath());
+        ArrayList<Person> people;
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(new File(sourcePath, "people.ser")))) {
+            people = (ArrayList<Person>) objectInputStream.readObject();
+        }
+        HistogramModel model = HistogramModel.fromNative(lbph, people).withEncoding(encoding);
+        model.save(targetPath);
+        return model;
+    }
+
+    /**
+     * Returns how much quantizing the histograms changes the chi-square distances between them, measured on random pairs of the model's samples
+     * @param model model with float32 histograms
+     * @return mean and maximum relative distance error, both 0 if the model has fewer than two samples
+     */
+    public static double[] getQuantizationError(HistogramModel model) {
+        Gallery gallery = model.getGallery();
+        int length = model.getExtractor().getHistogramLength();
+        double[] error = new double[2];
+        if (gallery.size() < 2) return error;
+        float[] a = new float[length];
+        float[] b = new float[length];
+        float[] quantizedA = new float[length];
+        float[] quantizedB = new float[length];
+        Random random = new Random(0);
+        int measuredCount = 0;
+        for (int pair = 0; pair < ERROR_PAIR_COUNT; pair++) {
+            int first = random.nextInt(gallery.size());
+            int second = random.nextInt(gallery.size() - 1);
+            if (second >= first) second++;
+            gallery.getHistogram(first, a);
+            gallery.getHistogram(second, b);
+            for (int j = 0; j < length; j++) {
+                quantizedA[j] = HistogramSet.dequantize(HistogramSet.quantize(a[j]));
+                quantizedB[j] = HistogramSet.dequantize(HistogramSet.quantize(b[j]));
+            }
+            double distance = LbphKernels.distance(a, b, length, Double.MAX_VALUE);
+            if (distance <= 0) continue;
+            double relativeError = Math.abs(LbphKernels.distance(quantizedA, quantizedB, length, Double.MAX_VALUE) - distance) / distance;
+            error[0] += relativeError;
+            error[1] = Math.max(error[1], relativeError);
+            measuredCount++;
+        }
+        if (measuredCount > 0) error[0] /= measuredCount;
+        return error;
+    }
+}
@@ -0,0 +1,228 @@
+package com.koubek.recognition;
+
+import com.koubek.Person;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * ModelFile contains static methods reading and writing histogram models in the binary model format.
+ * All values are little-endian. The file consists of a 72 byte header, the label of every histogram, the histograms aligned to 64 bytes and the person table.
+ * The header holds the magic "FRLB", the format version, the extractor parameters, the histogram length and encoding, the histogram and person counts,
+ * the offsets of the labels, the histograms and the person table and the generation of the first journal belonging to the model, see {@link ModelStore}.
+ * Every person is stored as the length of the UTF-8 encoded name, the name and a byte which is 1 if the person is authorized.
+ * The histograms are memory-mapped when a model is read, large models are mapped in several parts.
+ * The index of a model is stored in its own file next to the model file, see {@link IndexFile}.
+ */
+public abstract class ModelFile {
+    public static final String FILE_NAME = "model.bin";
+
+    static final int MAGIC = 0x424C5246;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 72;
+    private static final int ALIGNMENT = 64;
+    private static final long MAX_MAPPING_SIZE = HistogramSet.MAX_SIZE;
+
+    /**
+     * Returns whether the given recognizer directory contains a model file
+     * @param path the relative path of the recognizer's directory
+     * @return whether the model file exists
+     */
+    public static boolean exists(String path) {
+        return new File(path, FILE_NAME).isFile();
+    }
+
+    /**
+     * Reads the model file of the given recognizer directory
+     * @param path the relative path of the recognizer's directory
+     * @return model backed by the memory-mapped histograms
+     * @throws IOException in case the file could not be read or is not a valid model file
+     */
+    public static HistogramModel read(String path) throws IOException {
+        Path file = new File(path, FILE_NAME).toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = readHeader(channel, file);
+            LbphExtractor extractor = new LbphExtractor(header.getInt(8), header.getInt(12), header.getInt(16), header.getInt(20));
+            int histogramLength = header.getInt(24);
+            if (histogramLength != extractor.getHistogramLength()) throw new IOException("Model file " + file + " has an invalid histogram length!");
+            HistogramEncoding encoding = HistogramEncoding.fromId(header.getInt(28));
+            int sampleCount = header.getInt(32);
+            int personCount = header.getInt(36);
+            long labelsOffset = header.getLong(40);
+            long histogramsOffset = header.getLong(48);
+            long peopleOffset = header.getLong(56);
+            long histogramSize = (long) histogramLength * encoding.getBytesPerValue();
+            if (histogramsOffset + sampleCount * histogramSize > peopleOffset || peopleOffset > size)
+                throw new IOException("Model file " + file + " is truncated!");
+
+            int[] labels = new int[sampleCount];
+            if (sampleCount > 0) {
+                channel.map(FileChannel.MapMode.READ_ONLY, labelsOffset, 4L * sampleCount).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(labels);
+            }
+
+            ArrayList<HistogramSet> sets = new ArrayList<>();
+            int histogramsPerMapping = (int) Math.max(1, MAX_MAPPING_SIZE / histogramSize);
+            for (int start = 0; start < sampleCount; start += histogramsPerMapping) {
+                int end = Math.min(sampleCount, start + histogramsPerMapping);
+                MappedByteBuffer histograms = channel.map(FileChannel.MapMode.READ_ONLY, histogramsOffset + start * histogramSize, (end - start) * histogramSize);
+                sets.add(new HistogramSet(histograms, Arrays.copyOfRange(labels, start, end), histogramLength, encoding));
+            }
+
+            ByteBuffer peopleTable = channel.map(FileChannel.MapMode.READ_ONLY, peopleOffset, size - peopleOffset).order(ByteOrder.LITTLE_ENDIAN);
+            ArrayList<Person> people = new ArrayList<>(personCount);
+            for (int i = 0; i < personCount; i++) {
+                byte[] name = new byte[peopleTable.getInt()];
+                peopleTable.get(name);
+                people.add(new Person(new String(name, StandardCharsets.UTF_8), peopleTable.get() == 1));
+            }
+            for (int label : labels) {
+                if (label < 0 || label >= personCount) throw new IOException("Model file " + file + " contains an unknown label: " + label + "!");
+            }
+            return new HistogramModel(extractor, sets, people, encoding);
+        }
+    }
+
+    /**
+     * Returns the generation of the first journal belonging to the model file of the given recognizer directory
+     * @param path the relative path of the recognizer's directory
+     * @return journal generation
+     * @throws IOException in case the file could not be read or is not a valid model file
+     */
+    static long readJournalGeneration(String path) throws IOException {
+        Path file = new File(path, FILE_NAME).toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(channel, file).getLong(64);
+        }
+    }
+
+    /**
+     * Maps the header of a model file and checks its magic and version
+     * @param channel channel of the model file
+     * @param file model file
+     * @return header
+     * @throws IOException in case the file is not a valid model file
+     */
+    private static ByteBuffer readHeader(FileChannel channel, Path file) throws IOException {
+        if (channel.size() < HEADER_SIZE) throw new IOException("Model file " + file + " is too short!");
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a model file!");
+        int version = header.getInt(4);
+        if (version != VERSION) throw new IOException("Unsupported model file version: " + version + "!");
+        return header;
+    }
+
+    /**
+     * Writes the model file of the given recognizer directory, any journals already in the directory do not belong to the written model.
+     * @param model model
+     * @param path the relative path of the recognizer's directory
+     * @throws IOException in case the file could not be written
+     * @see #write(HistogramModel, String, long)
+     */
+    public static void write(HistogramModel model, String path) throws IOException {
+        write(model, path, ModelStore.getNextJournalGeneration(new File(path)));
+    }
+
+    /**
+     * Writes the model file of the given recognizer directory.
+     * The file is written next to the old one and then atomically replaces it, so the old file stays intact if writing fails
+     * and models memory-mapped from the old file stay valid.
+     * The index file is deleted before the model file is replaced and then written again, so an index never remains next to a model it was not built for.
+     * Saving a recognizer directory automatically creates any potential directories that may not already exist.
+     * @param model model
+     * @param path the relative path of the recognizer's directory
+     * @param journalGeneration generation of the first journal belonging to the model, older journals are ignored when the model is loaded
+     * @throws IOException in case the file could not be written
+     */
+    static void write(HistogramModel model, String path, long journalGeneration) throws IOException {
+        File directory = new File(path);
+        directory.mkdirs();
+        Path file = new File(directory, FILE_NAME).toPath();
+        // Compactions and condensations may write the model of the same directory, each of them gets its own temporary file
+        Path temporaryFile = new File(directory, FILE_NAME + "." + Thread.currentThread().getId() + ".tmp").toPath();
+        LbphExtractor extractor = model.getExtractor();
+        HistogramEncoding encoding = model.getEncoding();
+        int sampleCount = model.getSampleCount();
+        long histogramSize = (long) extractor.getHistogramLength() * encoding.getBytesPerValue();
+        long labelsOffset = HEADER_SIZE;
+        long histogramsOffset = align(labelsOffset + 4L * sampleCount);
+        long peopleOffset = histogramsOffset + sampleCount * histogramSize;
+
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putInt(extractor.getRadius()).putInt(extractor.getNeighbors()).putInt(extractor.getGridX()).putInt(extractor.getGridY())
+                    .putInt(extractor.getHistogramLength()).putInt(encoding.getId())
+                    .putInt(sampleCount).putInt(model.getPersonCount())
+                    .putLong(labelsOffset).putLong(histogramsOffset).putLong(peopleOffset)
+                    .putLong(journalGeneration);
+            header.flip();
+            HistogramSet.writeFully(channel, header);
+
+            ByteBuffer labels = ByteBuffer.allocate((int) (histogramsOffset - labelsOffset)).order(ByteOrder.LITTLE_ENDIAN);
+            for (HistogramSet set : model.getSets()) {
+                for (int i = 0; i < set.size(); i++) {
+                    labels.putInt(set.getLabel(i));
+                }
+            }
+            labels.clear();
+            HistogramSet.writeFully(channel, labels);
+
+            for (HistogramSet set : model.getSets()) {
+                set.writeTo(channel, encoding);
+            }
+
+            HistogramSet.writeFully(channel, encodePeople(model.getPeople()));
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        IndexFile.delete(path);
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        IndexFile.write(model, path);
+    }
+
+    /**
+     * Returns the person table of the given people
+     * @param people people, indexed by their label
+     * @return person table, ready to be written
+     */
+    static ByteBuffer encodePeople(Iterable<Person> people) {
+        ArrayList<byte[]> names = new ArrayList<>();
+        int size = 0;
+        for (Person person : people) {
+            byte[] name = person.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 4 + name.length + 1;
+        }
+        ByteBuffer table = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        for (Person person : people) {
+            byte[] name = names.get(i++);
+            table.putInt(name.length).put(name).put((byte) (person.isAuthorized() ? 1 : 0));
+        }
+        table.flip();
+        return table;
+    }
+
+    /**
+     * Returns the given offset rounded up to the alignment of the histograms
+     * @param offset offset
+     * @return aligned offset
+     */
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,254 @@
+package com.koubek.recognition;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+import com.koubek.Person;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * ModelJournal instances are append-only files recording the people added to a histogram model since its model file was written.
+ * All values are little-endian. The file starts with the magic "FRLJ" and the format version, followed by records.
+ * Every record consists of the payload length, the CRC32 checksum of the payload and the payload, which holds the person's label, name and authorization
+ * and the person's float32 histograms.
+ * Appends are durable once they return. Threads appending at the same time share a single fsync, so concurrent appends are synchronized to disk in batches.
+ */
+class ModelJournal {
+    static final int MAGIC = 0x4A4C5246;
+    static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File file;
+    private final FileChannel channel;
+    private final Object syncLock = new Object();
+    private long writtenPosition;
+    private long syncedPosition;
+
+    /**
+     * Opens a journal for appending, creating it if it does not exist
+     * @param file journal file
+     * @param validLength length of the valid part of an existing journal, anything after it is cut off
+     * @throws IOException in case the journal could not be opened
+     */
+    private ModelJournal(File file, long validLength) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (validLength < FILE_HEADER_SIZE) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            HistogramSet.writeFully(channel, header);
+            channel.force(true);
+            validLength = FILE_HEADER_SIZE;
+        } else if (channel.size() > validLength) {
+            // A record was only partially written, most likely because of a power cut
+            Log.printMessage("Discarding " + (channel.size() - validLength) + " bytes of an incomplete record in " + file, MessageType.WARNING);
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+        writtenPosition = validLength;
+        syncedPosition = validLength;
+    }
+
+    /**
+     * Opens a journal for appending, creating it if it does not exist. An incomplete record at the end of the journal is cut off.
+     * @param file journal file
+     * @return journal
+     * @throws IOException in case the journal could not be opened
+     */
+    static ModelJournal open(File file) throws IOException {
+        return new ModelJournal(file, file.exists() ? findValidLength(file) : 0);
+    }
+
+    /**
+     * Returns the journal file
+     * @return file
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of bytes written to the journal
+     * @return size
+     */
+    synchronized long size() {
+        return writtenPosition;
+    }
+
+    /**
+     * Appends the person with the given label and the person's histograms to the journal and waits until the record is on disk
+     * @param model model containing the person
+     * @param label label of the person
+     * @throws IOException in case the record could not be written
+     */
+    void append(HistogramModel model, int label) throws IOException {
+        ByteBuffer record = encodeRecord(model, label);
+        long end;
+        synchronized (this) {
+            HistogramSet.writeFully(channel, record);
+            writtenPosition = channel.position();
+            end = writtenPosition;
+        }
+        synchronized (syncLock) {
+            // The fsync of another thread may already have covered this record
+            if (syncedPosition >= end) return;
+            long target;
+            synchronized (this) {
+                target = writtenPosition;
+            }
+            channel.force(false);
+            syncedPosition = target;
+        }
+    }
+
+    /**
+     * Closes the journal
+     * @throws IOException in case the journal could not be closed
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the model with all people of the journal added, skipping people the model already contains
+     * @param file journal file
+     * @param model model the journal belongs to
+     * @return model containing the journal's people
+     * @throws IOException in case the journal could not be read
+     */
+    static HistogramModel replay(File file, HistogramModel model) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            long validLength = checkHeader(data, file);
+            if (validLength == 0) return model;
+            while (true) {
+                ByteBuffer payload = nextPayload(data);
+                if (payload == null) break;
+                int label = payload.getInt();
+                // People already contained in the model file were journaled before the model file was last written
+                if (label < model.getPersonCount()) continue;
+                if (label > model.getPersonCount()) throw new IOException("Journal " + file + " is missing the person with the label " + model.getPersonCount() + "!");
+                byte[] name = new byte[payload.getInt()];
+                payload.get(name);
+                Person person = new Person(new String(name, StandardCharsets.UTF_8), payload.get() == 1);
+                int histogramCount = payload.getInt();
+                int histogramLength = payload.getInt();
+                if (histogramLength != model.getExtractor().getHistogramLength()) throw new IOException("Journal " + file + " has an invalid histogram length!");
+                ArrayList<float[]> histograms = new ArrayList<>(histogramCount);
+                for (int i = 0; i < histogramCount; i++) {
+                    float[] histogram = new float[histogramLength];
+                    payload.asFloatBuffer().get(histogram);
+                    payload.position(payload.position() + histogramLength * 4);
+                    histograms.add(histogram);
+                }
+                model = model.withSet(HistogramSet.of(histograms, label, histogramLength), person);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Returns the length of the part of the journal containing complete records
+     * @param file journal file
+     * @return valid length, 0 if the journal does not even have a valid header
+     * @throws IOException in case the journal could not be read
+     */
+    private static long findValidLength(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (checkHeader(data, file) == 0) return 0;
+            while (nextPayload(data) != null) {
+                // Skips all complete records
+            }
+            return data.position();
+        }
+    }
+
+    /**
+     * Checks the header of the journal and moves the buffer past it
+     * @param data journal contents
+     * @param file journal file
+     * @return header size, 0 if the journal is too short to have a header
+     * @throws IOException in case the file is not a journal
+     */
+    private static long checkHeader(ByteBuffer data, File file) throws IOException {
+        if (data.remaining() < FILE_HEADER_SIZE) return 0;
+        if (data.getInt() != MAGIC) throw new IOException(file + " is not a model journal!");
+        int version = data.getInt();
+        if (version != VERSION) throw new IOException("Unsupported model journal version: " + version + "!");
+        return FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Returns the payload of the next complete record and moves the buffer past it
+     * @param data journal contents positioned at a record
+     * @return payload, null if there is no complete record with a valid checksum, in which case the buffer stays at the record
+     */
+    private static ByteBuffer nextPayload(ByteBuffer data) {
+        int start = data.position();
+        if (data.remaining() < RECORD_HEADER_SIZE) return null;
+        int length = data.getInt();
+        int checksum = data.getInt();
+        if (length < 0 || data.remaining() < length) {
+            data.position(start);
+            return null;
+        }
+        ByteBuffer payload = data.slice(data.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            data.position(start);
+            return null;
+        }
+        data.position(data.position() + length);
+        return payload;
+    }
+
+    /**
+     * Returns the record of the person with the given label
+     * @param model model containing the person
+     * @param label label of the person
+     * @return record, ready to be written
+     */
+    private static ByteBuffer encodeRecord(HistogramModel model, int label) {
+        Person person = model.getPerson(label);
+        byte[] name = person.getName().getBytes(StandardCharsets.UTF_8);
+        int histogramLength = model.getExtractor().getHistogramLength();
+        ArrayList<float[]> histograms = new ArrayList<>();
+        for (HistogramSet set : model.getSets()) {
+            for (int i = 0; i < set.size(); i++) {
+                if (set.getLabel(i) != label) continue;
+                float[] histogram = new float[histogramLength];
+                for (int j = 0; j < histogramLength; j++) {
+                    histogram[j] = set.getValue(i, j);
+                }
+                histograms.add(histogram);
+            }
+        }
+        int payloadLength = Math.toIntExact(4 + 4 + name.length + 1 + 4 + 4 + Math.multiplyExact((long) histograms.size() * histogramLength, 4));
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        record.position(RECORD_HEADER_SIZE);
+        record.putInt(label).putInt(name.length).put(name).put((byte) (person.isAuthorized() ? 1 : 0));
+        record.putInt(histograms.size()).putInt(histogramLength);
+        for (float[] histogram : histograms) {
+            record.asFloatBuffer().put(histogram);
+            record.position(record.position() + histogramLength * 4);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, payloadLength);
+        record.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        record.position(0);
+        return record;
+    }
+}
@@ -0,0 +1,227 @@
+package com.koubek.recognition;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ModelStore instances keep a recognizer directory in the binary model format up to date without rewriting the whole model whenever a person is added.
+ * The directory contains the model file and journals numbered by generation. A newly added person is only appended to the current journal.
+ * Once the journal grows large enough, a new journal is started and the model file is rewritten in the background, after which the older journals are deleted.
+ * The model file records the generation of its first journal. Loading replays the journals from that generation on top of the model file
+ * and ignores older journals, which belong to a model file that has since been replaced, so journals are only deleted once the new model file is in place.
+ * People the model file already contains are skipped, so a crash at any point of a compaction or rewrite loses nothing.
+ */
+public class ModelStore {
+    private static final long COMPACTION_THRESHOLD = 64L << 20;
+    private static final Pattern JOURNAL_NAME = Pattern.compile("journal-(\\d+)\\.bin");
+
+    private final File directory;
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "model-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long firstGeneration;
+    private ModelJournal journal;
+    private long generation;
+    private boolean compacting = false;
+
+    /**
+     * Opens the store of the given recognizer directory
+     * @param path the relative path of the recognizer's directory, which must contain a model file
+     * @throws IOException in case the model file could not be read or the current journal could not be opened
+     */
+    private ModelStore(String path) throws IOException {
+        directory = new File(path);
+        firstGeneration = ModelFile.readJournalGeneration(path);
+        // Journals of a replaced model file remain if the store was interrupted before deleting them
+        deleteJournals(firstGeneration);
+        List<Long> generations = getJournalGenerations();
+        generation = generations.isEmpty() ? firstGeneration : generations.get(generations.size() - 1);
+        journal = ModelJournal.open(getJournalFile(generation));
+    }
+
+    /**
+     * Opens the store of the given recognizer directory
+     * @param path the relative path of the recognizer's directory, which must contain a model file
+     * @return store
+     * @throws IOException in case the directory does not contain a model file or the current journal could not be opened
+     */
+    public static ModelStore open(String path) throws IOException {
+        if (!ModelFile.exists(path)) throw new IOException("Recognizer directory " + path + " does not contain a model file!");
+        return new ModelStore(path);
+    }
+
+    /**
+     * Writes the whole model to the given recognizer directory, deletes its journals and opens its store.
+     * The journals are only deleted once the new model file is in place, until then they still belong to the old one.
+     * @param model model
+     * @param path the relative path of the recognizer's directory
+     * @return store
+     * @throws IOException in case the model could not be written
+     */
+    public static ModelStore create(HistogramModel model, String path) throws IOException {
+        ModelFile.write(model, path, getNextJournalGeneration(new File(path)));
+        return new ModelStore(path);
+    }
+
+    /**
+     * Returns the generation following the newest journal in the given directory, a model file starting with it ignores all existing journals
+     * @param directory recognizer directory
+     * @return journal generation
+     */
+    static long getNextJournalGeneration(File directory) {
+        List<Long> generations = getJournalGenerations(directory);
+        return generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+    }
+
+    /**
+     * Returns the directory of the store
+     * @return directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Loads the model file and replays all journals on top of it
+     * @return model
+     * @throws IOException in case the model could not be loaded
+     */
+    public HistogramModel load() throws IOException {
+        HistogramModel model = ModelFile.read(directory.getPath());
+        for (long journalGeneration : getJournalGenerations()) {
+            if (journalGeneration >= firstGeneration) model = ModelJournal.replay(getJournalFile(journalGeneration), model);
+        }
+        // The index may have been written before the last people were journaled, they are indexed when it is attached
+        return IndexFile.attach(model, directory.getPath());
+    }
+
+    /**
+     * Appends the person with the given label to the current journal and waits until the person is on disk.
+     * Starts a compaction of the given model if the journal has grown large enough.
+     * @param model model containing the person and everything appended before
+     * @param label label of the person
+     * @throws IOException in case the person could not be appended
+     */
+    public synchronized void append(HistogramModel model, int label) throws IOException {
+        journal.append(model, label);
+        if (journal.size() >= COMPACTION_THRESHOLD) compact(model);
+    }
+
+    /**
+     * Writes the index of the given model to the directory, without rewriting the model file
+     * @param model model containing everything appended so far
+     * @throws IOException in case the index could not be written
+     */
+    public void saveIndex(HistogramModel model) throws IOException {
+        IndexFile.write(model, directory.getPath());
+    }
+
+    /**
+     * Starts a new journal and rewrites the model file with the given model in the background, then deletes the older journals.
+     * Does nothing if a compaction is already running.
+     * @param model model containing everything appended so far
+     * @return the compaction task, null if a compaction is already running
+     * @throws IOException in case the new journal could not be started
+     */
+    public synchronized Future<?> compact(HistogramModel model) throws IOException {
+        if (compacting) return null;
+        compacting = true;
+        ModelJournal rolledJournal = journal;
+        long rolledGeneration = generation;
+        journal = ModelJournal.open(getJournalFile(generation + 1));
+        generation++;
+        rolledJournal.close();
+        return compactionExecutor.submit(() -> {
+            long startTime = System.currentTimeMillis();
+            try {
+                ModelFile.write(model, directory.getPath(), rolledGeneration + 1);
+                deleteJournals(rolledGeneration + 1);
+                Log.printMessage("Recognizer model compacted in " + ((System.currentTimeMillis() - startTime) / (double) 1000) + "s", MessageType.INFO);
+            } catch (IOException e) {
+                Log.printMessage("Unable to compact recognizer model: " + e.getMessage(), MessageType.ERROR);
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the current journal, a running compaction is finished first.
+     * The directory may be rewritten as soon as the store is closed, so a compaction must never write to it afterwards.
+     */
+    public void close() {
+        compactionExecutor.shutdown();
+        // The compaction locks the store when it finishes, so it is awaited without holding the lock
+        try {
+            compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.printMessage("Unable to close model journal: " + e.getMessage(), MessageType.ERROR);
+            }
+        }
+    }
+
+    /**
+     * Deletes the journals older than the given generation
+     * @param journalGeneration generation of the oldest journal kept
+     */
+    private void deleteJournals(long journalGeneration) {
+        for (long olderGeneration : getJournalGenerations()) {
+            if (olderGeneration < journalGeneration) getJournalFile(olderGeneration).delete();
+        }
+    }
+
+    /**
+     * Returns the generations of all journals in the directory in ascending order
+     * @return journal generations
+     */
+    private List<Long> getJournalGenerations() {
+        return getJournalGenerations(directory);
+    }
+
+    /**
+     * Returns the generations of all journals in the given directory in ascending order
+     * @param directory recognizer directory
+     * @return journal generations
+     */
+    private static List<Long> getJournalGenerations(File directory) {
+        ArrayList<Long> generations = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) return generations;
+        for (String name : names) {
+            Matcher matcher = JOURNAL_NAME.matcher(name);
+            if (matcher.matches()) generations.add(Long.parseLong(matcher.group(1)));
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    /**
+     * Returns the journal file of the given generation
+     * @param journalGeneration generation
+     * @return journal file
+     */
+    private File getJournalFile(long journalGeneration) {
+        return new File(directory, String.format("journal-%06d.bin", journalGeneration));
+    }
+}
@@ -0,0 +1,103 @@
+package com.koubek.recognition;
+
+import org.opencv.core.Mat;
+
+import com.koubek.Person;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * RecognizerModel instances serve as immutable snapshots of everything a recognizer has learned.
+ * A published model is never modified, adding a person creates a new model instead, so a model may be used by any number of threads at once without locking.
+ */
+public interface RecognizerModel {
+    /**
+     * Finds the person most similar to the given face
+     * @param face grayscale image of the face
+     * @param distance array whose first element receives the distance to the most similar person, the lower the more similar
+     * @return label of the most similar person, -1 if the model has not been trained
+     */
+    public int predict(Mat face, double[] distance);
+
+    /**
+     * Finds the closest people of all given faces
+     * @param faces grayscale images of the faces
+     * @param k maximum number of people found for every face
+     * @return the closest people of every face, ordered from the closest, empty if the model has not been trained
+     */
+    public default Match[][] predictAll(List<Mat> faces, int k) {
+        Match[][] matches = new Match[faces.size()][];
+        double[] distance = new double[1];
+        for (int q = 0; q < matches.length; q++) {
+            int label = predict(faces.get(q), distance);
+            matches[q] = label < 0 ? new Match[0] : new Match[] {new Match(label, distance[0])};
+        }
+        return matches;
+    }
+
+    /**
+     * Finds the closest people of all given faces, searching approximately with the given breadth if the model supports it
+     * @param faces grayscale images of the faces
+     * @param k maximum number of people found for every face
+     * @param searchBreadth number of closest samples tracked by an approximate search, 0 for an exact search, ignored by models without approximate search
+     * @return the closest people of every face, ordered from the closest, empty if the model has not been trained
+     */
+    public default Match[][] predictAll(List<Mat> faces, int k, int searchBreadth) {
+        return predictAll(faces, k);
+    }
+
+    /**
+     * Returns whether {@link #predictAll(List, int)} already uses several threads, so callers do not have to predict faces in parallel themselves
+     * @return is parallel
+     */
+    public default boolean isParallel() {
+        return false;
+    }
+
+    /**
+     * Returns the person with the given label
+     * @param label label
+     * @return person
+     */
+    public Person getPerson(int label);
+
+    /**
+     * Returns the number of people the model can recognize
+     * @return person count
+     */
+    public int getPersonCount();
+
+    /**
+     * Returns whether the model has been trained with at least one person
+     * @return is trained
+     */
+    public boolean isTrained();
+
+    /**
+     * Creates a new model which additionally recognizes the given person. This model stays unchanged.
+     * @param images images of the person's face
+     * @param person the person in the images
+     * @param condenser chooses which of the images are kept
+     * @param progress receives a description of every training step as it starts
+     * @return new model
+     */
+    public RecognizerModel withPerson(List<Mat> images, Person person, Condenser condenser, Consumer<String> progress);
+
+    /**
+     * Creates a new model with the same people, keeping only the samples of every person the given condenser chooses. This model stays unchanged.
+     * Condensed models always compare histograms in Java.
+     * @param condenser chooses which samples of every person are kept
+     * @param progress receives a description of every condensation step as it starts
+     * @return new model
+     */
+    public HistogramModel condensed(Condenser condenser, Consumer<String> progress);
+
+    /**
+     * Saves the model to the given directory
+     * @param path the relative path of the recognizer's directory
+     * @throws IOException in case the model could not be saved
+     */
+    public void save(String path) throws IOException;
+}
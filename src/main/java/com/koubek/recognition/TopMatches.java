@@ -0,0 +1,78 @@
+package com.koubek.recognition;
+
+/**
+ * TopMatches instances collect the closest distinct people found for a single face while the gallery is being searched.
+ */
+class TopMatches {
+    private final int[] labels;
+    private final double[] distances;
+    private int size = 0;
+
+    /**
+     * Constructs a new collection
+     * @param k maximum number of people
+     */
+    TopMatches(int k) {
+        labels = new int[k];
+        distances = new double[k];
+    }
+
+    /**
+     * Returns the distance a sample has to beat to change the collection, samples can stop being compared once their distance reaches it
+     * @return bound
+     */
+    double getBound() {
+        return size < labels.length ? Double.MAX_VALUE : distances[size - 1];
+    }
+
+    /**
+     * Offers a sample of a person
+     * @param label label of the person
+     * @param distance distance of the sample
+     */
+    void offer(int label, double distance) {
+        if (distance >= getBound()) return;
+        int position = size;
+        for (int i = 0; i < size; i++) {
+            if (labels[i] == label) {
+                if (distances[i] <= distance) return;
+                position = i;
+                break;
+            }
+        }
+        if (position == size) {
+            if (size < labels.length) size++;
+            position = size - 1;
+        }
+        // Moves the sample up to keep the collection sorted by distance
+        while (position > 0 && distances[position - 1] > distance) {
+            labels[position] = labels[position - 1];
+            distances[position] = distances[position - 1];
+            position--;
+        }
+        labels[position] = label;
+        distances[position] = distance;
+    }
+
+    /**
+     * Offers all people of another collection
+     * @param other collection
+     */
+    void merge(TopMatches other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.labels[i], other.distances[i]);
+        }
+    }
+
+    /**
+     * Returns the collected people
+     * @return matches ordered from the closest
+     */
+    Match[] toArray() {
+        Match[] matches = new Match[size];
+        for (int i = 0; i < size; i++) {
+            matches[i] = new Match(labels[i], distances[i]);
+        }
+        return matches;
+    }
+}
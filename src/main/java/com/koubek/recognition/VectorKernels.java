@@ -0,0 +1,81 @@
+package com.koubek.recognition;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernels contains the Vector API versions of the loops in {@link LbphKernels} and must only be used if the jdk.incubator.vector module is present.
+ * The pattern codes are computed with exactly the same floating point operations as the scalar loops.
+ * Distances are accumulated in float lanes within every block, so they may differ from the scalar distances in the last few digits.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final float FLOAT_EPSILON = Math.ulp(1.0f);
+
+    private VectorKernels() {
+    }
+
+    /**
+     * Adds the bit of a single neighbour to the pattern code of every pixel, see {@link LbphKernels#addNeighbor}
+     * @param pixels grayscale pixels stored row by row
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param radius radius of the circle the neighbours lie on
+     * @param offsets offsets of the four pixels surrounding the neighbour relative to the centre pixel
+     * @param weights interpolation weights of the four pixels
+     * @param bit bit of the neighbour
+     * @param codes pattern codes of the pixels, stored row by row without the border
+     */
+    static void addNeighbor(float[] pixels, int rows, int cols, int radius, int[] offsets, float[] weights, int bit, int[] codes) {
+        int codeCols = cols - 2 * radius;
+        int vectorEnd = radius + FLOATS.loopBound(codeCols);
+        for (int i = radius; i < rows - radius; i++) {
+            int codeRow = (i - radius) * codeCols - radius;
+            for (int j = radius; j < vectorEnd; j += FLOATS.length()) {
+                int center = i * cols + j;
+                FloatVector value = FloatVector.fromArray(FLOATS, pixels, center);
+                FloatVector t = FloatVector.fromArray(FLOATS, pixels, center + offsets[0]).mul(weights[0])
+                        .add(FloatVector.fromArray(FLOATS, pixels, center + offsets[1]).mul(weights[1]))
+                        .add(FloatVector.fromArray(FLOATS, pixels, center + offsets[2]).mul(weights[2]))
+                        .add(FloatVector.fromArray(FLOATS, pixels, center + offsets[3]).mul(weights[3]));
+                VectorMask<Float> set = t.compare(VectorOperators.GT, value)
+                        .or(t.sub(value).abs().compare(VectorOperators.LT, FLOAT_EPSILON));
+                IntVector.fromArray(INTS, codes, codeRow + j).add(bit, set.cast(INTS)).intoArray(codes, codeRow + j);
+            }
+        }
+        if (vectorEnd < cols - radius) {
+            LbphKernels.addNeighborScalar(pixels, rows, cols, radius, offsets, weights, bit, codes, vectorEnd);
+        }
+    }
+
+    /**
+     * Returns the chi-square distance between two histograms, see {@link LbphKernels#distance}
+     * @param histogram gallery histogram
+     * @param query histogram of the face
+     * @param length number of values
+     * @param bound distance after which the result no longer matters
+     * @return distance, or a value of at least the bound
+     */
+    static double distance(float[] histogram, float[] query, int length, double bound) {
+        double result = 0;
+        int blockStart = 0;
+        // Every block is a multiple of the vector length, as the block size is a power of two at least as large as any vector
+        for (; blockStart + LbphKernels.BLOCK_SIZE <= length; blockStart += LbphKernels.BLOCK_SIZE) {
+            FloatVector sum = FloatVector.zero(FLOATS);
+            for (int j = blockStart; j < blockStart + LbphKernels.BLOCK_SIZE; j += FLOATS.length()) {
+                FloatVector h = FloatVector.fromArray(FLOATS, histogram, j);
+                FloatVector q = FloatVector.fromArray(FLOATS, query, j);
+                FloatVector a = h.sub(q);
+                FloatVector b = h.add(q);
+                sum = sum.add(a.mul(a).div(b), b.compare(VectorOperators.GT, 0f));
+            }
+            result += sum.reduceLanes(VectorOperators.ADD);
+            if (2 * result >= bound) return 2 * result;
+        }
+        return LbphKernels.distanceScalar(histogram, query, blockStart, length, bound, result);
+    }
+}
@@ -0,0 +1,57 @@
+package com.koubek.source;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * CameraFrameSource instances read frames from a hardware camera using the V4L2 backend.
+ */
+public class CameraFrameSource implements FrameSource {
+    private VideoCapture videoCapture;
+    private int index;
+
+    /**
+     * Opens the camera with the given index in full HD resolution
+     * @param index camera index
+     */
+    public CameraFrameSource(int index) {
+        this(index, 1920, 1080);
+    }
+
+    /**
+     * Opens the camera with the given index and requests the given resolution
+     * @param index camera index
+     * @param width requested frame width
+     * @param height requested frame height
+     */
+    public CameraFrameSource(int index, int width, int height) {
+        this.index = index;
+        videoCapture = new VideoCapture(index, Videoio.CAP_V4L2);
+        if (!videoCapture.isOpened()) {
+            throw new RuntimeException("Unable to open video capture!");
+        }
+        videoCapture.set(Videoio.CAP_PROP_FRAME_WIDTH, width);
+        videoCapture.set(Videoio.CAP_PROP_FRAME_HEIGHT, height);
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        return videoCapture.read(frame);
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+        videoCapture.release();
+    }
+
+    @Override
+    public String getName() {
+        return "camera " + index;
+    }
+}
@@ -0,0 +1,34 @@
+package com.koubek.source;
+
+import org.opencv.core.Mat;
+
+/**
+ * FrameSource instances serve as providers of frames for cameras.
+ * A frame source may be a hardware camera, a video file, a directory of still images or a generated scene.
+ */
+public interface FrameSource {
+    /**
+     * Reads the next frame into the given matrix
+     * @param frame the matrix the frame will be stored in
+     * @return whether a frame was read, false means the source has no more frames
+     */
+    public boolean read(Mat frame);
+
+    /**
+     * Returns whether the source produces frames in real time.
+     * Frames of sources that are not live may be read as fast as possible.
+     * @return is live
+     */
+    public boolean isLive();
+
+    /**
+     * Releases all resources held by the source
+     */
+    public void release();
+
+    /**
+     * Returns a short description of the source used in log output
+     * @return description
+     */
+    public String getName();
+}
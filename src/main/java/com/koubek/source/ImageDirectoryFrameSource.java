@@ -0,0 +1,149 @@
+package com.koubek.source;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ImageDirectoryFrameSource instances provide still images as frames.
+ * The source may either be a single image file, a directory of images, which are read in alphabetical order, or a given list of image files.
+ */
+public class ImageDirectoryFrameSource implements FrameSource {
+    private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp"};
+
+    private String path;
+    private File[] files;
+    private Mat[] images;
+    private boolean loop;
+    private int position = 0;
+
+    /**
+     * Creates a source of the images in the given path.
+     * @param path path to an image file or a directory of images
+     * @param loop whether the images should be repeated after the last one has been read
+     * @param preload whether all images should be decoded up front, so that reading a frame only copies it
+     */
+    public ImageDirectoryFrameSource(String path, boolean loop, boolean preload) {
+        this.path = path;
+        this.loop = loop;
+        File file = new File(path);
+        if (file.isDirectory()) {
+            ArrayList<File> imageFiles = new ArrayList<>();
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (child.isFile() && isImage(child.getName())) imageFiles.add(child);
+                }
+            }
+            files = imageFiles.toArray(new File[0]);
+            Arrays.sort(files);
+        } else if (file.isFile()) {
+            files = new File[] {file};
+        } else {
+            throw new RuntimeException("Unable to find images: " + path);
+        }
+        if (files.length == 0) {
+            throw new RuntimeException("The directory contains no images: " + path);
+        }
+        if (preload) preload();
+    }
+
+    /**
+     * Creates a source of the given image files, which are read in the given order
+     * @param name name of the source
+     * @param files image files
+     * @param loop whether the images should be repeated after the last one has been read
+     * @param preload whether all images should be decoded up front, so that reading a frame only copies it
+     */
+    public ImageDirectoryFrameSource(String name, List<File> files, boolean loop, boolean preload) {
+        if (files.isEmpty()) throw new IllegalArgumentException("Image source needs at least one image!");
+        this.path = name;
+        this.loop = loop;
+        this.files = files.toArray(new File[0]);
+        if (preload) preload();
+    }
+
+    /**
+     * Decodes all images of the source up front
+     */
+    private void preload() {
+        images = new Mat[files.length];
+        for (int i = 0; i < files.length; i++) {
+            images[i] = decode(files[i]);
+        }
+    }
+
+    /**
+     * Returns whether the file name has a supported image extension
+     * @param name file name
+     * @return is image
+     */
+    public static boolean isImage(String name) {
+        String lowerCaseName = name.toLowerCase();
+        for (String extension : EXTENSIONS) {
+            if (lowerCaseName.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the given image file
+     * @param file image file
+     * @return decoded image
+     */
+    private static Mat decode(File file) {
+        Mat image = Imgcodecs.imread(file.getPath());
+        if (image.empty()) {
+            throw new RuntimeException("Unable to decode image: " + file.getPath());
+        }
+        return image;
+    }
+
+    /**
+     * Returns the number of images provided by the source
+     * @return image count
+     */
+    public int getImageCount() {
+        return files.length;
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        if (position >= files.length) {
+            if (!loop) return false;
+            position = 0;
+        }
+        if (images != null) {
+            images[position].copyTo(frame);
+        } else {
+            Mat image = decode(files[position]);
+            image.copyTo(frame);
+            image.release();
+        }
+        position++;
+        return true;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void release() {
+        if (images == null) return;
+        for (Mat image : images) {
+            image.release();
+        }
+        images = null;
+    }
+
+    @Override
+    public String getName() {
+        return "images " + path;
+    }
+}
@@ -0,0 +1,98 @@
+package com.koubek.source;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * SyntheticFrameSource instances generate frames without any hardware or files.
+ * The generated scene consists of a static noisy background with moving copies of a sprite (usually a face image) or moving ellipses.
+ */
+public class SyntheticFrameSource implements FrameSource {
+    private Mat background;
+    private Mat sprite;
+    private int spriteCount;
+    private int frameCount;
+    private int position = 0;
+
+    /**
+     * Creates a source of generated frames with the given resolution containing moving ellipses
+     * @param width frame width
+     * @param height frame height
+     * @param frameCount number of frames to generate, 0 or less for an endless source
+     */
+    public SyntheticFrameSource(int width, int height, int frameCount) {
+        this(width, height, frameCount, null, 1);
+    }
+
+    /**
+     * Creates a source of generated frames with the given resolution containing moving copies of the sprite
+     * @param width frame width
+     * @param height frame height
+     * @param frameCount number of frames to generate, 0 or less for an endless source
+     * @param sprite image pasted into every frame, null for ellipses
+     * @param spriteCount number of sprites in every frame
+     */
+    public SyntheticFrameSource(int width, int height, int frameCount, Mat sprite, int spriteCount) {
+        this.frameCount = frameCount;
+        this.spriteCount = spriteCount;
+        background = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(background, 0, 64);
+        for (int x = 0; x < width; x += 40) {
+            Imgproc.line(background, new Point(x, 0), new Point(x, height), new Scalar(90, 90, 90));
+        }
+        if (sprite != null) {
+            int spriteSize = Math.min(height / 3, width / Math.max(1, spriteCount));
+            this.sprite = new Mat();
+            Imgproc.resize(sprite, this.sprite, new Size(spriteSize, spriteSize));
+            if (this.sprite.channels() == 1) {
+                Imgproc.cvtColor(this.sprite, this.sprite, Imgproc.COLOR_GRAY2BGR);
+            }
+        }
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        if (frameCount > 0 && position >= frameCount) return false;
+        background.copyTo(frame);
+        int slotWidth = frame.cols() / Math.max(1, spriteCount);
+        for (int i = 0; i < spriteCount; i++) {
+            int size = sprite != null ? sprite.rows() : frame.rows() / 4;
+            int range = Math.max(1, slotWidth - size);
+            int x = i * slotWidth + (position * 4 + i * 17) % range;
+            int y = (frame.rows() - size) / 2 + (int) (Math.sin(position / 10.0 + i) * frame.rows() / 10);
+            Rect rect = new Rect(x, Math.max(0, y), size, size);
+            if (rect.x + rect.width > frame.cols() || rect.y + rect.height > frame.rows()) continue;
+            if (sprite != null) {
+                Mat region = frame.submat(rect);
+                sprite.copyTo(region);
+                region.release();
+            } else {
+                Imgproc.ellipse(frame, new Point(rect.x + size / 2.0, rect.y + size / 2.0), new Size(size / 2.5, size / 2.0), 0, 0, 360, new Scalar(120, 150, 200), -1);
+            }
+        }
+        position++;
+        return true;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void release() {
+        background.release();
+        if (sprite != null) sprite.release();
+    }
+
+    @Override
+    public String getName() {
+        return "synthetic " + background.cols() + "x" + background.rows();
+    }
+}
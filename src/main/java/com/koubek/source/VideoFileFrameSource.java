@@ -0,0 +1,45 @@
+package com.koubek.source;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * VideoFileFrameSource instances read frames from a video file.
+ * The frames are provided as fast as they can be decoded.
+ */
+public class VideoFileFrameSource implements FrameSource {
+    private VideoCapture videoCapture;
+    private String path;
+
+    /**
+     * Opens the video file in the given path
+     * @param path path to the video file
+     */
+    public VideoFileFrameSource(String path) {
+        this.path = path;
+        videoCapture = new VideoCapture(path);
+        if (!videoCapture.isOpened()) {
+            throw new RuntimeException("Unable to open video file: " + path);
+        }
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        return videoCapture.read(frame) && !frame.empty();
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void release() {
+        videoCapture.release();
+    }
+
+    @Override
+    public String getName() {
+        return "video " + path;
+    }
+}
@@ -0,0 +1,142 @@
+package com.koubek.stats;
+
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * CameraStats instances collect the latencies of a camera's stages and its achieved frame rate, along with the frame and gallery counters of the camera.
+ * Statistics are reported either as a human readable table or in the Prometheus text format.
+ */
+public class CameraStats {
+    private static final double[] QUANTILES = {0.5, 0.99};
+
+    private final String name;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+    private final RateMeter frameRate = new RateMeter();
+    private final LongSupplier completedFrames;
+    private final LongSupplier droppedFrames;
+    private final LongSupplier skippedFrames;
+    private final LongSupplier gallerySize;
+    private final DoubleSupplier captureRate;
+
+    /**
+     * Constructs new camera statistics
+     * @param name camera name, used as a label of the exported metrics
+     * @param completedFrames number of frames that have passed through all stages
+     * @param droppedFrames number of frames dropped by full queues
+     * @param skippedFrames number of frames a stage has not passed on
+     * @param gallerySize number of people the camera's recognizer can recognize
+     * @param captureRate rate the camera currently captures frames at
+     */
+    public CameraStats(String name, LongSupplier completedFrames, LongSupplier droppedFrames, LongSupplier skippedFrames, LongSupplier gallerySize, DoubleSupplier captureRate) {
+        this.name = name;
+        this.completedFrames = completedFrames;
+        this.droppedFrames = droppedFrames;
+        this.skippedFrames = skippedFrames;
+        this.gallerySize = gallerySize;
+        this.captureRate = captureRate;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the duration of a stage which started at the given time and has just finished
+     * @param stage stage
+     * @param startTime {@link System#nanoTime()} at the start of the stage
+     */
+    public void record(Stage stage, long startTime) {
+        latencies[stage.ordinal()].record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records a frame which has been fully processed
+     */
+    public void markFrame() {
+        frameRate.mark();
+    }
+
+    /**
+     * Returns the latency histogram of the given stage
+     * @param stage stage
+     * @return latency histogram
+     */
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    /**
+     * Returns the achieved frame rate
+     * @return frames per second
+     */
+    public double getFrameRate() {
+        return frameRate.getRate();
+    }
+
+    /**
+     * Returns the statistics as a human readable table
+     * @return report
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-12s %10s %10s %10s %10s%n", "Stage", "p50 ms", "p99 ms", "max ms", "count"));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = getLatency(stage);
+            report.append(String.format("%-12s %10.2f %10.2f %10.2f %10d%n", stage.getLabel(),
+                    latency.getPercentile(0.5) / 1e6, latency.getPercentile(0.99) / 1e6, latency.getMax() / 1e6, latency.getCount()));
+        }
+        report.append(String.format("Frame rate: %.2f fps, capture rate: %.2f fps%n", getFrameRate(), captureRate.getAsDouble()));
+        report.append("Completed frames: " + completedFrames.getAsLong() + ", dropped: " + droppedFrames.getAsLong() + ", skipped: " + skippedFrames.getAsLong() + "\n");
+        report.append("Gallery size: " + gallerySize.getAsLong() + " people");
+        return report.toString();
+    }
+
+    /**
+     * Appends the statistics in the Prometheus text format to the given builder.
+     * The metric descriptions are only written by {@link #appendPrometheusHeader(StringBuilder)}, so statistics of several cameras can share them.
+     * @param builder builder
+     */
+    public void appendPrometheus(StringBuilder builder) {
+        String camera = "camera=\"" + name + "\"";
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = getLatency(stage);
+            String labels = camera + ",stage=\"" + stage.getLabel() + "\"";
+            for (double quantile : QUANTILES) {
+                builder.append("facerecognition_stage_latency_seconds{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(latency.getPercentile(quantile) / 1e9).append('\n');
+            }
+            builder.append("facerecognition_stage_latency_seconds_sum{").append(labels).append("} ").append(latency.getSum() / 1e9).append('\n');
+            builder.append("facerecognition_stage_latency_seconds_count{").append(labels).append("} ").append(latency.getCount()).append('\n');
+            builder.append("facerecognition_stage_latency_max_seconds{").append(labels).append("} ").append(latency.getMax() / 1e9).append('\n');
+        }
+        builder.append("facerecognition_frame_rate{").append(camera).append("} ").append(getFrameRate()).append('\n');
+        builder.append("facerecognition_capture_rate{").append(camera).append("} ").append(captureRate.getAsDouble()).append('\n');
+        builder.append("facerecognition_frames_completed_total{").append(camera).append("} ").append(completedFrames.getAsLong()).append('\n');
+        builder.append("facerecognition_frames_dropped_total{").append(camera).append("} ").append(droppedFrames.getAsLong()).append('\n');
+        builder.append("facerecognition_frames_skipped_total{").append(camera).append("} ").append(skippedFrames.getAsLong()).append('\n');
+        builder.append("facerecognition_gallery_people{").append(camera).append("} ").append(gallerySize.getAsLong()).append('\n');
+    }
+
+    /**
+     * Appends the descriptions of all metrics written by {@link #appendPrometheus(StringBuilder)} to the given builder
+     * @param builder builder
+     */
+    public static void appendPrometheusHeader(StringBuilder builder) {
+        builder.append("# HELP facerecognition_stage_latency_seconds Time spent in a camera stage per frame.\n");
+        builder.append("# TYPE facerecognition_stage_latency_seconds summary\n");
+        builder.append("# HELP facerecognition_stage_latency_max_seconds Longest time spent in a camera stage.\n");
+        builder.append("# TYPE facerecognition_stage_latency_max_seconds gauge\n");
+        builder.append("# HELP facerecognition_frame_rate Frames processed per second.\n");
+        builder.append("# TYPE facerecognition_frame_rate gauge\n");
+        builder.append("# HELP facerecognition_capture_rate Frames per second the camera currently captures, 0 when capturing as fast as possible.\n");
+        builder.append("# TYPE facerecognition_capture_rate gauge\n");
+        builder.append("# HELP facerecognition_frames_completed_total Frames that have passed through all stages.\n");
+        builder.append("# TYPE facerecognition_frames_completed_total counter\n");
+        builder.append("# HELP facerecognition_frames_dropped_total Frames dropped by full pipeline queues.\n");
+        builder.append("# TYPE facerecognition_frames_dropped_total counter\n");
+        builder.append("# HELP facerecognition_frames_skipped_total Frames a stage has not passed on.\n");
+        builder.append("# TYPE facerecognition_frames_skipped_total counter\n");
+        builder.append("# HELP facerecognition_gallery_people People the camera's recognizer can recognize.\n");
+        builder.append("# TYPE facerecognition_gallery_people gauge\n");
+    }
+}
@@ -0,0 +1,106 @@
+package com.koubek.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram instances count recorded durations in buckets with a fixed relative precision, so percentiles can be estimated without storing the durations.
+ * Durations are bucketed by microseconds, every power of two is split into 8 buckets, so an estimate is never more than 12.5% above the recorded duration.
+ * Recording is lock-free and may happen from several threads at once.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single duration
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.incrementAndGet(getBucket(nanos / 1000));
+        count.increment();
+        sum.add(nanos);
+        long currentMax;
+        while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+            // Another thread has raised the maximum in the meantime
+        }
+    }
+
+    /**
+     * Returns the number of recorded durations
+     * @return count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded durations
+     * @return sum in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the longest recorded duration
+     * @return maximum in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an estimate of the given percentile of the recorded durations
+     * @param percentile percentile between 0 and 1
+     * @return the upper bound of the bucket containing the percentile in nanoseconds, 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) throw new IllegalArgumentException("Percentile must be between 0 and 1!");
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(getUpperBound(i) * 1000 + 999, getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket a duration belongs to
+     * @param micros duration in microseconds
+     * @return bucket index
+     */
+    static int getBucket(long micros) {
+        if (micros < SUB_BUCKET_COUNT) return (int) micros;
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((micros >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Returns the longest duration belonging to a bucket
+     * @param bucket bucket index
+     * @return upper bound in microseconds
+     */
+    static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) return bucket;
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
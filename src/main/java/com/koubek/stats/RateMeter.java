@@ -0,0 +1,37 @@
+package com.koubek.stats;
+
+/**
+ * RateMeter instances measure how many events per second happen, averaged over windows of one second.
+ */
+public class RateMeter {
+    private static final long WINDOW = 1_000_000_000L;
+
+    private long windowStart = System.nanoTime();
+    private long windowCount = 0;
+    private volatile double rate = 0;
+    private volatile long lastEvent = 0;
+
+    /**
+     * Records a single event
+     */
+    public synchronized void mark() {
+        long now = System.nanoTime();
+        lastEvent = now;
+        windowCount++;
+        long elapsed = now - windowStart;
+        if (elapsed >= WINDOW) {
+            rate = windowCount * 1e9 / elapsed;
+            windowCount = 0;
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Returns the rate of the most recent complete window
+     * @return events per second, 0 if there have been no events for two windows
+     */
+    public double getRate() {
+        if (System.nanoTime() - lastEvent > 2 * WINDOW) return 0;
+        return rate;
+    }
+}
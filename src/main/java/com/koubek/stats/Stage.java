@@ -0,0 +1,34 @@
+package com.koubek.stats;
+
+/**
+ * Stage represents the individual steps a camera performs on every frame, each of which has its own latency histogram.
+ */
+public enum Stage {
+    CAPTURE("capture"),
+    GRAYSCALE("grayscale"),
+    MOTION("motion"),
+    DETECTION("detection"),
+    SMILES("smiles"),
+    RECOGNITION("recognition"),
+    OVERLAY("overlay"),
+    GPIO("gpio"),
+    END_TO_END("end-to-end");
+
+    private final String label;
+
+    /**
+     * Constructs a new stage
+     * @param label name used in reports and exported metrics
+     */
+    Stage(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Returns the name used in reports and exported metrics
+     * @return label
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,68 @@
+package com.koubek.stats;
+
+import com.koubek.Log;
+import com.koubek.MessageType;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * StatsServer serves as a way to statically manage the local HTTP endpoint, which exposes camera statistics in the Prometheus text format at /metrics.
+ * The endpoint only listens on the loopback interface.
+ */
+public abstract class StatsServer {
+    private static HttpServer server;
+    private static ExecutorService executor;
+
+    /**
+     * Starts the endpoint on the given port, stopping a previously started endpoint
+     * @param port local port, 0 or less to only stop the endpoint
+     * @param body supplies the statistics of all cameras in the Prometheus text format
+     * @throws IOException in case the endpoint could not be started
+     */
+    public static synchronized void start(int port, Supplier<String> body) throws IOException {
+        stop();
+        if (port <= 0) return;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] response = body.get().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        Log.printMessage("Statistics available at http://localhost:" + port + "/metrics", MessageType.INIT);
+    }
+
+    /**
+     * Stops the endpoint if it is running
+     */
+    public static synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdown();
+        server = null;
+        executor = null;
+    }
+}
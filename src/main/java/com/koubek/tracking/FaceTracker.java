@@ -0,0 +1,260 @@
+package com.koubek.tracking;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.detection.Rects;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * FaceTracker instances follow faces across frames, so that the face detector does not have to run on every frame.
+ * Faces found by the detector are associated with existing tracks by their overlap. In frames without detection,
+ * every track is searched for by matching its downscaled template in a small region around its last position.
+ * Tracker instances reuse their buffers and are therefore not thread-safe.
+ */
+public class FaceTracker {
+    private static final int TEMPLATE_SIZE = 32;
+    private static final double SEARCH_MARGIN = 0.5;
+    private static final double MIN_MATCH_SCORE = 0.6;
+    private static final double MIN_OVERLAP = 0.3;
+
+    private final int detectionInterval;
+    private final int maxMissedFrames;
+    private final ArrayList<Track> tracks = new ArrayList<>();
+
+    private final Mat searchRegion = new Mat();
+    private final Mat scaledSearchRegion = new Mat();
+    private final Mat matchResult = new Mat();
+
+    private int nextTrackId = 1;
+    private int framesSinceDetection = 0;
+    private boolean trackLost = false;
+
+    /**
+     * Constructs a new face tracker
+     * @param detectionInterval the detector runs on every n-th frame, 1 to detect faces in every frame
+     * @param maxMissedFrames how many successive frames a face may not be found in before its track is lost
+     */
+    public FaceTracker(int detectionInterval, int maxMissedFrames) {
+        if (detectionInterval < 1) throw new IllegalArgumentException("Detection interval must be at least 1!");
+        this.detectionInterval = detectionInterval;
+        this.maxMissedFrames = maxMissedFrames;
+    }
+
+    /**
+     * Returns whether the detector has to run on the next frame, either because the detection interval has passed or because a track was lost
+     * @return is detection due
+     */
+    public boolean isDetectionDue() {
+        return trackLost || framesSinceDetection + 1 >= detectionInterval;
+    }
+
+    /**
+     * Updates the tracks using the faces found by the detector in the given frame.
+     * Tracks without a matching face are searched for by their template, faces without a matching track start new tracks.
+     * @param grayFrame grayscale frame
+     * @param detectedFaces faces found by the detector
+     */
+    public void update(Mat grayFrame, Rect[] detectedFaces) {
+        boolean[] matchedFaces = new boolean[detectedFaces.length];
+        boolean[] matchedTracks = new boolean[tracks.size()];
+        while (true) {
+            int bestTrack = -1;
+            int bestFace = -1;
+            double bestOverlap = MIN_OVERLAP;
+            for (int t = 0; t < tracks.size(); t++) {
+                if (matchedTracks[t]) continue;
+                for (int f = 0; f < detectedFaces.length; f++) {
+                    if (matchedFaces[f]) continue;
+                    double overlap = Rects.intersectionOverUnion(tracks.get(t).getRect(), detectedFaces[f]);
+                    if (overlap >= bestOverlap) {
+                        bestOverlap = overlap;
+                        bestTrack = t;
+                        bestFace = f;
+                    }
+                }
+            }
+            if (bestTrack < 0) break;
+            matchedTracks[bestTrack] = true;
+            matchedFaces[bestFace] = true;
+            Track track = tracks.get(bestTrack);
+            track.setRect(detectedFaces[bestFace]);
+            track.setMissedFrames(0);
+            refreshTemplate(grayFrame, track);
+        }
+
+        ArrayList<Track> unmatchedTracks = new ArrayList<>();
+        for (int t = 0; t < matchedTracks.length; t++) {
+            if (!matchedTracks[t]) unmatchedTracks.add(tracks.get(t));
+        }
+        for (Track track : unmatchedTracks) {
+            follow(grayFrame, track);
+        }
+        for (int f = 0; f < detectedFaces.length; f++) {
+            if (matchedFaces[f]) continue;
+            Track track = new Track(nextTrackId++, detectedFaces[f]);
+            refreshTemplate(grayFrame, track);
+            tracks.add(track);
+        }
+        removeLostTracks();
+        for (Track track : tracks) {
+            track.age();
+        }
+        framesSinceDetection = 0;
+        trackLost = false;
+    }
+
+    /**
+     * Updates the tracks by searching for their faces in the given frame without running the detector
+     * @param grayFrame grayscale frame
+     */
+    public void track(Mat grayFrame) {
+        for (Track track : tracks) {
+            follow(grayFrame, track);
+            track.age();
+        }
+        if (removeLostTracks()) trackLost = true;
+        framesSinceDetection++;
+    }
+
+    /**
+     * Returns whether any face is being tracked, including faces which were not found in the most recent frames but whose tracks have not been lost yet
+     * @return has tracks
+     */
+    public boolean hasTracks() {
+        return !tracks.isEmpty();
+    }
+
+    /**
+     * Returns the rectangles of all tracked faces found in the most recent frame
+     * @return rectangles
+     */
+    public Rect[] getFaces() {
+        ArrayList<Track> visibleTracks = getVisibleTracks();
+        Rect[] faces = new Rect[visibleTracks.size()];
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = visibleTracks.get(i).getRect().clone();
+        }
+        return faces;
+    }
+
+    /**
+     * Returns the identifiers of all tracked faces found in the most recent frame, in the same order as {@link #getFaces()}
+     * @return track identifiers
+     */
+    public int[] getTrackIds() {
+        ArrayList<Track> visibleTracks = getVisibleTracks();
+        int[] ids = new int[visibleTracks.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = visibleTracks.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the tracks whose faces were found in the most recent frame
+     * @return visible tracks
+     */
+    private ArrayList<Track> getVisibleTracks() {
+        ArrayList<Track> visibleTracks = new ArrayList<>(tracks.size());
+        for (Track track : tracks) {
+            if (track.getMissedFrames() == 0) visibleTracks.add(track);
+        }
+        return visibleTracks;
+    }
+
+    /**
+     * Searches for the track's face around its last position and moves the track to the best match
+     * @param grayFrame grayscale frame
+     * @param track track
+     */
+    private void follow(Mat grayFrame, Track track) {
+        if (search(grayFrame, track)) {
+            track.setMissedFrames(0);
+        } else {
+            track.setMissedFrames(track.getMissedFrames() + 1);
+        }
+    }
+
+    /**
+     * Matches the track's template in a region around its last position
+     * @param grayFrame grayscale frame
+     * @param track track
+     * @return whether the face was found
+     */
+    private boolean search(Mat grayFrame, Track track) {
+        Rect rect = track.getRect();
+        Mat template = track.getTemplate();
+        if (template.empty()) return false;
+        int margin = (int) Math.round(Math.max(rect.width, rect.height) * SEARCH_MARGIN);
+        Rect window = Rects.clamp(new Rect(rect.x - margin, rect.y - margin, rect.width + 2 * margin, rect.height + 2 * margin),
+                grayFrame.cols(), grayFrame.rows());
+        if (window.width < rect.width || window.height < rect.height) return false;
+
+        double scale = track.getTemplateScale();
+        Rects.copyRegion(grayFrame, window, searchRegion);
+        Imgproc.resize(searchRegion, scaledSearchRegion,
+                new Size(Math.max(1, Math.round(window.width * scale)), Math.max(1, Math.round(window.height * scale))), 0, 0, Imgproc.INTER_AREA);
+        if (scaledSearchRegion.cols() < template.cols() || scaledSearchRegion.rows() < template.rows()) return false;
+
+        Imgproc.matchTemplate(scaledSearchRegion, template, matchResult, Imgproc.TM_CCOEFF_NORMED);
+        Core.MinMaxLocResult match = Core.minMaxLoc(matchResult);
+        if (match.maxVal < MIN_MATCH_SCORE) return false;
+        Rect moved = new Rect(window.x + (int) Math.round(match.maxLoc.x / scale), window.y + (int) Math.round(match.maxLoc.y / scale),
+                rect.width, rect.height);
+        Rect clamped = Rects.clamp(moved, grayFrame.cols(), grayFrame.rows());
+        if (clamped.width == 0 || clamped.height == 0) return false;
+        track.setRect(clamped);
+        return true;
+    }
+
+    /**
+     * Replaces the track's template with its face in the given frame
+     * @param grayFrame grayscale frame
+     * @param track track
+     */
+    private void refreshTemplate(Mat grayFrame, Track track) {
+        Rect rect = track.getRect();
+        double scale = Math.min(1, TEMPLATE_SIZE / (double) Math.max(rect.width, rect.height));
+        Rects.copyRegion(grayFrame, rect, searchRegion);
+        Imgproc.resize(searchRegion, track.getTemplate(),
+                new Size(Math.max(1, Math.round(rect.width * scale)), Math.max(1, Math.round(rect.height * scale))), 0, 0, Imgproc.INTER_AREA);
+        track.setTemplateScale(scale);
+    }
+
+    /**
+     * Removes all tracks whose faces have not been found for too many frames
+     * @return whether any track was removed
+     */
+    private boolean removeLostTracks() {
+        boolean removed = false;
+        Iterator<Track> iterator = tracks.iterator();
+        while (iterator.hasNext()) {
+            Track track = iterator.next();
+            if (track.getMissedFrames() > maxMissedFrames) {
+                track.release();
+                iterator.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all tracks and releases the native buffers of the tracker
+     */
+    public void release() {
+        for (Track track : tracks) {
+            track.release();
+        }
+        tracks.clear();
+        searchRegion.release();
+        scaledSearchRegion.release();
+        matchResult.release();
+    }
+}
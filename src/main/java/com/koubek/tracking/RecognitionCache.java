@@ -0,0 +1,155 @@
+package com.koubek.tracking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Detection;
+import com.koubek.Recognizer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * RecognitionCache instances remember the recognition result of every face track, so that a face standing still does not have to be recognized again in every frame.
+ * A cached result is only reused while the face looks the same as when it was recognized, its lifetime has not expired
+ * and neither the model nor the maximum confidence has changed, as the result tells whether the face was recognized under the maximum confidence it was cached with.
+ * Results whose confidence is close to the maximum confidence are only kept for a fraction of the lifetime, so that they get verified again soon.
+ * Cache instances are not thread-safe.
+ */
+public class RecognitionCache {
+    private static final int SIGNATURE_SIZE = 8;
+    private static final double MAX_APPEARANCE_CHANGE = 0.08;
+    private static final double WEAK_CONFIDENCE_MARGIN = 0.15;
+    private static final int WEAK_LIFETIME_DIVISOR = 4;
+
+    private final long lifetimeNanos;
+    private final HashMap<Integer, Entry> entries = new HashMap<>();
+    private final Mat signatureBuffer = new Mat();
+    private final Size signatureSize = new Size(SIGNATURE_SIZE, SIGNATURE_SIZE);
+
+    /**
+     * Entry instances hold the cached recognition result of a single track
+     */
+    private static class Entry {
+        private byte[] signature;
+        private Detection detection;
+        private long modelVersion;
+        private double maxConfidence;
+        private long expirationTime;
+    }
+
+    /**
+     * Constructs a new recognition cache
+     * @param lifetimeMillis how long a confident recognition result may be reused, in milliseconds
+     */
+    public RecognitionCache(long lifetimeMillis) {
+        this.lifetimeNanos = lifetimeMillis * 1_000_000L;
+    }
+
+    /**
+     * Computes the appearance signature of the given face, which is a tiny downscaled copy of it
+     * @param face grayscale image of the face
+     * @return signature
+     */
+    public byte[] getSignature(Mat face) {
+        Imgproc.resize(face, signatureBuffer, signatureSize, 0, 0, Imgproc.INTER_AREA);
+        byte[] signature = new byte[SIGNATURE_SIZE * SIGNATURE_SIZE];
+        if (signatureBuffer.type() != CvType.CV_8UC1) {
+            signatureBuffer.convertTo(signatureBuffer, CvType.CV_8UC1);
+        }
+        signatureBuffer.get(0, 0, signature);
+        return signature;
+    }
+
+    /**
+     * Returns the cached recognition result of the track if it may still be used
+     * @param trackId track identifier
+     * @param signature appearance signature of the track's face in the current frame
+     * @param modelVersion version of the recognizer's model
+     * @param maxConfidence the maximum confidence value which still counts as a recognized face
+     * @param now current time, as given by {@link System#nanoTime()}
+     * @return cached detection, null if the face has to be recognized again
+     */
+    public Detection get(int trackId, byte[] signature, long modelVersion, double maxConfidence, long now) {
+        Entry entry = entries.get(trackId);
+        if (entry == null) return null;
+        if (entry.modelVersion != modelVersion || entry.maxConfidence != maxConfidence || now - entry.expirationTime > 0 || getAppearanceChange(entry.signature, signature) > MAX_APPEARANCE_CHANGE) {
+            entries.remove(trackId);
+            return null;
+        }
+        return entry.detection;
+    }
+
+    /**
+     * Stores the recognition result of the track
+     * @param trackId track identifier
+     * @param signature appearance signature of the recognized face
+     * @param detection recognition result
+     * @param modelVersion version of the recognizer's model
+     * @param maxConfidence the maximum confidence value which still counts as a recognized face
+     * @param now current time, as given by {@link System#nanoTime()}
+     */
+    public void put(int trackId, byte[] signature, Detection detection, long modelVersion, double maxConfidence, long now) {
+        if (lifetimeNanos <= 0) return;
+        // The shared constant is returned when the recognizer could not make a prediction at all, so there is nothing to reuse
+        if (detection == Recognizer.UNRECOGNIZED) return;
+        Entry entry = new Entry();
+        entry.signature = signature;
+        entry.detection = detection;
+        entry.modelVersion = modelVersion;
+        entry.maxConfidence = maxConfidence;
+        boolean weak = Math.abs(detection.getConfidence() - maxConfidence) <= maxConfidence * WEAK_CONFIDENCE_MARGIN;
+        entry.expirationTime = now + (weak ? lifetimeNanos / WEAK_LIFETIME_DIVISOR : lifetimeNanos);
+        entries.put(trackId, entry);
+    }
+
+    /**
+     * Removes the results of all tracks that are no longer present
+     * @param trackIds identifiers of the present tracks
+     */
+    public void retain(int[] trackIds) {
+        Iterator<Integer> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            int trackId = iterator.next();
+            boolean present = false;
+            for (int id : trackIds) {
+                if (id == trackId) {
+                    present = true;
+                    break;
+                }
+            }
+            if (!present) iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all cached results
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns how much the appearance of a face has changed between two signatures
+     * @param previous previous signature
+     * @param current current signature
+     * @return mean absolute difference of the signatures, between 0 and 1
+     */
+    private static double getAppearanceChange(byte[] previous, byte[] current) {
+        long difference = 0;
+        for (int i = 0; i < previous.length; i++) {
+            difference += Math.abs((previous[i] & 0xFF) - (current[i] & 0xFF));
+        }
+        return difference / (255.0 * previous.length);
+    }
+
+    /**
+     * Removes all cached results and releases the native buffers of the cache
+     */
+    public void release() {
+        entries.clear();
+        signatureBuffer.release();
+    }
+}
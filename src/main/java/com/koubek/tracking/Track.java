@@ -0,0 +1,113 @@
+package com.koubek.tracking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Track instances represent a single face followed across frames by a face tracker.
+ * A track keeps its identifier for as long as the face is being followed.
+ */
+public class Track {
+    private final int id;
+    private final Mat template = new Mat();
+    private Rect rect;
+    private double templateScale;
+    private int missedFrames = 0;
+    private int age = 0;
+
+    /**
+     * Constructs a new track
+     * @param id track identifier
+     * @param rect rectangle of the face
+     */
+    Track(int id, Rect rect) {
+        this.id = id;
+        this.rect = rect;
+    }
+
+    /**
+     * Returns the track identifier, which stays the same for as long as the face is being followed
+     * @return track identifier
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the rectangle of the face in the most recent frame
+     * @return rectangle
+     */
+    public Rect getRect() {
+        return rect;
+    }
+
+    /**
+     * Sets the rectangle of the face in the most recent frame
+     * @param rect rectangle
+     */
+    void setRect(Rect rect) {
+        this.rect = rect;
+    }
+
+    /**
+     * Returns the downscaled image of the face used for searching it in the following frames
+     * @return template
+     */
+    Mat getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the factor the template was scaled by
+     * @return template scale
+     */
+    double getTemplateScale() {
+        return templateScale;
+    }
+
+    /**
+     * Sets the factor the template was scaled by
+     * @param templateScale template scale
+     */
+    void setTemplateScale(double templateScale) {
+        this.templateScale = templateScale;
+    }
+
+    /**
+     * Returns in how many successive frames the face could not be found
+     * @return missed frame count
+     */
+    public int getMissedFrames() {
+        return missedFrames;
+    }
+
+    /**
+     * Sets in how many successive frames the face could not be found
+     * @param missedFrames missed frame count
+     */
+    void setMissedFrames(int missedFrames) {
+        this.missedFrames = missedFrames;
+    }
+
+    /**
+     * Returns in how many frames the face has been followed
+     * @return age in frames
+     */
+    public int getAge() {
+        return age;
+    }
+
+    /**
+     * Increases the age of the track by one frame
+     */
+    void age() {
+        age++;
+    }
+
+    /**
+     * Releases the native buffers of the track
+     */
+    void release() {
+        template.release();
+    }
+}
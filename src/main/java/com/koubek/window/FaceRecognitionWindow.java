@@ -2,14 +2,13 @@ package com.koubek.window;
 
 import javax.swing.JFrame;
 
-import java.awt.BorderLayout;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 
 /**
  * FaceRecognitionWindow serves as the window used for displaying the altered camera output.
  */
 public class FaceRecognitionWindow extends JFrame {
+    private final PreviewPanel previewPanel = new PreviewPanel();
 
     /**
      * Constructs a new face recognition window
@@ -19,15 +18,31 @@ public class FaceRecognitionWindow extends JFrame {
         this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         this.setSize(800, 600);
         this.setLocationRelativeTo(null);
-        this.setLayout(null);
+        this.setContentPane(previewPanel);
     }
 
     /**
      * Sets the image displayed by the window.
-     * @param image the image
+     * The image is painted on the event dispatch thread, so this method may be called from any thread.
+     * @param image the image, which should have the size of the preview area
      */
     public void setImage(BufferedImage image) {
-        Graphics2D g2D = (Graphics2D) this.getGraphics();
-        g2D.drawImage(image, 0, 0, this.getWidth(), this.getHeight(), null);
+        previewPanel.setImage(image);
+    }
+
+    /**
+     * Returns the width of the area the image is displayed in
+     * @return preview width
+     */
+    public int getPreviewWidth() {
+        return previewPanel.getWidth();
+    }
+
+    /**
+     * Returns the height of the area the image is displayed in
+     * @return preview height
+     */
+    public int getPreviewHeight() {
+        return previewPanel.getHeight();
     }
 }
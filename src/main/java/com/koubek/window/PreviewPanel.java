@@ -0,0 +1,43 @@
+package com.koubek.window;
+
+import javax.swing.JPanel;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+/**
+ * PreviewPanel serves as the component which paints the most recently rendered preview image.
+ */
+class PreviewPanel extends JPanel {
+    private volatile BufferedImage image;
+
+    /**
+     * Constructs a new preview panel
+     */
+    PreviewPanel() {
+        setBackground(Color.BLACK);
+        // The images are already double buffered by the renderer
+        setDoubleBuffered(false);
+    }
+
+    /**
+     * Sets the image painted by the panel and schedules a repaint, may be called from any thread
+     * @param image the image
+     */
+    void setImage(BufferedImage image) {
+        this.image = image;
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        BufferedImage currentImage = image;
+        if (currentImage == null) return;
+        // The renderer locks the image while drawing into it
+        synchronized (currentImage) {
+            g.drawImage(currentImage, 0, 0, getWidth(), getHeight(), null);
+        }
+    }
+}
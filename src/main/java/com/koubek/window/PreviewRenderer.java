@@ -0,0 +1,147 @@
+package com.koubek.window;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Detection;
+import com.koubek.pipeline.Frame;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+ * PreviewRenderer instances draw processed frames with highlighted faces, names, confidence values and smiles into buffered images.
+ * Frames are scaled to the requested size first and the overlays are drawn at that size, the pixels are then copied straight into the image's raster.
+ * Every renderer alternates between two images, so the image displayed by the window is never drawn into while the next frame is being rendered.
+ * A renderer is meant to be used by a single render thread.
+ */
+public class PreviewRenderer {
+    private static final Scalar FACE_COLOR = new Scalar(0, 255, 0);
+    private static final Scalar SMILE_COLOR = new Scalar(255, 0, 0);
+    private static final Scalar TEXT_COLOR = new Scalar(255, 255, 255);
+    private static final double TEXT_SCALE = 0.6;
+    private static final int TEXT_THICKNESS = 2;
+    private static final int LINE_HEIGHT = 22;
+
+    private final Mat canvas = new Mat();
+    private final BufferedImage[] images = new BufferedImage[2];
+    private int backImage = 0;
+
+    /**
+     * Renders the frame into the renderer's back image and makes it the front image
+     * @param frame processed frame
+     * @param smiles smiles of every face, null to draw no smiles
+     * @param width width of the rendered image
+     * @param height height of the rendered image
+     * @return rendered image, which stays unchanged until the next but one call, null if the size is empty
+     */
+    public BufferedImage render(Frame frame, Rect[][] smiles, int width, int height) {
+        if (width <= 0 || height <= 0) return null;
+        BufferedImage image = images[backImage];
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            images[backImage] = image;
+        }
+        draw(frame, smiles, canvas, width, height);
+        // The window locks the image while painting it
+        synchronized (image) {
+            copyToImage(canvas, image);
+        }
+        backImage = 1 - backImage;
+        return image;
+    }
+
+    /**
+     * Renders the frame into a new image of the frame's size
+     * @param frame processed frame
+     * @param smiles smiles of every face, null to draw no smiles
+     * @return rendered image
+     */
+    public static BufferedImage render(Frame frame, Rect[][] smiles) {
+        Mat image = frame.getImage();
+        BufferedImage bufferedImage = new BufferedImage(image.cols(), image.rows(), BufferedImage.TYPE_3BYTE_BGR);
+        Mat canvas = new Mat();
+        try {
+            draw(frame, smiles, canvas, image.cols(), image.rows());
+            copyToImage(canvas, bufferedImage);
+        } finally {
+            canvas.release();
+        }
+        return bufferedImage;
+    }
+
+    /**
+     * Scales the frame to the given size and draws the frame's faces, names, confidence values and smiles over it
+     * @param frame processed frame
+     * @param smiles smiles of every face, null to draw no smiles
+     * @param canvas buffer the frame is drawn into
+     * @param width width of the canvas
+     * @param height height of the canvas
+     */
+    private static void draw(Frame frame, Rect[][] smiles, Mat canvas, int width, int height) {
+        Mat image = frame.getImage();
+        if (image.cols() == width && image.rows() == height) {
+            image.copyTo(canvas);
+        } else {
+            int interpolation = width < image.cols() ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR;
+            Imgproc.resize(image, canvas, new Size(width, height), 0, 0, interpolation);
+        }
+        if (canvas.type() != CvType.CV_8UC3) {
+            Imgproc.cvtColor(canvas, canvas, Imgproc.COLOR_GRAY2BGR);
+        }
+        double scaleX = width / (double) image.cols();
+        double scaleY = height / (double) image.rows();
+
+        Rect[] faces = frame.getFaces();
+        Detection[] detections = frame.getDetections();
+        for (int i = 0; i < faces.length; i++) {
+            Rect face = scaleRect(faces[i], scaleX, scaleY);
+            Imgproc.rectangle(canvas, face, FACE_COLOR);
+            if (detections == null || i >= detections.length) continue;
+            Imgproc.putText(canvas, detections[i].getPerson().getName(), new Point(face.x, face.y + face.height + LINE_HEIGHT),
+                    Imgproc.FONT_HERSHEY_SIMPLEX, TEXT_SCALE, TEXT_COLOR, TEXT_THICKNESS);
+            Imgproc.putText(canvas, String.valueOf((int) detections[i].getConfidence()), new Point(face.x, face.y + face.height + 2 * LINE_HEIGHT),
+                    Imgproc.FONT_HERSHEY_SIMPLEX, TEXT_SCALE, TEXT_COLOR, TEXT_THICKNESS);
+        }
+        if (smiles == null) return;
+        for (Rect[] faceSmiles : smiles) {
+            for (Rect smile : faceSmiles) {
+                Imgproc.rectangle(canvas, scaleRect(smile, scaleX, scaleY), SMILE_COLOR);
+            }
+        }
+    }
+
+    /**
+     * Returns the rectangle scaled by the given factors
+     * @param rect rectangle
+     * @param scaleX horizontal factor
+     * @param scaleY vertical factor
+     * @return scaled rectangle
+     */
+    private static Rect scaleRect(Rect rect, double scaleX, double scaleY) {
+        return new Rect((int) Math.round(rect.x * scaleX), (int) Math.round(rect.y * scaleY),
+                (int) Math.round(rect.width * scaleX), (int) Math.round(rect.height * scaleY));
+    }
+
+    /**
+     * Copies the pixels of a BGR image of the same size into the raster of the buffered image
+     * @param canvas continuous BGR image
+     * @param image buffered image of the type {@link BufferedImage#TYPE_3BYTE_BGR}
+     */
+    private static void copyToImage(Mat canvas, BufferedImage image) {
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        canvas.get(0, 0, pixels);
+    }
+
+    /**
+     * Releases the renderer's buffers
+     */
+    public void release() {
+        canvas.release();
+    }
+}
@@ -0,0 +1,124 @@
+package com.koubek.recognition;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.face.LBPHFaceRecognizer;
+import org.opencv.imgproc.Imgproc;
+
+import com.koubek.Person;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the Java LBPH engine computes the same histograms and predicts the same people with the same distances as the native OpenCV LBPH face recognizer.
+ * The faces are generated smooth random textures, so the test needs no image files. It is skipped if the native OpenCV library cannot be loaded.
+ */
+class LbphParityTest {
+    private static final int FACE_COUNT = 12;
+    private static final int FACE_SIZE = 100;
+    private static final double MAX_RELATIVE_DISTANCE_ERROR = 1e-4;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        try {
+            System.load(new File("opencv/libopencv_java4110.so").getAbsolutePath());
+        } catch (UnsatisfiedLinkError e) {
+            Assumptions.abort("The native OpenCV library could not be loaded: " + e.getMessage());
+        }
+    }
+
+    @Test
+    void defaultParameters() {
+        checkParity(1, 8, 8, 8);
+    }
+
+    @Test
+    void largerRadiusAndCoarserGrid() {
+        checkParity(2, 8, 4, 4);
+    }
+
+    /**
+     * Trains both engines with the generated faces, then compares their histograms and their predictions of blurred and mirrored faces
+     * @param radius radius of the local binary patterns
+     * @param neighbors number of neighbours of the local binary patterns
+     * @param gridX number of cells in the horizontal direction
+     * @param gridY number of cells in the vertical direction
+     */
+    private static void checkParity(int radius, int neighbors, int gridX, int gridY) {
+        List<Mat> faces = createFaces();
+        int[] labels = new int[faces.size()];
+        ArrayList<Person> people = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i;
+            people.add(new Person("Face " + i, false));
+        }
+        LBPHFaceRecognizer lbph = LBPHFaceRecognizer.create(radius, neighbors, gridX, gridY, Double.MAX_VALUE);
+        lbph.train(faces, new MatOfInt(labels));
+        HistogramModel model = HistogramModel.fromNative(lbph, people);
+
+        LbphExtractor extractor = model.getExtractor();
+        float[] nativeHistogram = new float[extractor.getHistogramLength()];
+        for (int i = 0; i < faces.size(); i++) {
+            model.getGallery().getHistogram(i, nativeHistogram);
+            assertArrayEquals(nativeHistogram, extractor.extract(faces.get(i)), "Histogram of face " + i);
+        }
+
+        ArrayList<Mat> queries = new ArrayList<>();
+        for (Mat face : faces) {
+            Mat blurred = new Mat();
+            Imgproc.GaussianBlur(face, blurred, new Size(3, 3), 0);
+            queries.add(blurred);
+            Mat mirrored = new Mat();
+            Core.flip(face, mirrored, 1);
+            queries.add(mirrored);
+        }
+        Match[][] matches = model.predictAll(queries, 1);
+        int[] label = new int[1];
+        double[] nativeDistance = new double[1];
+        double[] distance = new double[1];
+        for (int q = 0; q < queries.size(); q++) {
+            lbph.predict(queries.get(q), label, nativeDistance);
+            assertEquals(label[0], model.predict(queries.get(q), distance), "Label of query " + q);
+            assertEquals(nativeDistance[0], distance[0], nativeDistance[0] * MAX_RELATIVE_DISTANCE_ERROR, "Distance of query " + q);
+            assertEquals(label[0], matches[q][0].getLabel(), "Batch label of query " + q);
+            assertEquals(nativeDistance[0], matches[q][0].getDistance(), nativeDistance[0] * MAX_RELATIVE_DISTANCE_ERROR, "Batch distance of query " + q);
+        }
+
+        for (Mat image : faces) {
+            image.release();
+        }
+        for (Mat image : queries) {
+            image.release();
+        }
+    }
+
+    /**
+     * Returns grayscale faces of random noise, blurred so that neighbouring pixels are similar like in real faces
+     * @return faces
+     */
+    private static List<Mat> createFaces() {
+        Random random = new Random(42);
+        ArrayList<Mat> faces = new ArrayList<>();
+        byte[] pixels = new byte[FACE_SIZE * FACE_SIZE];
+        for (int i = 0; i < FACE_COUNT; i++) {
+            random.nextBytes(pixels);
+            Mat face = new Mat(FACE_SIZE, FACE_SIZE, CvType.CV_8UC1);
+            face.put(0, 0, pixels);
+            Imgproc.GaussianBlur(face, face, new Size(5, 5), 0);
+            faces.add(face);
+        }
+        return faces;
+    }
+}